@@ -0,0 +1,16 @@
+package com.example.flashsale.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 購物車的一個品項 (結帳 API 的請求、Kafka 訂單訊息共用)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CartItem {
+    private Long productId;
+    private int quantity;
+}
@@ -0,0 +1,14 @@
+package com.example.flashsale.DTO;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 購物車結帳請求
+ */
+@Data
+public class CheckoutRequest {
+    private Long userId; // 不帶則隨機產生 (壓測用)
+    private List<CartItem> items;
+}
@@ -1,13 +1,22 @@
 package com.example.flashsale.DTO;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
-@AllArgsConstructor
+@NoArgsConstructor
 public class FailureLogEvent {
     private Long userId;
     private Long productId;
     private String reason;
     private String ipAddress;
+    // 合併事件代表幾筆 (發送端佇列滿了時同商品同原因合併，沒有 userId / IP)
+    private int count = 1;
+
+    public FailureLogEvent(Long userId, Long productId, String reason, String ipAddress) {
+        this.userId = userId;
+        this.productId = productId;
+        this.reason = reason;
+        this.ipAddress = ipAddress;
+    }
 }
\ No newline at end of file
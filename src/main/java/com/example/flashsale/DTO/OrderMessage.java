@@ -0,0 +1,71 @@
+package com.example.flashsale.DTO;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Kafka 訂單訊息 (flash-sale-topic)
+ * 訂單編號是 128-bit UUID，直接用兩個 long 存，不轉成 36 字元的字串
+ * 單品搶購走 v1 格式；購物車結帳整車一則訊息，品項放在 items (v2 格式)
+ * 二進位格式見 OrderMessageSerializer
+ */
+@Data
+@NoArgsConstructor
+public class OrderMessage {
+    private long userId;
+    private long productId; // 單品訂單的商品；購物車訂單是第一個品項
+    private long orderIdMostSigBits;
+    private long orderIdLeastSigBits;
+    private long createdAt; // 下單時間 (epoch millis)
+    private List<CartItem> items = Collections.emptyList(); // 購物車訂單的品項，單品訂單為空
+
+    public OrderMessage(long userId, long productId, long orderIdMostSigBits, long orderIdLeastSigBits, long createdAt) {
+        this.userId = userId;
+        this.productId = productId;
+        this.orderIdMostSigBits = orderIdMostSigBits;
+        this.orderIdLeastSigBits = orderIdLeastSigBits;
+        this.createdAt = createdAt;
+    }
+
+    public OrderMessage(long userId, long productId, UUID orderId, long createdAt) {
+        this(userId, productId, orderId.getMostSignificantBits(), orderId.getLeastSignificantBits(), createdAt);
+    }
+
+    // 購物車訂單
+    public OrderMessage(long userId, UUID orderId, List<CartItem> items, long createdAt) {
+        this(userId, items.get(0).getProductId(), orderId, createdAt);
+        this.items = List.copyOf(items);
+    }
+
+    public boolean isCart() {
+        return !items.isEmpty();
+    }
+
+    public UUID getOrderId() {
+        return new UUID(orderIdMostSigBits, orderIdLeastSigBits);
+    }
+
+    // 寫入 DB 的 order_no (字串只在真的要落地時才產生)
+    public String getOrderNo() {
+        return getOrderId().toString();
+    }
+
+    /**
+     * 訂單明細：單品訂單就是一筆 (數量 1)，購物車訂單每個品項一筆
+     */
+    public List<CartItem> getLines() {
+        return isCart() ? items : List.of(new CartItem(productId, 1));
+    }
+
+    /**
+     * 明細的 order_no：單品訂單沿用 UUID，購物車訂單加上品項序號 (UUID-1, UUID-2 ...)
+     * 同一則訊息重送時產生的編號不變，冪等檢查照樣有效
+     */
+    public String getLineOrderNo(int index) {
+        return isCart() ? getOrderNo() + "-" + (index + 1) : getOrderNo();
+    }
+}
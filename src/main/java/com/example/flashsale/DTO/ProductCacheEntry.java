@@ -0,0 +1,19 @@
+package com.example.flashsale.DTO;
+
+import com.example.flashsale.model.Product;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 商品快取的內容 (L1 / L2 共用)
+ * product 為 null 代表「這個 ID 不存在」(負快取，防止快取穿透)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductCacheEntry {
+    private Product product;
+    private long expireAt;      // 過期時間 (epoch millis)，給提前刷新判斷用
+    private long computeMillis; // 上次從 MySQL 載入花了多久，載入越慢越早刷新
+}
@@ -2,8 +2,10 @@ package com.example.flashsale;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling // 租約歸還等背景排程
 public class FlashSaleDemoApplication {
 
     public static void main(String[] args) {
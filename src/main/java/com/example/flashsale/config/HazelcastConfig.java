@@ -4,6 +4,7 @@ import com.hazelcast.config.Config;
 import com.hazelcast.config.JoinConfig;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.spring.context.SpringManagedContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
@@ -11,11 +12,20 @@ import org.springframework.context.annotation.Primary;
 @Configuration
 public class HazelcastConfig {
 
+    /**
+     * 讓廣播到各節點的任務 (標註 @SpringAware) 可以注入本機的 Spring Bean
+     */
+    @Bean
+    public SpringManagedContext managedContext() {
+        return new SpringManagedContext();
+    }
+
     @Primary
     @Bean
-    public HazelcastInstance hazelcastInstance() {
+    public HazelcastInstance hazelcastInstance(SpringManagedContext managedContext) {
         Config config = new Config();
         config.setClusterName("flash-sale-cluster");
+        config.setManagedContext(managedContext);
 
         // 網路設定：單機開發模式
         // 關閉 Multicast (廣播發現)，開啟 TCP/IP (指定本機)
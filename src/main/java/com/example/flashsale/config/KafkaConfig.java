@@ -0,0 +1,100 @@
+package com.example.flashsale.config;
+
+import com.example.flashsale.DTO.OrderMessage;
+import com.example.flashsale.serializer.OrderMessageSerializer;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+public class KafkaConfig {
+
+    /**
+     * 一般字串訊息用的 KafkaTemplate (失敗日誌)
+     * 因為下面自己定義了 orderKafkaTemplate，Spring Boot 就不會再自動建立這個，要自己宣告
+     * 失敗日誌量大、單筆不重要：開壓縮、多等一下湊大批，只要 Leader 確認就好
+     */
+    @Bean
+    @SuppressWarnings("unchecked")
+    public KafkaTemplate<String, String> kafkaTemplate(
+            ProducerFactory<Object, Object> kafkaProducerFactory,
+            @Value("${flash-sale.failure-log.producer.compression-type:lz4}") String compressionType,
+            @Value("${flash-sale.failure-log.producer.linger-ms:20}") int lingerMs,
+            @Value("${flash-sale.failure-log.producer.batch-size-bytes:131072}") int batchSizeBytes) {
+        return new KafkaTemplate<>((ProducerFactory<String, String>) (ProducerFactory<?, ?>) kafkaProducerFactory,
+                Map.of(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType,
+                        ProducerConfig.LINGER_MS_CONFIG, lingerMs,
+                        ProducerConfig.BATCH_SIZE_CONFIG, batchSizeBytes,
+                        ProducerConfig.ACKS_CONFIG, "1"));
+    }
+
+    /**
+     * 訂單訊息用的 KafkaTemplate：沿用 application.yml 的 Producer 設定，Value 換成二進位格式，
+     * 再疊上選定的調校組合 (KafkaProducerProfile)
+     */
+    @Bean
+    @SuppressWarnings("unchecked")
+    public KafkaTemplate<String, OrderMessage> orderKafkaTemplate(
+            ProducerFactory<Object, Object> kafkaProducerFactory,
+            @Value("${flash-sale.kafka.order-producer-profile:DEFAULT}") KafkaProducerProfile profile) {
+        Map<String, Object> overrides = new HashMap<>(profile.overrides());
+        overrides.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, OrderMessageSerializer.class);
+        return new KafkaTemplate<>((ProducerFactory<String, OrderMessage>) (ProducerFactory<?, ?>) kafkaProducerFactory,
+                overrides);
+    }
+
+    /**
+     * 非同步搶購送訂單訊息專用的執行緒池
+     * KafkaTemplate.send() 在 metadata 還沒到或 buffer 滿了的時候會卡住 (最多 max.block.ms)，不能跑在 Lettuce 的 I/O 執行緒上
+     * 佇列有上限，滿了直接拒絕 (回系統忙碌並補回庫存)
+     */
+    @Bean
+    public ThreadPoolTaskExecutor kafkaSendExecutor(
+            @Value("${flash-sale.kafka.send-pool-size:8}") int poolSize,
+            @Value("${flash-sale.kafka.send-queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("kafka-send-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(10);
+        return executor;
+    }
+
+    /**
+     * 訂單 Topic：Partition 數決定訂單 Consumer 最多能開幾條執行緒平行寫 MySQL (同一個 Group 裡多的會閒置)
+     * Topic 已存在且 Partition 比較少時，KafkaAdmin 啟動時會補到這個數 (只能加不能減；加了之後同商品的新訊息可能換 Partition)
+     */
+    @Bean
+    public NewTopic orderTopic(@Value("${flash-sale.order.partitions:12}") int partitions) {
+        return TopicBuilder.name("flash-sale-topic").partitions(partitions).build();
+    }
+
+    /**
+     * 批次監聽用的 Container Factory
+     * 沿用 application.yml 的設定 (例如 ack-mode: manual_immediate)，只多打開 Batch 模式
+     * 一次 poll 回來的訊息會整批 (List) 交給 Listener
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> batchKafkaListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> kafkaConsumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, kafkaConsumerFactory);
+        factory.setBatchListener(true);
+        return factory;
+    }
+}
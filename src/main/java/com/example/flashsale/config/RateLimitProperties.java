@@ -0,0 +1,48 @@
+package com.example.flashsale.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 搶購限流設定 (flash-sale.rate-limit)
+ * 上限是「全叢集、每個時間窗」的請求數，0 代表不限
+ * 個別商品 / 用戶可以用 overrides 覆寫預設值 (Key 是 ID)
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "flash-sale.rate-limit")
+public class RateLimitProperties {
+
+    private boolean enabled = true;
+
+    // 滑動視窗長度
+    private long windowMs = 1000;
+
+    // 多久跟 Redis 對一次帳 (越短越準，Redis 負擔越大)
+    private long syncIntervalMs = 200;
+
+    // 本機沒有新增次數的 Key，估計值到上限的這個比例以上才向 Redis 讀回叢集總數 (0 = 每輪都讀)
+    private double refreshRatio = 0.5;
+
+    // 每個用戶每個視窗最多幾次
+    private int userLimit = 5;
+
+    // 每個商品每個視窗最多幾次
+    private int productLimit = 0;
+
+    private Map<Long, Integer> userOverrides = new HashMap<>();
+
+    private Map<Long, Integer> productOverrides = new HashMap<>();
+
+    public int userLimitFor(Long userId) {
+        return userOverrides.getOrDefault(userId, userLimit);
+    }
+
+    public int productLimitFor(Long productId) {
+        return productOverrides.getOrDefault(productId, productLimit);
+    }
+}
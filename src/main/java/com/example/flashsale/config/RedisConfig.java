@@ -1,5 +1,6 @@
 package com.example.flashsale.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
@@ -9,8 +10,11 @@ import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.scripting.support.ResourceScriptSource;
 
+import java.util.List;
+
 @Configuration
 public class RedisConfig {
 
@@ -40,6 +44,24 @@ public class RedisConfig {
         return template;
     }
 
+    /**
+     * 非同步搶購裡少數要同步打 Redis 的步驟 (租約補貨、輪詢其他分片) 專用的執行緒池
+     * 不能跑在 Lettuce 的 I/O 執行緒上，也不要佔用 ForkJoin 共用池；佇列有上限，滿了直接拒絕 (回系統忙碌)
+     */
+    @Bean
+    public ThreadPoolTaskExecutor redisBlockingExecutor(
+            @Value("${flash-sale.redis.blocking-pool-size:16}") int poolSize,
+            @Value("${flash-sale.redis.blocking-queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("redis-blocking-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(10);
+        return executor;
+    }
+
 
     // ✅ 修改這裡：回傳型別改成介面 RedisScript<Long>
     @Bean
@@ -54,5 +76,56 @@ public class RedisConfig {
         return redisScript;
     }
 
+    // 節點批次租借庫存用的腳本 (一次從 Redis 扣 N 個)
+    @Bean
+    public RedisScript<Long> stockLeaseScript() {
+        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/stock_lease.lua")));
+        redisScript.setResultType(Long.class);
+
+        return redisScript;
+    }
+
+    // 補償用的腳本 (把庫存和限購名額一起還回去，單品 / 購物車共用)
+    @Bean
+    public RedisScript<Long> stockRefundScript() {
+        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/stock_refund.lua")));
+        redisScript.setResultType(Long.class);
+
+        return redisScript;
+    }
+
+    // 預留歸還的腳本 (訂單沒成立時把預留的庫存還回去，已被收走就不重複歸還)
+    @Bean
+    public RedisScript<Long> reservationReleaseScript() {
+        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/reservation_release.lua")));
+        redisScript.setResultType(Long.class);
+
+        return redisScript;
+    }
+
+    // 逾時預留回收的腳本 (Reaper 一次收一批過期的預留)
+    @Bean
+    public RedisScript<Long> reservationReapScript() {
+        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/reservation_reap.lua")));
+        redisScript.setResultType(Long.class);
+
+        return redisScript;
+    }
+
+    // 購物車結帳的腳本 (多個商品一次扣，回傳 {結果, 第幾個商品})
+    @Bean
+    @SuppressWarnings("rawtypes")
+    public RedisScript<List> cartCheckoutScript() {
+        DefaultRedisScript<List> redisScript = new DefaultRedisScript<>();
+        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("scripts/cart_checkout.lua")));
+        redisScript.setResultType(List.class);
+
+        return redisScript;
+    }
+
 
 }
\ No newline at end of file
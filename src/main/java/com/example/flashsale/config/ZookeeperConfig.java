@@ -8,6 +8,11 @@ import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.concurrent.Semaphore;
 
 @Configuration
 public class ZookeeperConfig {
@@ -28,4 +33,33 @@ public class ZookeeperConfig {
                 RETRY_POLICY
         );
     }
-}
\ No newline at end of file
+
+    /**
+     * ZK 鎖搶購的執行模式
+     * platform: 直接在呼叫端 (Tomcat) 執行緒上跑
+     * virtual : 每個請求一條虛擬執行緒，Tomcat 執行緒馬上釋放 (JDK < 21 啟動時會直接報錯)
+     *
+     * 注意：Curator 的 acquire() 內部用 synchronized + wait() 等鎖，JDK 21 ~ 23 上等鎖的虛擬執行緒會 pin 住載體執行緒，
+     * 等鎖期間照樣佔著一條平台執行緒 (載體池預設 = CPU 核心數)；載體全被 pin 住時其他虛擬執行緒 (包含 Tomcat 請求) 都會停住
+     * 所以用 Semaphore 限制同時進 Curator 的數量 (在 Semaphore 上排隊不會 pin)，最多 pin 住 virtual-max-lock-waiters 條載體
+     */
+    @Bean
+    public TaskExecutor zkOrderExecutor(@Value("${flash-sale.zk.execution-mode:platform}") String executionMode,
+                                        @Value("${flash-sale.zk.virtual-max-lock-waiters:0}") int maxLockWaiters) {
+        if ("virtual".equalsIgnoreCase(executionMode)) {
+            // 0 = 載體數的一半，至少留一半給其他虛擬執行緒
+            int permits = maxLockWaiters > 0 ? maxLockWaiters : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            Semaphore lockWaiters = new Semaphore(permits);
+            TaskExecutor virtualThreads = new VirtualThreadTaskExecutor("zk-order-");
+            return task -> virtualThreads.execute(() -> {
+                lockWaiters.acquireUninterruptibly();
+                try {
+                    task.run();
+                } finally {
+                    lockWaiters.release();
+                }
+            });
+        }
+        return new SyncTaskExecutor();
+    }
+}
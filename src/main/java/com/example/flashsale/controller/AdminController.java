@@ -1,18 +1,22 @@
 package com.example.flashsale.controller;
 
-import com.example.flashsale.model.Product;
-import com.example.flashsale.repository.ProductRepository;
+import com.example.flashsale.service.FailureAnalyticsService;
+import com.example.flashsale.service.FailureLogStore;
+import com.example.flashsale.service.ProductIdFilter;
+import com.example.flashsale.service.ProductImportService;
+import com.example.flashsale.service.StockReconciler;
+import com.example.flashsale.service.StockShardManager;
+import com.example.flashsale.service.StockWarmer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.aggregation.AggregationResults;
-import org.springframework.data.mongodb.core.aggregation.Aggregation;
-import org.springframework.data.redis.core.RedisCallback;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -22,70 +26,97 @@ import java.util.Map;
 @Slf4j
 public class AdminController {
 
-    @Autowired
-    private MongoTemplate mongoTemplate;
-
-    private final ProductRepository productRepository;
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final FailureAnalyticsService failureAnalyticsService;
+    private final FailureLogStore failureLogStore;
+    private final ProductIdFilter productIdFilter;
+    private final StockShardManager stockShardManager;
+    private final StockReconciler stockReconciler;
+    private final StockWarmer stockWarmer;
+    private final ProductImportService productImportService;
 
     // 簡單的安全密鑰 (真實專案請用 Spring Security)
     private static final String ADMIN_SECRET = "123456";
 
 
+    /**
+     * 各失敗原因的次數 (讀每分鐘統計，不掃原始日誌)
+     * from / to 例如 2026-10-18T12:00:00，不帶就是全部
+     */
     @GetMapping("/analyze/failures")
-    public Map<String, Integer> analyzeFailures() {
-        // 使用 Aggregation 進行分組統計
-        // 語法：Select reason, count(*) from failure_logs group by reason
-        Aggregation aggregation = Aggregation.newAggregation(
-                Aggregation.group("reason").count().as("totalCount"),
-                Aggregation.project("totalCount").and("reason").previousOperation()
-        );
+    public Map<String, Long> analyzeFailures(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Long productId) {
+        return failureAnalyticsService.summarize(from, to, productId).byReason();
+    }
 
-        AggregationResults<Map> results = mongoTemplate.aggregate(
-                aggregation, "failure_logs", Map.class
-        );
+    /**
+     * 即時儀表板用：總數、依原因 / 商品分組、每分鐘的趨勢
+     * 預設最近 minutes 分鐘
+     */
+    @GetMapping("/analyze/failures/live")
+    public FailureAnalyticsService.FailureSummary liveFailures(
+            @RequestParam(defaultValue = "30") int minutes,
+            @RequestParam(required = false) Long productId) {
+        return failureAnalyticsService.summarize(LocalDateTime.now().minusMinutes(minutes), null, productId);
+    }
 
-        // 整理結果回傳
-        Map<String, Integer> stats = new HashMap<>();
-        for (Map map : results.getMappedResults()) {
-            stats.put((String) map.get("reason"), (Integer) map.get("totalCount"));
-        }
-        return stats;
+    /**
+     * 失敗日誌兩種儲存格式的空間比較：每筆事件佔幾 bytes、索引幾 bytes、幾個 Document
+     */
+    @GetMapping("/analyze/failures/storage")
+    public List<FailureLogStore.StorageStats> failureLogStorage() {
+        return failureLogStore.stats();
     }
 
     @PostMapping("/sync-stock")
-    public String syncStock(@RequestParam String key) {
+    public Object syncStock(@RequestParam String key) {
         // 1. 安全檢查
         if (!ADMIN_SECRET.equals(key)) {
             return "❌ 權限不足！";
         }
 
-        log.info("⚠️ [Admin] 管理員觸發手動庫存同步...");
-        long start = System.currentTimeMillis();
-
-        // 2. 從 MySQL 撈全部商品
-        List<Product> products = productRepository.findAll();
+        // 2. 立刻跑一輪對帳 (平常由排程定期跑)
+        // 不再用 MySQL 整份覆寫 Redis：活動中 MySQL 落後 Redis，覆寫會把已經賣掉的庫存變回來
+        log.info("⚠️ [Admin] 管理員觸發手動庫存對帳...");
+        return stockReconciler.reconcile();
+    }
 
-        if (products.isEmpty()) {
-            return "MySQL 沒有商品資料";
+    @PostMapping("/warm-up-stock")
+    public Object warmUpStock(@RequestParam String key) {
+        if (!ADMIN_SECRET.equals(key)) {
+            return "❌ 權限不足！";
         }
+        // 只補 Redis 裡還沒有的商品庫存 (SET NX)，已經在賣的不會被覆蓋
+        return stockWarmer.warmUp(0L);
+    }
 
-        // 3. 使用 Pipeline 批次寫入 Redis
-        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
-            for (Product product : products) {
-                String redisKey = "product:stock:" + product.getId();
-                // 先刪除 (Optional, 看需求)
-                connection.del(redisKey.getBytes());
-                // 轉 byte[] 寫入
-                connection.set(redisKey.getBytes(), String.valueOf(product.getStock()).getBytes());
-            }
-            return null;
-        });
+    @PostMapping(value = "/import-products", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Object importProducts(@RequestParam String key, @RequestParam("file") MultipartFile file) throws IOException {
+        if (!ADMIN_SECRET.equals(key)) {
+            return "❌ 權限不足！";
+        }
+        log.info("⚠️ [Admin] 管理員匯入商品檔案: {} ({} bytes)", file.getOriginalFilename(), file.getSize());
+        try (InputStream input = file.getInputStream()) {
+            return productImportService.importProducts(input, file.getOriginalFilename());
+        }
+    }
 
-        long end = System.currentTimeMillis();
-        String message = String.format("✅ 同步完成！共 %d 筆商品，耗時 %d ms", products.size(), (end - start));
-        log.info(message);
+    @PostMapping("/rebalance-stock")
+    public Object rebalanceStock(@RequestParam String key, @RequestParam Long productId) {
+        if (!ADMIN_SECRET.equals(key)) {
+            return "❌ 權限不足！";
+        }
+        // 分片之間賣得不平均時，把多的搬到少的 (總數不變)
+        return stockShardManager.rebalance(productId);
+    }
 
-        return message;
+    @PostMapping("/rebuild-product-filter")
+    public String rebuildProductFilter(@RequestParam String key) {
+        if (!ADMIN_SECRET.equals(key)) {
+            return "❌ 權限不足！";
+        }
+        // 只重建本節點；其他節點各自在啟動時建立，平常靠商品異動通知增量更新
+        return "✅ " + productIdFilter.rebuild();
     }
-}
\ No newline at end of file
+}
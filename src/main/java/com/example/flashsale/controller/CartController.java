@@ -0,0 +1,26 @@
+package com.example.flashsale.controller;
+
+import com.example.flashsale.DTO.CheckoutRequest;
+import com.example.flashsale.service.CartService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/cart")
+@RequiredArgsConstructor
+@Tag(name = "購物車", description = "多個商品一次結帳")
+public class CartController {
+
+    private final CartService cartService;
+
+    @PostMapping("/checkout")
+    @Operation(summary = "購物車結帳", description = "所有品項在同一個 Redis Lua 腳本裡扣庫存，全部成功或全部不扣；整車送一則 Kafka 訂單訊息")
+    public String checkout(@RequestBody CheckoutRequest request) {
+        return cartService.checkout(request.getUserId(), request.getItems());
+    }
+}
@@ -6,6 +6,8 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Map;
+
 @RestController
 @RequestMapping("/api/hazelcast")
 @Tag(name = "Hazelcast 管理", description = "測試 DataGrid 與 分散式計算")
@@ -21,6 +23,12 @@ public class HazelcastController {
         return "用戶 " + userId + " 已加入黑名單";
     }
 
+    @GetMapping("/blacklist/benchmark")
+    @Operation(summary = "黑名單查詢效能比較", description = "比較本機 long 集合與 IMap.containsKey 的平均查詢耗時 (ns/次)")
+    public Map<String, Long> benchmarkBlacklist(@RequestParam(defaultValue = "100000") int iterations) {
+        return hazelcastService.benchmarkBlacklist(iterations);
+    }
+
     @PostMapping("/broadcast")
     @Operation(summary = "執行全叢集廣播 (Compute)", description = "使用 IExecutorService 在所有節點印出 Log")
     public String broadcast(@RequestParam String msg) {
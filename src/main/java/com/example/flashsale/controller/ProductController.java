@@ -1,13 +1,18 @@
 package com.example.flashsale.controller;
 
 import com.example.flashsale.model.Product;
+import com.example.flashsale.service.ProductIdFilter;
 import com.example.flashsale.service.ProductService;
+import com.example.flashsale.service.StockShardManager;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @RequestMapping("/api/products")
 @RequiredArgsConstructor
@@ -16,6 +21,12 @@ public class ProductController {
 
     private final ProductService productService;
 
+    // 查詢商品時不存在的 ID 在這裡就擋掉，不碰 Redis / MySQL
+    // (搶購 API 由 AdmissionPipeline 的第一關 ProductIdStage 檢查)
+    private final ProductIdFilter productIdFilter;
+
+    private final StockShardManager stockShardManager;
+
     @PostMapping
     @Operation(summary = "新增商品", description = "建立一筆新的商品資料，會自動寫入 MySQL") // API 說明
     public Product create(@RequestBody Product product) {
@@ -24,25 +35,52 @@ public class ProductController {
 
     @GetMapping("/{id}")
     @Operation(summary = "查詢商品", description = "輸入 ID 查詢商品庫存與價格")
-    public Product get(@PathVariable Long id) {
-        return productService.getProduct(id);
+    public ResponseEntity<Product> get(@PathVariable Long id) {
+        if (!productIdFilter.mightContain(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(productService.getProduct(id));
+    }
+
+    @GetMapping("/{id}/stock")
+    @Operation(summary = "查詢即時庫存", description = "Redis 剩餘庫存 (開啟分片時為所有分片加總，一次 MGET)")
+    public ResponseEntity<Long> stock(@PathVariable Long id) {
+        if (!productIdFilter.mightContain(id)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(stockShardManager.remaining(id));
     }
 
     @PostMapping("/{id}/order")
-    @Operation(summary = "搶購商品 (秒殺)", description = "使用 Redis Lua 腳本扣減庫存，防止超賣")
+    @Operation(summary = "搶購商品 (秒殺)", description = "使用 Redis Lua 腳本扣減庫存，防止超賣；每人每個商品限購一件")
     public String order(
             @Parameter(description = "商品 ID", example = "1", required = true) // 👈 參數說明
-            @PathVariable Long id
+            @PathVariable Long id,
+            @Parameter(description = "用戶 ID (不帶則隨機產生，壓測用)", example = "1001")
+            @RequestParam(required = false) Long userId
+    ) {
+        return productService.orderProduct(id, userId);
+    }
+
+    @PostMapping("/{id}/order/async")
+    @Operation(summary = "搶購商品 (非同步)", description = "Redis Lua 與 Kafka 皆以非同步方式執行，不佔用 Servlet 執行緒；Kafka 送失敗會補回庫存")
+    public CompletableFuture<String> orderAsync(
+            @Parameter(description = "商品 ID", example = "1", required = true) // 👈 參數說明
+            @PathVariable Long id,
+            @Parameter(description = "用戶 ID (不帶則隨機產生，壓測用)", example = "1001")
+            @RequestParam(required = false) Long userId
     ) {
-        return productService.orderProduct(id);
+        return productService.orderProductAsync(id, userId);
     }
 
     @PostMapping("/{id}/order/zk")
-    @Operation(summary = "搶購商品 (Zookeeper)", description = "使用 Zookeeper 分散式鎖 (Curator)")
-    public String orderZk(
+    @Operation(summary = "搶購商品 (Zookeeper)", description = "使用 Zookeeper 分散式鎖 (Curator)，flash-sale.zk.execution-mode=virtual 時改由虛擬執行緒等鎖；每人每個商品限購一件")
+    public CompletableFuture<String> orderZk(
             @Parameter(description = "商品 ID", example = "1", required = true) // 👈 參數說明
-            @PathVariable Long id
+            @PathVariable Long id,
+            @Parameter(description = "用戶 ID (不帶則隨機產生，壓測用)", example = "1001")
+            @RequestParam(required = false) Long userId
     ) {
-        return productService.orderProductByZk(id);
+        return productService.orderProductByZkAsync(id, userId);
     }
 }
\ No newline at end of file
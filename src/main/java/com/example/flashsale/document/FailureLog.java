@@ -17,4 +17,5 @@ public class FailureLog {
     private String reason;      // 失敗原因 (例如: "BLACKLIST", "OUT_OF_STOCK")
     private LocalDateTime failedAt;
     private String ipAddress;
+    private Integer count;      // 合併事件代表幾筆 (null = 1 筆)
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+package com.example.flashsale.document;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 壓縮版的失敗日誌：同一個商品同一分鐘的事件放在同一筆 Document 的幾個平行陣列裡
+ * (flash-sale.failure-log.storage=bucket 時使用)
+ * - 欄位名稱縮成一兩個字母：每筆事件不再重複欄位名稱、商品 ID 和完整時間
+ * - 第 i 個事件 = (userIds[i], reasons[i], offsets[i], ips[i], counts[i])；合併事件的 count 大於 1
+ * - 一個 Bucket 最多 bucket-size 筆，滿了就開新的一筆 (同一分鐘可能有好幾個 Bucket)
+ */
+@Data
+@Document(collection = "failure_log_buckets")
+public class FailureLogBucket {
+    @Id
+    private String id;
+
+    @Field("p")
+    private Long productId;
+
+    @Field("m")
+    private LocalDateTime minute;        // 這一分鐘的開始時間 (TTL 索引也建在這)
+
+    @Field("n")
+    private int count;                   // 陣列裡有幾筆 (判斷 Bucket 滿了沒)
+
+    @Field("t")
+    private long events;                 // 實際事件數 (各筆 counts 的總和)
+
+    @Field("u")
+    private List<Long> userIds;
+
+    @Field("r")
+    private List<Integer> reasons;       // FailureReason 代碼
+
+    @Field("o")
+    private List<Integer> offsets;       // 距離 minute 幾毫秒 (0 ~ 59999)
+
+    @Field("ip")
+    private List<Integer> ips;           // IPv4 轉成 int (解析不了的存 0)
+
+    @Field("c")
+    private List<Integer> counts;        // 每筆代表幾個事件 (明細是 1)
+}
@@ -0,0 +1,55 @@
+package com.example.flashsale.document;
+
+/**
+ * 失敗原因代碼 (Bucket 格式裡每筆只存一個小整數，不存整個字串)
+ * 新增原因只能往後加代碼，已經寫進去的代碼不能改
+ */
+public enum FailureReason {
+    UNKNOWN(0, false),
+    OUT_OF_STOCK(1, true),
+    RATE_LIMITED(2, true),
+    BLACKLIST_HIT(3, false),
+    ALREADY_PURCHASED(4, false);
+
+    private static final FailureReason[] BY_CODE = new FailureReason[values().length];
+
+    static {
+        for (FailureReason reason : values()) {
+            BY_CODE[reason.code] = reason;
+        }
+    }
+
+    private final int code;
+    private final boolean lowValue;
+
+    FailureReason(int code, boolean lowValue) {
+        this.code = code;
+        this.lowValue = lowValue;
+    }
+
+    public int code() {
+        return code;
+    }
+
+    /**
+     * 搶購高峰時量最大、單筆價值最低的事件 (Consumer 落後時可以抽樣 / 丟棄)
+     */
+    public boolean isLowValue() {
+        return lowValue;
+    }
+
+    public static FailureReason of(String name) {
+        if (name == null) {
+            return UNKNOWN;
+        }
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return UNKNOWN;
+        }
+    }
+
+    public static FailureReason of(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : UNKNOWN;
+    }
+}
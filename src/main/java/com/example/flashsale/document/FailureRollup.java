@@ -0,0 +1,22 @@
+package com.example.flashsale.document;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * 失敗日誌的每分鐘統計 (Consumer 寫入日誌時順便用 $inc 累加)
+ * 一個 (分鐘, 原因, 商品) 一筆，查統計不用掃原始日誌
+ */
+@Data
+@Document(collection = "failure_rollups")
+public class FailureRollup {
+    @Id
+    private String id;              // 分鐘:原因:商品ID (例如 "202610181230:OUT_OF_STOCK:1")
+    private LocalDateTime bucket;   // 這一分鐘的開始時間
+    private String reason;
+    private Long productId;
+    private long count;
+}
@@ -21,5 +21,8 @@ public class Order {
     @Column(nullable = false, unique = true)
     private String orderNo;
 
+    // 購買數量 (單品搶購固定 1；購物車結帳每個品項一筆訂單，order_no 後面加品項序號)
+    private Integer quantity;
+
     private LocalDateTime createTime;
 }
\ No newline at end of file
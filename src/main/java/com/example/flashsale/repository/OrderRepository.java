@@ -2,8 +2,17 @@ package com.example.flashsale.repository;
 
 import com.example.flashsale.model.Order;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface OrderRepository extends JpaRepository<Order, Long> {
-}
\ No newline at end of file
+
+    // 【批次消費用】一次查出這批訂單編號裡，哪些已經寫過 DB (冪等性檢查)
+    @Query("SELECT o.orderNo FROM Order o WHERE o.orderNo IN :orderNos")
+    List<String> findExistingOrderNos(@Param("orderNos") Collection<String> orderNos);
+}
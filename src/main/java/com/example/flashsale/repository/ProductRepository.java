@@ -1,12 +1,15 @@
 package com.example.flashsale.repository;
 
 import com.example.flashsale.model.Product;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 // 繼承 JpaRepository 後，自動擁有 save, findById, findAll, delete 等功能
 @Repository
 public interface ProductRepository extends JpaRepository<Product, Long> {
@@ -15,4 +18,30 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     @Modifying
     @Query("UPDATE Product p SET p.stock = p.stock - 1 WHERE p.id = :id AND p.stock > 0")
     int decreaseStock(@Param("id") Long id);
-}
\ No newline at end of file
+
+    // 【批次消費用】同一商品一次扣 N 個 (庫存不夠就一個都不扣)
+    @Modifying
+    @Query("UPDATE Product p SET p.stock = p.stock - :quantity WHERE p.id = :id AND p.stock >= :quantity")
+    int decreaseStockBy(@Param("id") Long id, @Param("quantity") int quantity);
+
+    @Query("SELECT p.stock FROM Product p WHERE p.id = :id")
+    Integer findStockById(@Param("id") Long id);
+
+    // 依 ID 遞增分頁撈出商品 ID (Keyset 分頁，不用 OFFSET，資料量大也不會越翻越慢)
+    @Query("SELECT p.id FROM Product p WHERE p.id > :afterId ORDER BY p.id")
+    List<Long> findIdsAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    // 目前最大的商品 ID (匯入前記下來，匯入後只預熱比它大的)
+    @Query("SELECT COALESCE(MAX(p.id), 0) FROM Product p")
+    Long findMaxId();
+
+    // 對帳 / 預熱用：只撈 ID 和庫存兩個欄位 (不建立 Entity)，一樣用 Keyset 分頁
+    @Query("SELECT p.id AS id, p.stock AS stock FROM Product p WHERE p.id > :afterId ORDER BY p.id")
+    List<StockView> findStockAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    interface StockView {
+        Long getId();
+
+        Integer getStock();
+    }
+}
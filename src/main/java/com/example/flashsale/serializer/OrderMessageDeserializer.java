@@ -0,0 +1,153 @@
+package com.example.flashsale.serializer;
+
+import com.example.flashsale.DTO.CartItem;
+import com.example.flashsale.DTO.OrderMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 訂單訊息反序列化
+ * - 新格式：版本號開頭的二進位 (v1 單品 / v2 購物車，見 OrderMessageSerializer)
+ * - 舊格式："userId:productId:orderNo" (滾動升級期間還會收到)
+ * 兩種格式都直接從 byte[] 解析，不產生中間字串
+ * 無法解析的訊息回傳 null，交給 Consumer 丟棄
+ */
+@Slf4j
+public class OrderMessageDeserializer implements Deserializer<OrderMessage> {
+
+    @Override
+    public OrderMessage deserialize(String topic, byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        if (data[0] == OrderMessageSerializer.VERSION_1) {
+            return decodeVersion1(data);
+        }
+        if (data[0] == OrderMessageSerializer.VERSION_2) {
+            return decodeVersion2(data);
+        }
+        if (data[0] >= '0' && data[0] <= '9') {
+            return decodeLegacy(data);
+        }
+        log.error("❌ 不認得的訂單訊息版本: {}", data[0]);
+        return null;
+    }
+
+    private OrderMessage decodeVersion1(byte[] data) {
+        if (data.length < OrderMessageSerializer.VERSION_1_LENGTH) {
+            log.error("❌ 訂單訊息長度錯誤: {}", data.length);
+            return null;
+        }
+        return new OrderMessage(
+                getLong(data, 1),
+                getLong(data, 9),
+                getLong(data, 17),
+                getLong(data, 25),
+                getLong(data, 33));
+    }
+
+    private OrderMessage decodeVersion2(byte[] data) {
+        int count = data.length < OrderMessageSerializer.VERSION_2_HEADER_LENGTH
+                ? -1
+                : ((data[33] & 0xFF) << 8) | (data[34] & 0xFF);
+        if (count <= 0 || data.length != OrderMessageSerializer.VERSION_2_HEADER_LENGTH
+                + OrderMessageSerializer.VERSION_2_ITEM_LENGTH * count) {
+            log.error("❌ 購物車訂單訊息長度錯誤: {}", data.length);
+            return null;
+        }
+        List<CartItem> items = new ArrayList<>(count);
+        int offset = OrderMessageSerializer.VERSION_2_HEADER_LENGTH;
+        for (int i = 0; i < count; i++) {
+            items.add(new CartItem(getLong(data, offset), getInt(data, offset + 8)));
+            offset += OrderMessageSerializer.VERSION_2_ITEM_LENGTH;
+        }
+        return new OrderMessage(getLong(data, 1), new UUID(getLong(data, 9), getLong(data, 17)), items, getLong(data, 25));
+    }
+
+    /**
+     * 舊格式 "userId:productId:orderNo"，orderNo 是 36 字元的 UUID
+     * 舊訊息沒有時間戳，用收到的時間代替
+     */
+    private OrderMessage decodeLegacy(byte[] data) {
+        int firstColon = indexOf(data, (byte) ':', 0);
+        int secondColon = firstColon < 0 ? -1 : indexOf(data, (byte) ':', firstColon + 1);
+        if (secondColon < 0) {
+            log.error("❌ 舊格式訂單訊息錯誤，長度: {}", data.length);
+            return null;
+        }
+
+        long userId = parseDecimal(data, 0, firstColon);
+        long productId = parseDecimal(data, firstColon + 1, secondColon);
+
+        // UUID：32 個十六進位數字 (中間夾 '-')，前 16 個是高位、後 16 個是低位
+        long msb = 0;
+        long lsb = 0;
+        int digits = 0;
+        for (int i = secondColon + 1; i < data.length; i++) {
+            if (data[i] == '-') {
+                continue;
+            }
+            int nibble = Character.digit(data[i], 16);
+            if (nibble < 0 || digits >= 32) {
+                digits = -1;
+                break;
+            }
+            if (digits < 16) {
+                msb = (msb << 4) | nibble;
+            } else {
+                lsb = (lsb << 4) | nibble;
+            }
+            digits++;
+        }
+        if (userId < 0 || productId < 0 || digits != 32) {
+            log.error("❌ 舊格式訂單訊息錯誤，長度: {}", data.length);
+            return null;
+        }
+        return new OrderMessage(userId, productId, msb, lsb, System.currentTimeMillis());
+    }
+
+    private static int indexOf(byte[] data, byte target, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // 解析 [from, to) 的十進位數字，格式錯誤回傳 -1
+    private static long parseDecimal(byte[] data, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    static long getLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    static int getInt(byte[] data, int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.flashsale.serializer;
+
+import com.example.flashsale.DTO.CartItem;
+import com.example.flashsale.DTO.OrderMessage;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.List;
+
+/**
+ * 訂單訊息二進位格式 (Big-Endian)
+ *
+ * v1：單品訂單，固定 41 bytes
+ * | offset | 長度 | 欄位                      |
+ * |--------|------|---------------------------|
+ * | 0      | 1    | 版本號 (VERSION_1 = 0x01)  |
+ * | 1      | 8    | userId                    |
+ * | 9      | 8    | productId                 |
+ * | 17     | 8    | orderId 高 64 bits         |
+ * | 25     | 8    | orderId 低 64 bits         |
+ * | 33     | 8    | createdAt (epoch millis)  |
+ *
+ * v2：購物車訂單，35 + 12 x 品項數 bytes
+ * | offset      | 長度 | 欄位                      |
+ * |-------------|------|---------------------------|
+ * | 0           | 1    | 版本號 (VERSION_2 = 0x02)  |
+ * | 1           | 8    | userId                    |
+ * | 9           | 8    | orderId 高 64 bits         |
+ * | 17          | 8    | orderId 低 64 bits         |
+ * | 25          | 8    | createdAt (epoch millis)  |
+ * | 33          | 2    | 品項數 n                   |
+ * | 35 + 12 x i | 8    | 第 i 個品項的 productId    |
+ * | 43 + 12 x i | 4    | 第 i 個品項的數量          |
+ *
+ * 舊格式 "userId:productId:orderNo" 是 ASCII 數字開頭，版本號刻意不落在 '0'~'9'，
+ * Deserializer 看第一個 byte 就能分辨新舊格式
+ */
+public class OrderMessageSerializer implements Serializer<OrderMessage> {
+
+    public static final byte VERSION_1 = 0x01;
+    public static final int VERSION_1_LENGTH = 41;
+
+    public static final byte VERSION_2 = 0x02;
+    public static final int VERSION_2_HEADER_LENGTH = 35;
+    public static final int VERSION_2_ITEM_LENGTH = 12;
+
+    @Override
+    public byte[] serialize(String topic, OrderMessage message) {
+        if (message == null) {
+            return null;
+        }
+        if (message.isCart()) {
+            return serializeVersion2(message);
+        }
+        byte[] data = new byte[VERSION_1_LENGTH];
+        data[0] = VERSION_1;
+        putLong(data, 1, message.getUserId());
+        putLong(data, 9, message.getProductId());
+        putLong(data, 17, message.getOrderIdMostSigBits());
+        putLong(data, 25, message.getOrderIdLeastSigBits());
+        putLong(data, 33, message.getCreatedAt());
+        return data;
+    }
+
+    private byte[] serializeVersion2(OrderMessage message) {
+        List<CartItem> items = message.getItems();
+        byte[] data = new byte[VERSION_2_HEADER_LENGTH + VERSION_2_ITEM_LENGTH * items.size()];
+        data[0] = VERSION_2;
+        putLong(data, 1, message.getUserId());
+        putLong(data, 9, message.getOrderIdMostSigBits());
+        putLong(data, 17, message.getOrderIdLeastSigBits());
+        putLong(data, 25, message.getCreatedAt());
+        data[33] = (byte) (items.size() >>> 8);
+        data[34] = (byte) items.size();
+        int offset = VERSION_2_HEADER_LENGTH;
+        for (CartItem item : items) {
+            putLong(data, offset, item.getProductId());
+            putInt(data, offset + 8, item.getQuantity());
+            offset += VERSION_2_ITEM_LENGTH;
+        }
+        return data;
+    }
+
+    static void putLong(byte[] data, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            data[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    static void putInt(byte[] data, int offset, int value) {
+        for (int i = 3; i >= 0; i--) {
+            data[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.util.LongOpenHashSet;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hazelcast.map.MapEvent;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryExpiredListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.MapClearedListener;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * 【本機黑名單】
+ * 叢集超過一台時，IMap 大部分的 Key 都在別的節點上，containsKey 會變成一次網路來回
+ * 這裡在每個節點維護一份 long 集合 (不裝箱)，查詢完全不離開 JVM：
+ * - IMap Entry Listener 即時同步新增 / 刪除 (毫秒級)
+ * - 每隔 resync-interval-ms 再從 IMap 整份重建一次，就算漏接事件，延遲也有上限
+ */
+@Component
+@Slf4j
+public class BlacklistCache implements EntryAddedListener<Long, String>, EntryRemovedListener<Long, String>,
+        EntryEvictedListener<Long, String>, EntryExpiredListener<Long, String>, MapClearedListener {
+
+    private final HazelcastInstance hazelcastInstance;
+
+    private volatile LongOpenHashSet userIds = new LongOpenHashSet();
+    private volatile boolean ready;
+
+    public BlacklistCache(HazelcastInstance hazelcastInstance) {
+        this.hazelcastInstance = hazelcastInstance;
+    }
+
+    @PostConstruct
+    public void init() {
+        blacklist().addEntryListener(this, false);
+        resync();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public boolean contains(long userId) {
+        return userIds.contains(userId);
+    }
+
+    /**
+     * 從 IMap 整份重建，換掉舊的集合
+     */
+    @Scheduled(fixedDelayString = "${flash-sale.blacklist.resync-interval-ms:10000}")
+    public void resync() {
+        Set<Long> keys = blacklist().keySet();
+        LongOpenHashSet rebuilt = new LongOpenHashSet(keys.size());
+        for (Long key : keys) {
+            rebuilt.add(key);
+        }
+        userIds = rebuilt;
+        ready = true;
+        log.debug("🔄 [本機黑名單] 已同步 {} 筆", keys.size());
+    }
+
+    @Override
+    public void entryAdded(EntryEvent<Long, String> event) {
+        userIds.add(event.getKey());
+    }
+
+    @Override
+    public void entryRemoved(EntryEvent<Long, String> event) {
+        userIds.remove(event.getKey());
+    }
+
+    @Override
+    public void entryEvicted(EntryEvent<Long, String> event) {
+        userIds.remove(event.getKey());
+    }
+
+    @Override
+    public void entryExpired(EntryEvent<Long, String> event) {
+        userIds.remove(event.getKey());
+    }
+
+    @Override
+    public void mapCleared(MapEvent event) {
+        userIds = new LongOpenHashSet();
+    }
+
+    private IMap<Long, String> blacklist() {
+        return hazelcastInstance.getMap("blacklist");
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.DTO.CartItem;
+import com.example.flashsale.service.admission.AdmissionPipeline;
+import com.example.flashsale.service.admission.AdmissionResult;
+import com.example.flashsale.service.admission.OrderContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 【購物車結帳】
+ * 多個商品在同一個 Lua 腳本裡檢查 + 扣庫存，全部成功或全部不扣
+ * 不管購物車有幾個品項，一次結帳只打一次 Redis、送一則 Kafka 訊息
+ * Cluster 模式下所有商品的 Key 必須在同一個 slot，要設定 flash-sale.stock.hash-tag (見 StockKeys)，不能同時開啟庫存分片
+ */
+@Service
+@Slf4j
+public class CartService {
+
+    // cart_checkout.lua 的回傳值
+    private static final long CHECKOUT_OUT_OF_STOCK = 0;
+    private static final long CHECKOUT_SUCCESS = 1;
+    private static final long CHECKOUT_ALREADY_BOUGHT = 2;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> cartCheckoutScript;
+    private final RedisScript<Long> stockRefundScript;
+    private final StockKeys stockKeys;
+    private final AdmissionPipeline admissionPipeline;
+    private final SoldOutCache soldOutCache;
+    private final KafkaService kafkaService;
+    private final HazelcastService hazelcastService;
+
+    private final int maxItems;
+    private final boolean onePerUser;
+
+    public CartService(StringRedisTemplate stringRedisTemplate,
+                       ReactiveStringRedisTemplate reactiveStringRedisTemplate,
+                       @SuppressWarnings("rawtypes") RedisScript<List> cartCheckoutScript,
+                       RedisScript<Long> stockRefundScript,
+                       StockKeys stockKeys,
+                       AdmissionPipeline admissionPipeline,
+                       SoldOutCache soldOutCache,
+                       KafkaService kafkaService,
+                       HazelcastService hazelcastService,
+                       @Value("${flash-sale.cart.max-items:20}") int maxItems,
+                       @Value("${flash-sale.order.one-per-user:true}") boolean onePerUser) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.reactiveStringRedisTemplate = reactiveStringRedisTemplate;
+        this.cartCheckoutScript = cartCheckoutScript;
+        this.stockRefundScript = stockRefundScript;
+        this.stockKeys = stockKeys;
+        this.admissionPipeline = admissionPipeline;
+        this.soldOutCache = soldOutCache;
+        this.kafkaService = kafkaService;
+        this.hazelcastService = hazelcastService;
+        this.maxItems = maxItems;
+        this.onePerUser = onePerUser;
+    }
+
+    /**
+     * @param userId 下單的用戶；沒帶就隨機產生 (壓測用)
+     */
+    public String checkout(Long userId, List<CartItem> cart) {
+        // 1. 整理購物車：同一個商品合併數量
+        List<CartItem> items = normalize(cart);
+        if (items == null) {
+            return "結帳失敗，購物車內容錯誤";
+        }
+        if (stockKeys.isSharded()) {
+            // 分片的庫存散在不同 slot，沒辦法放進同一個腳本原子扣除
+            return "結帳失敗，庫存分片模式不支援購物車";
+        }
+        if (onePerUser && items.stream().anyMatch(item -> item.getQuantity() > 1)) {
+            return "結帳失敗，每人每個商品限購一件";
+        }
+        for (CartItem item : items) {
+            // 本機售罄旗標：有任何一個已確認賣完就不用打 Redis 了
+            if (soldOutCache.isSoldOut(item.getProductId())) {
+                return "結帳失敗，商品 " + item.getProductId() + " 庫存不足";
+            }
+        }
+
+        Long buyerId = userId != null ? userId : 1000L + ThreadLocalRandom.current().nextInt(19000);
+        OrderContext context = new OrderContext(buyerId, items);
+
+        // 2. 扣庫存之前的准入關卡 (商品 ID / 黑名單 / 限流)
+        AdmissionResult admission = admissionPipeline.admitBeforeStock(context);
+        if (!admission.isAdmitted()) {
+            if (admission.getFailureReason() != null) {
+                kafkaService.sendFailureLog(buyerId, context.getProductId(), admission.getFailureReason());
+            }
+            return admission.getMessage();
+        }
+
+        // 3. 一次 Lua 腳本扣完整車
+        List<String> args = arguments(buyerId, items);
+        List<?> result = stringRedisTemplate.execute(cartCheckoutScript, keys(items), args.toArray());
+        long code = result == null || result.isEmpty() ? CHECKOUT_OUT_OF_STOCK : ((Number) result.get(0)).longValue();
+        if (code != CHECKOUT_SUCCESS) {
+            int index = result == null || result.size() < 2 ? 1 : ((Number) result.get(1)).intValue();
+            Long failedProductId = items.get(Math.max(index, 1) - 1).getProductId();
+            if (code == CHECKOUT_ALREADY_BOUGHT) {
+                kafkaService.sendFailureLog(buyerId, failedProductId, "ALREADY_PURCHASED");
+                return "結帳失敗，商品 " + failedProductId + " 每人限購一件";
+            }
+            kafkaService.sendFailureLog(buyerId, failedProductId, "OUT_OF_STOCK");
+            return "結帳失敗，商品 " + failedProductId + " 庫存不足";
+        }
+
+        // 4. 整車一則 Kafka 訊息，送失敗時整車的庫存一起還回去
+        UUID orderId = context.getOrderId();
+        try {
+            kafkaService.sendCartOrderMessage(buyerId, orderId, items)
+                    .whenComplete((sendResult, ex) -> {
+                        if (ex != null) {
+                            log.error("❌ [Kafka] 購物車訂單 {} 送出失敗，補回庫存", orderId, ex);
+                            compensate(context, items, args);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            // send() 直接丟例外 (metadata 等太久、buffer 滿、序列化失敗)：一樣整車補回，並告訴使用者沒成立
+            log.error("❌ [Kafka] 購物車訂單 {} 送出失敗，補回庫存", orderId, e);
+            compensate(context, items, args);
+            return "結帳失敗，系統忙碌中";
+        }
+
+        log.info("🛒 [購物車] 用戶 {} 結帳成功，{} 個品項，訂單 {}", buyerId, items.size(), orderId);
+        return "結帳成功，訂單處理中...";
+    }
+
+    // 合併重複的商品，格式錯誤 (空車 / 數量 <= 0 / 品項太多) 回傳 null
+    private List<CartItem> normalize(List<CartItem> cart) {
+        if (cart == null || cart.isEmpty()) {
+            return null;
+        }
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (CartItem item : cart) {
+            if (item == null || item.getProductId() == null || item.getQuantity() <= 0) {
+                return null;
+            }
+            quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+        }
+        if (quantities.size() > maxItems) {
+            return null;
+        }
+        List<CartItem> items = new ArrayList<>(quantities.size());
+        quantities.forEach((productId, quantity) -> items.add(new CartItem(productId, quantity)));
+        return items;
+    }
+
+    // KEYS：各商品庫存 Key，限購時再接各商品的購買名單 Key
+    private List<String> keys(List<CartItem> items) {
+        List<String> keys = new ArrayList<>(items.size() * 2);
+        items.forEach(item -> keys.add(stockKeys.stock(item.getProductId())));
+        if (onePerUser) {
+            items.forEach(item -> keys.add(stockKeys.buyers(item.getProductId())));
+        }
+        return keys;
+    }
+
+    // ARGV：userId 後面接各商品數量
+    private static List<String> arguments(Long userId, List<CartItem> items) {
+        List<String> args = new ArrayList<>(items.size() + 1);
+        args.add(String.valueOf(userId));
+        items.forEach(item -> args.add(String.valueOf(item.getQuantity())));
+        return args;
+    }
+
+    // 補償：同一個腳本把整車庫存和限購名額還回去 (Reactive，不會卡住 Kafka 的 I/O 執行緒)
+    private void compensate(OrderContext context, List<CartItem> items, List<String> args) {
+        refund(items, args);
+        // 庫存已經由 refund 整車還回去，只還扣庫存之前的關卡；再跑 StockStage 的 rollback 第一個商品會被多補一次
+        admissionPipeline.rollbackBeforeStock(context);
+    }
+
+    private void refund(List<CartItem> items, List<String> args) {
+        reactiveStringRedisTemplate.execute(stockRefundScript, keys(items), args)
+                .subscribe(
+                        result -> items.forEach(item -> hazelcastService.broadcastStockReturned(item.getProductId())),
+                        ex -> log.error("❌ [補償] 購物車庫存補回失敗，需人工處理: {}", items, ex));
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.config.RateLimitProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 【分散式限流 (滑動視窗計數)】
+ * 快速路徑：只看本機記憶體 (一次 Map 查詢 + 一次 CAS)，不碰網路
+ *   估計值 = 上個視窗的叢集總數 x 剩餘比例 + 本視窗已知的叢集總數 + 本機還沒回報的次數
+ * 對帳：每 sync-interval-ms 用一次 Pipeline 把各 Key 本機新增的次數 INCRBY 到 Redis，
+ *   拿回叢集總數當作新的基準，其他節點的流量就是這樣被看見的
+ *   本機沒有新增次數的 Key 不送 INCRBY；估計值已經到上限的 refresh-ratio 以上才用 GET 讀回叢集總數，
+ *   大部分閒置的用戶每輪對帳都不佔 Redis 指令；PEXPIRE 每個視窗只送一次
+ * 代價：其他節點的流量最多晚一個對帳週期才算進來，叢集總量可能短暫略超過上限
+ */
+@Component
+@Slf4j
+public class DistributedRateLimiter {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RateLimitProperties properties;
+
+    private final Dimension users = new Dimension("rate:user:");
+    private final Dimension products = new Dimension("rate:product:");
+
+    public DistributedRateLimiter(StringRedisTemplate stringRedisTemplate, RateLimitProperties properties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.properties = properties;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public boolean tryAcquireUser(Long userId) {
+        return tryAcquireUser(userId, System.currentTimeMillis());
+    }
+
+    public boolean tryAcquireProduct(Long productId) {
+        return tryAcquireProduct(productId, System.currentTimeMillis());
+    }
+
+    boolean tryAcquireUser(Long userId, long now) {
+        return users.tryAcquire(userId, properties.userLimitFor(userId), now, properties.getWindowMs());
+    }
+
+    boolean tryAcquireProduct(Long productId, long now) {
+        return products.tryAcquire(productId, properties.productLimitFor(productId), now, properties.getWindowMs());
+    }
+
+    /**
+     * 定期跟 Redis 對帳 (一次 Pipeline 送完所有 Key)
+     */
+    @Scheduled(fixedDelayString = "${flash-sale.rate-limit.sync-interval-ms:200}")
+    public void sync() {
+        if (properties.isEnabled()) {
+            sync(System.currentTimeMillis());
+        }
+    }
+
+    void sync(long now) {
+        long windowMillis = properties.getWindowMs();
+        long windowId = now / windowMillis;
+        double refreshRatio = properties.getRefreshRatio();
+        List<PendingSync> batch = new ArrayList<>();
+        users.collect(windowId, now, windowMillis, properties::userLimitFor, refreshRatio, batch);
+        products.collect(windowId, now, windowMillis, properties::productLimitFor, refreshRatio, batch);
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<Object> results;
+        try {
+            results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (PendingSync pending : batch) {
+                    pushToRedis(connection, pending, windowMillis);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // Redis 掛掉時只剩本機限流，不影響搶購本身
+            log.warn("⚠️ [限流] 與 Redis 對帳失敗，暫時只用本機計數: {}", e.getMessage());
+            return;
+        }
+
+        // 每個 Key 的第一個指令 (INCRBY 或 GET) 的結果就是叢集總數；有送 PEXPIRE 的 Key 多佔一格
+        int index = 0;
+        for (PendingSync pending : batch) {
+            Long total = toLong(results.get(index++));
+            if (pending.expire()) {
+                index++;
+            }
+            if (total != null) {
+                pending.window.applySync(windowId, pending.delta, total, pending.expire());
+            }
+        }
+    }
+
+    private static void pushToRedis(RedisConnection connection, PendingSync pending, long windowMillis) {
+        byte[] key = pending.redisKey.getBytes(StandardCharsets.UTF_8);
+        if (pending.delta == 0) {
+            // 本機沒有新增次數：只讀回其他節點累積的次數
+            connection.stringCommands().get(key);
+            return;
+        }
+        connection.stringCommands().incrBy(key, pending.delta);
+        if (pending.expire()) {
+            connection.keyCommands().pExpire(key, windowMillis * 2);
+        }
+    }
+
+    // INCRBY 回 Long；GET 經過 String 序列化回 String，Key 還不存在時是 null (= 叢集還沒有人回報過)
+    private static Long toLong(Object result) {
+        if (result instanceof Long total) {
+            return total;
+        }
+        if (result instanceof String value) {
+            return Long.parseLong(value);
+        }
+        return result == null ? 0L : null;
+    }
+
+    // 一個限流維度 (用戶 / 商品)
+    private static final class Dimension {
+        private final String redisPrefix;
+        private final Map<Long, Window> windows = new ConcurrentHashMap<>();
+
+        Dimension(String redisPrefix) {
+            this.redisPrefix = redisPrefix;
+        }
+
+        boolean tryAcquire(Long id, int limit, long now, long windowMillis) {
+            if (limit <= 0) {
+                return true;
+            }
+            Window window = windows.get(id);
+            if (window == null) {
+                window = windows.computeIfAbsent(id, key -> new Window());
+            }
+            return window.tryAcquire(limit, now, windowMillis);
+        }
+
+        void collect(long windowId, long now, long windowMillis, Function<Long, Integer> limitFor,
+                     double refreshRatio, List<PendingSync> batch) {
+            windows.entrySet().removeIf(entry -> entry.getValue().windowId < windowId - 1); // 閒置的 Key 清掉
+            windows.forEach((id, window) -> {
+                if (window.windowId != windowId) {
+                    return;
+                }
+                long delta = window.pending.get();
+                // 沒有新增次數、離上限還遠：其他節點的次數晚一點知道也不會誤放，這輪不對帳
+                if (delta == 0 && window.estimate(now, windowMillis) < limitFor.apply(id) * refreshRatio) {
+                    return;
+                }
+                batch.add(new PendingSync(redisPrefix + id + ":" + windowId, delta, window, delta > 0 && !window.expireSet));
+            });
+        }
+    }
+
+    // 單一 Key 的視窗計數
+    static final class Window {
+        private volatile long windowId = -1;
+        private volatile long previousCount; // 上個視窗的叢集總數
+        private volatile long clusterCount;  // 本視窗最後一次對帳拿到的叢集總數 (含本機已回報的)
+        private final AtomicLong pending = new AtomicLong(); // 本機還沒回報的次數
+        private volatile boolean expireSet; // 本視窗的 Redis Key 已經設過 PEXPIRE
+
+        boolean tryAcquire(int limit, long now, long windowMillis) {
+            long id = now / windowMillis;
+            if (id != windowId) {
+                roll(id);
+            }
+            long base = base(id, now, windowMillis);
+            // CAS 迴圈：本機絕對不會放超過上限
+            while (true) {
+                long current = pending.get();
+                if (base + current >= limit) {
+                    return false;
+                }
+                if (pending.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        // 估計值 (不含本機還沒回報的次數)
+        private long base(long id, long now, long windowMillis) {
+            long remaining = windowMillis - (now - id * windowMillis);
+            return previousCount * remaining / windowMillis + clusterCount;
+        }
+
+        long estimate(long now, long windowMillis) {
+            return base(windowId, now, windowMillis) + pending.get();
+        }
+
+        private synchronized void roll(long id) {
+            if (id <= windowId) {
+                return; // 別的執行緒已經換過了
+            }
+            previousCount = id == windowId + 1 ? clusterCount + pending.get() : 0;
+            clusterCount = 0;
+            pending.set(0);
+            expireSet = false;
+            windowId = id;
+        }
+
+        synchronized void applySync(long id, long delta, long total, boolean expired) {
+            if (id != windowId) {
+                return; // 對帳期間已經換到下一個視窗，結果作廢
+            }
+            if (expired) {
+                expireSet = true;
+            }
+            // 先更新總數再扣 pending，中間瞬間會重複計算 (偏保守，不會多放)
+            clusterCount = total;
+            pending.addAndGet(-delta);
+        }
+    }
+
+    // expire：這次要順便送 PEXPIRE (本視窗第一次 INCRBY)
+    private record PendingSync(String redisKey, long delta, Window window, boolean expire) {
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.document.FailureLog;
+import com.example.flashsale.document.FailureRollup;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 【失敗日誌統計】增量維護的每分鐘 Rollup
+ * - LogConsumer 每批日誌先在記憶體依 (分鐘, 原因, 商品) 合併，再用一個 Bulk 的 $inc Upsert 寫進 failure_rollups
+ *   售完風暴時一批幾千筆 OUT_OF_STOCK 通常只會變成幾個 Upsert
+ * - 查詢只讀 Rollup：筆數只跟「分鐘數 x 原因數 x 商品數」有關，跟日誌有幾百萬筆無關，也不會跟 Consumer 搶原始日誌
+ * - 抽樣 / 丟棄的日誌也會算進統計，數字不受 Load Shedding 影響；發送端合併的事件依 count 累加
+ * - Kafka 是 At-least-once：Consumer 重新投遞同一批時統計會重複累加 (寬鬆的計數，不是帳)
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class FailureAnalyticsService {
+
+    private static final DateTimeFormatter BUCKET_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+
+    private final MongoTemplate mongoTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        try {
+            mongoTemplate.indexOps(FailureRollup.class).createIndex(new Index().on("bucket", Sort.Direction.ASC));
+        } catch (Exception e) {
+            log.warn("⚠️ [失敗統計] 建立 Rollup 索引失敗: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 把一批失敗日誌累加到每分鐘統計
+     */
+    public void record(List<FailureLog> logs) {
+        if (logs.isEmpty()) {
+            return;
+        }
+        // 1. 記憶體內先合併
+        Map<String, Long> counts = new HashMap<>();
+        Map<String, FailureLog> samples = new HashMap<>();
+        for (FailureLog failure : logs) {
+            String id = rollupId(failure);
+            counts.merge(id, failure.getCount() == null ? 1L : failure.getCount(), Long::sum);
+            samples.putIfAbsent(id, failure);
+        }
+
+        // 2. 一個 Unordered Bulk 的 $inc Upsert
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FailureRollup.class);
+        counts.forEach((id, count) -> {
+            FailureLog sample = samples.get(id);
+            bulk.upsert(Query.query(Criteria.where("_id").is(id)), new Update()
+                    .inc("count", count)
+                    .setOnInsert("bucket", bucket(sample.getFailedAt()))
+                    .setOnInsert("reason", sample.getReason())
+                    .setOnInsert("productId", sample.getProductId()));
+        });
+        bulk.execute();
+    }
+
+    /**
+     * @param from      包含 (null = 不限)
+     * @param to        不包含 (null = 不限)
+     * @param productId null = 全部商品
+     */
+    public FailureSummary summarize(LocalDateTime from, LocalDateTime to, Long productId) {
+        Criteria criteria = new Criteria();
+        if (from != null || to != null) {
+            Criteria range = Criteria.where("bucket");
+            if (from != null) {
+                range.gte(bucket(from));
+            }
+            if (to != null) {
+                range.lt(to);
+            }
+            criteria = range;
+        }
+        if (productId != null) {
+            criteria.and("productId").is(productId);
+        }
+
+        long total = 0;
+        Map<String, Long> byReason = new HashMap<>();
+        Map<Long, Long> byProduct = new HashMap<>();
+        Map<LocalDateTime, Long> byMinute = new TreeMap<>();
+        for (FailureRollup rollup : mongoTemplate.find(Query.query(criteria), FailureRollup.class)) {
+            total += rollup.getCount();
+            byReason.merge(rollup.getReason(), rollup.getCount(), Long::sum);
+            if (rollup.getProductId() != null) {
+                byProduct.merge(rollup.getProductId(), rollup.getCount(), Long::sum);
+            }
+            byMinute.merge(rollup.getBucket(), rollup.getCount(), Long::sum);
+        }
+        return new FailureSummary(total, byReason, byProduct, byMinute);
+    }
+
+    static String rollupId(FailureLog failure) {
+        return BUCKET_FORMAT.format(failure.getFailedAt()) + ":" + failure.getReason() + ":" + failure.getProductId();
+    }
+
+    private static LocalDateTime bucket(LocalDateTime time) {
+        return time.truncatedTo(ChronoUnit.MINUTES);
+    }
+
+    /**
+     * @param byMinute 每分鐘的失敗次數 (依時間排序，給即時儀表板畫圖)
+     */
+    public record FailureSummary(long total, Map<String, Long> byReason, Map<Long, Long> byProduct,
+                                 Map<LocalDateTime, Long> byMinute) {
+    }
+}
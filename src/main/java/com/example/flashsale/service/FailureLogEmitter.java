@@ -0,0 +1,256 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.DTO.FailureLogEvent;
+import com.example.flashsale.document.FailureReason;
+import com.example.flashsale.util.MpscRingBuffer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 【失敗日誌發送器】請求執行緒只把 (userId, productId, 原因代碼) 丟進無鎖環形佇列就回去，
+ * 序列化 / 送 Kafka 都在背景執行緒做
+ * - emit 不產生物件、不做 I/O、不印 Log；佇列滿了也不會阻塞請求
+ * - 佇列滿了的處理 (flash-sale.failure-log.emitter.overflow)：
+ *   DROP    ：直接丟掉 (計數)
+ *   COALESCE：同商品同原因的事件合併成計數，背景執行緒送出一筆帶 count 的事件 (沒有 userId / IP)，
+ *             統計數字不會少，只是少了明細
+ * - 失敗日誌專用的 KafkaTemplate 開了壓縮和 linger，同一批多筆一起送 (見 KafkaConfig)
+ */
+@Component
+@Slf4j
+public class FailureLogEmitter {
+
+    static final String TOPIC_FAILURE = "flash-sale-failure";
+
+    // 佇列裡用原始型別存 Long，null 用這個值代表
+    private static final long NULL_ID = Long.MIN_VALUE;
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+    // 合併表的 Key = productId * 8 + 原因代碼 (原因代碼要小於 8)
+    private static final int REASON_BITS = 8;
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final ObjectMapper objectMapper;
+    private final MpscRingBuffer ring;
+    // 合併表有兩張輪流用：flush 時把新的換上去，舊的等寫入的執行緒都離開後整張送出、清空，留著下次換
+    private final AtomicReference<CoalesceTable> activeTable;
+    private CoalesceTable spareTable; // 只有背景執行緒碰
+    private final Counter sentCounter;
+    private final Counter droppedCounter;
+    private final Counter coalescedCounter;
+
+    private final OverflowPolicy overflowPolicy;
+    private final int maxBatch;
+    private final long idleParkNanos;
+
+    private volatile boolean running;
+    private Thread drainer;
+
+    public FailureLogEmitter(KafkaTemplate<String, String> kafkaTemplate,
+                             ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry,
+                             @Value("${flash-sale.failure-log.emitter.buffer-size:65536}") int bufferSize,
+                             @Value("${flash-sale.failure-log.emitter.overflow:COALESCE}") OverflowPolicy overflowPolicy,
+                             @Value("${flash-sale.failure-log.emitter.coalesce-slots:1024}") int coalesceSlots,
+                             @Value("${flash-sale.failure-log.emitter.max-batch:1000}") int maxBatch,
+                             @Value("${flash-sale.failure-log.emitter.idle-park-ms:1}") long idleParkMs) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.objectMapper = objectMapper;
+        this.ring = new MpscRingBuffer(bufferSize);
+        int slots = Integer.highestOneBit(Math.max(coalesceSlots, 2) - 1) << 1;
+        this.activeTable = new AtomicReference<>(new CoalesceTable(slots));
+        this.spareTable = new CoalesceTable(slots);
+        this.sentCounter = Counter.builder("flashsale.failurelog.emitter.sent")
+                .description("送進 Kafka 的失敗日誌筆數")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("flashsale.failurelog.emitter.dropped")
+                .description("佇列滿了被丟掉的失敗日誌筆數")
+                .register(meterRegistry);
+        this.coalescedCounter = Counter.builder("flashsale.failurelog.emitter.coalesced")
+                .description("佇列滿了被合併成計數的失敗日誌筆數")
+                .register(meterRegistry);
+        Gauge.builder("flashsale.failurelog.emitter.queued", ring, MpscRingBuffer::size)
+                .description("佇列裡還沒送出的失敗日誌筆數")
+                .register(meterRegistry);
+        this.overflowPolicy = overflowPolicy;
+        this.maxBatch = Math.max(maxBatch, 1);
+        this.idleParkNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(idleParkMs, 1));
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        drainer = new Thread(this::drainLoop, "failure-log-emitter");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(drainer);
+        drainer.join(TimeUnit.SECONDS.toMillis(5));
+        kafkaTemplate.flush();
+    }
+
+    /**
+     * 請求執行緒呼叫：不阻塞、不產生物件
+     */
+    public void emit(Long userId, Long productId, String reason) {
+        int code = FailureReason.of(reason).code();
+        if (ring.offer(userId == null ? NULL_ID : userId, productId == null ? NULL_ID : productId, code)) {
+            return;
+        }
+        if (overflowPolicy == OverflowPolicy.COALESCE && coalesce(productId == null ? -1 : productId, code)) {
+            coalescedCounter.increment();
+        } else {
+            droppedCounter.increment();
+        }
+    }
+
+    private void drainLoop() {
+        // 停止時把剩下的送完才結束
+        while (running || ring.size() > 0) {
+            if (drainOnce() == 0) {
+                LockSupport.parkNanos(idleParkNanos);
+            }
+        }
+        drainOnce();
+    }
+
+    /**
+     * 送出佇列裡最多 max-batch 筆，加上合併表裡累積的計數 (只能由背景執行緒 / 測試呼叫)
+     */
+    int drainOnce() {
+        int drained = ring.drain((userId, productId, code) -> send(new FailureLogEvent(
+                userId == NULL_ID ? null : userId, productId == NULL_ID ? null : productId,
+                FailureReason.of(code).name(), fakeIp())), maxBatch);
+        return drained + flushCoalesced();
+    }
+
+    // 先登記成這張表的寫入者，確認它還是現役的表才寫 (flush 換表後會等寫入者都離開才讀)
+    private boolean coalesce(long productId, int code) {
+        CoalesceTable table;
+        while (true) {
+            table = activeTable.get();
+            table.writers.incrementAndGet();
+            if (activeTable.get() == table) {
+                break;
+            }
+            table.writers.decrementAndGet();
+        }
+        try {
+            return table.add(productId * REASON_BITS + code);
+        } finally {
+            table.writers.decrementAndGet();
+        }
+    }
+
+    // 每次 flush 都換一張空表：Key 不會一直佔著格子，表不會滿了就一路退化成丟棄
+    private int flushCoalesced() {
+        CoalesceTable table = activeTable.get();
+        if (table.used.get() == 0) {
+            return 0;
+        }
+        activeTable.set(spareTable);
+        while (table.writers.get() != 0) {
+            Thread.onSpinWait();
+        }
+        int sent = 0;
+        for (int i = 0; i < table.keys.length(); i++) {
+            long key = table.keys.get(i);
+            if (key == EMPTY_KEY) {
+                continue;
+            }
+            long count = table.counts.get(i);
+            table.keys.set(i, EMPTY_KEY);
+            table.counts.set(i, 0);
+            if (count > 0) {
+                long productId = Math.floorDiv(key, REASON_BITS);
+                FailureLogEvent event = new FailureLogEvent(null, productId < 0 ? null : productId,
+                        FailureReason.of((int) Math.floorMod(key, REASON_BITS)).name(), null);
+                event.setCount((int) Math.min(count, Integer.MAX_VALUE));
+                send(event);
+                sent++;
+            }
+        }
+        table.used.set(0);
+        spareTable = table;
+        return sent;
+    }
+
+    private void send(FailureLogEvent event) {
+        try {
+            // 沒有 Key：Sticky Partitioner 會把連續的訊息湊成同一批
+            kafkaTemplate.send(TOPIC_FAILURE, objectMapper.writeValueAsString(event));
+            sentCounter.increment();
+        } catch (Exception e) {
+            // 序列化失敗或 Producer 緩衝區滿了：日誌丟了就算了，不能讓背景執行緒掛掉
+            droppedCounter.increment();
+            log.error("❌ 失敗日誌發送失敗: {}", event, e);
+        }
+    }
+
+    // 模擬取得 IP (在真實 Controller 層可以透過 HttpServletRequest 取得)
+    private static String fakeIp() {
+        return "192.168.1." + ThreadLocalRandom.current().nextInt(255);
+    }
+
+    /**
+     * 無鎖的開放定址表：Key 第一次出現時 CAS 佔位，之後只加計數
+     */
+    private static final class CoalesceTable {
+        private final AtomicLongArray keys;
+        private final AtomicLongArray counts;
+        private final AtomicInteger used = new AtomicInteger();
+        private final AtomicInteger writers = new AtomicInteger();
+
+        CoalesceTable(int slots) {
+            this.keys = new AtomicLongArray(slots);
+            this.counts = new AtomicLongArray(slots);
+            for (int i = 0; i < slots; i++) {
+                keys.set(i, EMPTY_KEY);
+            }
+        }
+
+        // 表滿了回傳 false (改成丟棄；下一次 flush 換表後又有空位)
+        boolean add(long key) {
+            int mask = keys.length() - 1;
+            int index = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long current = keys.get(index);
+                if (current == EMPTY_KEY && keys.compareAndSet(index, EMPTY_KEY, key)) {
+                    used.incrementAndGet();
+                    current = key;
+                } else if (current == EMPTY_KEY) {
+                    current = keys.get(index);
+                }
+                if (current == key) {
+                    counts.incrementAndGet(index);
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+    }
+
+    public enum OverflowPolicy {
+        DROP,
+        COALESCE
+    }
+}
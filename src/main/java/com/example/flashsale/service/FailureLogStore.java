@@ -0,0 +1,242 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.document.FailureLog;
+import com.example.flashsale.document.FailureLogBucket;
+import com.example.flashsale.document.FailureReason;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 【失敗日誌儲存】兩種格式 (flash-sale.failure-log.storage)
+ * - DOCUMENT：一筆事件一個 Document (failure_logs，原本的格式)
+ * - BUCKET  ：同商品同分鐘的事件塞進同一個 Document 的平行陣列 (failure_log_buckets)，
+ *             原因存成 FailureReason 代碼、時間存成分鐘內的毫秒數、IP 存成 int；
+ *             一批裡同一組只送一個 $push Upsert，Document 數 / 索引項目都少上百倍
+ * - 兩種都有 TTL 索引，超過 retention-hours 由 MongoDB 自己刪掉
+ * - stats() 用 collStats 比較兩種格式每筆事件佔多少空間 / 索引、每筆事件要幾次寫入
+ */
+@Service
+@Slf4j
+public class FailureLogStore {
+
+    static final String DOCUMENT_COLLECTION = "failure_logs";
+    static final String BUCKET_COLLECTION = "failure_log_buckets";
+
+    private final MongoTemplate mongoTemplate;
+    private final Counter eventCounter;
+    private final Counter writeOpCounter;
+
+    private final Storage storage;
+    private final int bucketSize;
+    private final long retentionHours;
+
+    public FailureLogStore(MongoTemplate mongoTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${flash-sale.failure-log.storage:DOCUMENT}") Storage storage,
+                           @Value("${flash-sale.failure-log.bucket-size:1000}") int bucketSize,
+                           @Value("${flash-sale.failure-log.retention-hours:168}") long retentionHours) {
+        this.mongoTemplate = mongoTemplate;
+        this.eventCounter = Counter.builder("flashsale.failurelog.store.events")
+                .description("交給儲存層的失敗日誌筆數")
+                .tag("storage", storage.name())
+                .register(meterRegistry);
+        this.writeOpCounter = Counter.builder("flashsale.failurelog.store.ops")
+                .description("送進 MongoDB 的寫入操作數 (Insert / Upsert)")
+                .tag("storage", storage.name())
+                .register(meterRegistry);
+        this.storage = storage;
+        this.bucketSize = Math.max(bucketSize, 1);
+        this.retentionHours = retentionHours;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        Duration retention = Duration.ofHours(retentionHours);
+        try {
+            // 兩種格式都建 TTL：切換格式後舊格式的資料也會自己過期
+            mongoTemplate.indexOps(DOCUMENT_COLLECTION)
+                    .createIndex(new Index().on("failedAt", Sort.Direction.ASC).expire(retention));
+            mongoTemplate.indexOps(BUCKET_COLLECTION)
+                    .createIndex(new Index().on("m", Sort.Direction.ASC).expire(retention));
+            // 找「還沒滿的 Bucket」用
+            mongoTemplate.indexOps(BUCKET_COLLECTION)
+                    .createIndex(new Index().on("p", Sort.Direction.ASC).on("m", Sort.Direction.ASC));
+        } catch (Exception e) {
+            log.warn("⚠️ [失敗日誌] 建立索引失敗 (保存時間改過的話要先手動刪掉舊的 TTL 索引): {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 寫入一批失敗日誌 (Unordered：單筆失敗不會中斷後面的)
+     */
+    public void write(List<FailureLog> logs) {
+        if (logs.isEmpty()) {
+            return;
+        }
+        eventCounter.increment(logs.size());
+        if (storage == Storage.DOCUMENT) {
+            writeOpCounter.increment(logs.size());
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FailureLog.class)
+                    .insert(logs)
+                    .execute();
+            return;
+        }
+
+        // 1. 依 (商品, 分鐘) 分組
+        Map<String, List<FailureLog>> groups = new LinkedHashMap<>();
+        for (FailureLog failure : logs) {
+            groups.computeIfAbsent(failure.getProductId() + ":" + minute(failure.getFailedAt()), k -> new ArrayList<>())
+                    .add(failure);
+        }
+
+        // 2. 每組切成不超過 bucket-size 的段，一段一個 $push Upsert
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FailureLogBucket.class);
+        int ops = 0;
+        for (List<FailureLog> group : groups.values()) {
+            for (int from = 0; from < group.size(); from += bucketSize) {
+                List<FailureLog> chunk = group.subList(from, Math.min(from + bucketSize, group.size()));
+                bulk.upsert(openBucket(chunk.get(0), chunk.size()), push(chunk));
+                ops++;
+            }
+        }
+        writeOpCounter.increment(ops);
+        bulk.execute();
+    }
+
+    // 同商品同分鐘、塞得下這一段的 Bucket；沒有就 Upsert 開一個新的
+    private Query openBucket(FailureLog first, int size) {
+        return Query.query(Criteria.where("p").is(first.getProductId())
+                .and("m").is(minute(first.getFailedAt()))
+                .and("n").lte(bucketSize - size));
+    }
+
+    private static Update push(List<FailureLog> chunk) {
+        List<Object> userIds = new ArrayList<>(chunk.size());
+        List<Object> reasons = new ArrayList<>(chunk.size());
+        List<Object> offsets = new ArrayList<>(chunk.size());
+        List<Object> ips = new ArrayList<>(chunk.size());
+        List<Object> counts = new ArrayList<>(chunk.size());
+        long events = 0;
+        for (FailureLog failure : chunk) {
+            LocalDateTime at = failure.getFailedAt();
+            int count = failure.getCount() == null ? 1 : failure.getCount();
+            userIds.add(failure.getUserId());
+            reasons.add(FailureReason.of(failure.getReason()).code());
+            offsets.add((int) ChronoUnit.MILLIS.between(minute(at), at));
+            ips.add(encodeIp(failure.getIpAddress()));
+            counts.add(count);
+            events += count;
+        }
+        // n 是陣列長度 (判斷 Bucket 滿了沒)，t 是實際事件數 (合併事件一筆代表好幾筆)
+        return new Update()
+                .inc("n", chunk.size())
+                .inc("t", events)
+                .push("u").each(userIds.toArray())
+                .push("r").each(reasons.toArray())
+                .push("o").each(offsets.toArray())
+                .push("ip").each(ips.toArray())
+                .push("c").each(counts.toArray());
+    }
+
+    /**
+     * 兩種格式的儲存空間比較 (collStats)
+     */
+    public List<StorageStats> stats() {
+        return List.of(stats(DOCUMENT_COLLECTION, Storage.DOCUMENT), stats(BUCKET_COLLECTION, Storage.BUCKET));
+    }
+
+    private StorageStats stats(String collection, Storage layout) {
+        if (!mongoTemplate.collectionExists(collection)) {
+            return new StorageStats(collection, 0, 0, 0, 0, 0, 0, 0, 0);
+        }
+        Document stats = mongoTemplate.executeCommand(new Document("collStats", collection));
+        long documents = number(stats.get("count"));
+        long events = layout == Storage.DOCUMENT ? documents : countBucketEvents();
+        long dataBytes = number(stats.get("size"));
+        long storageBytes = number(stats.get("storageSize"));
+        long indexBytes = number(stats.get("totalIndexSize"));
+        return new StorageStats(collection, documents, events, dataBytes, storageBytes, indexBytes,
+                perEvent(dataBytes, events), perEvent(indexBytes, events),
+                events == 0 ? 0 : (double) documents / events);
+    }
+
+    private long countBucketEvents() {
+        // 加上 t 之前寫的 Bucket 沒有 t，用 n 代替
+        Document total = mongoTemplate.aggregate(
+                Aggregation.newAggregation(Aggregation.group()
+                        .sum(ConditionalOperators.ifNull("t").thenValueOf("n")).as("events")),
+                BUCKET_COLLECTION, Document.class).getUniqueMappedResult();
+        return total == null ? 0 : number(total.get("events"));
+    }
+
+    static int encodeIp(String ip) {
+        if (ip == null) {
+            return 0;
+        }
+        String[] parts = ip.split("\\.");
+        if (parts.length != 4) {
+            return 0;
+        }
+        try {
+            int value = 0;
+            for (String part : parts) {
+                int octet = Integer.parseInt(part);
+                if (octet < 0 || octet > 255) {
+                    return 0;
+                }
+                value = (value << 8) | octet;
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static LocalDateTime minute(LocalDateTime time) {
+        return time.truncatedTo(ChronoUnit.MINUTES);
+    }
+
+    private static long number(Object value) {
+        return value instanceof Number number ? number.longValue() : 0;
+    }
+
+    private static double perEvent(long bytes, long events) {
+        return events == 0 ? 0 : (double) bytes / events;
+    }
+
+    public enum Storage {
+        DOCUMENT, // 一筆事件一個 Document
+        BUCKET    // 同商品同分鐘一個 Document
+    }
+
+    /**
+     * @param documentsPerEvent 每筆事件平均佔幾個 Document (= 每筆事件幾個索引項目)
+     */
+    public record StorageStats(String collection, long documents, long events, long dataBytes, long storageBytes,
+                               long indexBytes, double bytesPerEvent, double indexBytesPerEvent,
+                               double documentsPerEvent) {
+    }
+}
@@ -1,47 +1,50 @@
 package com.example.flashsale.service;
 
-import com.example.flashsale.DTO.FailureLogEvent;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.flashsale.DTO.CartItem;
+import com.example.flashsale.DTO.OrderMessage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
 
-import java.util.Random;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class KafkaService {
 
-    private final KafkaTemplate<String, String> kafkaTemplate;
+    private static final String ORDER_TOPIC = "flash-sale-topic";
 
-    // 定義一個專門的 Topic
-    private static final String TOPIC_FAILURE = "flash-sale-failure";
+    // 訂單訊息走二進位格式 (OrderMessageSerializer)
+    private final KafkaTemplate<String, OrderMessage> orderKafkaTemplate;
+
+    // 失敗日誌走背景發送 (請求執行緒不做序列化 / I/O)
+    private final FailureLogEmitter failureLogEmitter;
 
     // 發送訂單訊息
-    public void sendOrderMessage(Long productId, Long userId, String orderNo) {
-        // 訊息格式： "userId:productId:orderNo"
-        String message = userId + ":" + productId + ":" + orderNo;
+    // 回傳 Broker 確認結果，非同步版搶購會在送失敗時補回庫存
+    // Key = productId：同商品的訂單進同一個 Partition，保證順序，Consumer 一批裡同商品的訂單也會擠在一起 (合併扣庫存)
+    public CompletableFuture<SendResult<String, OrderMessage>> sendOrderMessage(Long productId, Long userId, UUID orderId) {
+        // 訊息格式：固定長度二進位 (舊的 "userId:productId:orderNo" 字串已淘汰)
+        OrderMessage message = new OrderMessage(userId, productId, orderId, System.currentTimeMillis());
         log.info("📤 [Kafka Producer] 發送搶購訊息: {}", message);
-        kafkaTemplate.send("flash-sale-topic", message);
+        return orderKafkaTemplate.send(ORDER_TOPIC, String.valueOf(productId), message);
+    }
+
+    // 發送購物車訂單訊息：整車一則 (v2 格式)，Consumer 拆成每個品項一筆訂單
+    public CompletableFuture<SendResult<String, OrderMessage>> sendCartOrderMessage(Long userId, UUID orderId, List<CartItem> items) {
+        OrderMessage message = new OrderMessage(userId, orderId, items, System.currentTimeMillis());
+        log.info("📤 [Kafka Producer] 發送購物車訂單訊息: {}", message);
+        // 一車跨多個商品，沒有單一商品可以當 Key：改用 userId，同一個人的訂單維持順序
+        return orderKafkaTemplate.send(ORDER_TOPIC, String.valueOf(userId), message);
     }
 
+    // 幾乎每個被擋下的請求都會呼叫：只排進佇列，序列化和送出由 FailureLogEmitter 的背景執行緒處理
     public void sendFailureLog(Long userId, Long productId, String reason) {
-        // 模擬取得 IP (在真實 Controller 層可以透過 HttpServletRequest 取得)
-        String fakeIp = "192.168.1." + (new Random().nextInt(255));
-
-        FailureLogEvent event = new FailureLogEvent(userId, productId, reason, fakeIp);
-        try {
-            // 2. 在這裡就地解決異常
-            String message = new ObjectMapper().writeValueAsString(event);
-            kafkaTemplate.send(TOPIC_FAILURE, message);
-            log.info("📝 失敗日誌已發送 Kafka: User={}, Reason={}", userId, reason);
-
-        } catch (JsonProcessingException e) {
-            // 3. 如果轉 JSON 失敗，印出 Error Log 即可，不要讓程式崩潰
-            log.error("❌ Kafka 日誌序列化失敗: {}", event, e);
-        }
+        failureLogEmitter.emit(userId, productId, reason);
     }
 }
\ No newline at end of file
@@ -2,45 +2,152 @@ package com.example.flashsale.service;
 
 import com.example.flashsale.DTO.FailureLogEvent;
 import com.example.flashsale.document.FailureLog;
-import com.example.flashsale.repository.FailureLogRepository;
+import com.example.flashsale.document.FailureReason;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * 失敗日誌 Consumer (Kafka -> MongoDB)
+ * - 批次監聽：一次 poll 整批反序列化，一個 Unordered Bulk 寫入 (單筆失敗不影響同批其他筆；儲存格式見 FailureLogStore)
+ * - 一批多大 / 多久一批交給 Kafka 的 Fetch 設定：
+ *   最多 batch-size 筆 (max.poll.records)；Broker 累積到 fetch-min-bytes 或等滿 fetch-max-wait-ms 才回傳
+ * - 落後太多時 (訊息產生超過 shed-after-lag-ms 才被消費) 可以抽樣 / 丟棄低價值的事件 (售完、限流)，
+ *   黑名單 / 重複購買這類要追查的事件一律保留
+ * - 每批順便累加每分鐘統計 (FailureAnalyticsService)，查統計不用掃原始日誌
+ */
 @Service
 @Slf4j
-@RequiredArgsConstructor
 public class LogConsumer {
 
-    private final FailureLogRepository failureLogRepository;
+    private final FailureLogStore failureLogStore;
     private final ObjectMapper objectMapper;
+    private final FailureAnalyticsService failureAnalyticsService;
+    private final Counter writtenCounter;
+    private final Counter shedCounter;
+    private final Counter failedCounter;
 
-    @KafkaListener(topics = "flash-sale-failure", groupId = "log-group")
-    public void consumeFailureLog(String message) {
-        try {
-            // 1. 反序列化 JSON
-            FailureLogEvent event = objectMapper.readValue(message, FailureLogEvent.class);
+    private final SheddingMode sheddingMode;
+    private final long shedAfterLagMs;
+    private final double sampleRate;
 
-            // 2. 轉換成 MongoDB Document
-            FailureLog doc = FailureLog.builder()
-                    .userId(event.getUserId())
-                    .productId(event.getProductId())
-                    .reason(event.getReason())
-                    .ipAddress(event.getIpAddress())
-                    .failedAt(LocalDateTime.now())
-                    .build();
+    public LogConsumer(FailureLogStore failureLogStore,
+                       ObjectMapper objectMapper,
+                       FailureAnalyticsService failureAnalyticsService,
+                       MeterRegistry meterRegistry,
+                       @Value("${flash-sale.failure-log.shedding:NONE}") SheddingMode sheddingMode,
+                       @Value("${flash-sale.failure-log.shed-after-lag-ms:5000}") long shedAfterLagMs,
+                       @Value("${flash-sale.failure-log.sample-rate:0.1}") double sampleRate) {
+        this.failureLogStore = failureLogStore;
+        this.objectMapper = objectMapper;
+        this.failureAnalyticsService = failureAnalyticsService;
+        this.writtenCounter = Counter.builder("flashsale.failurelog.written")
+                .description("寫入 MongoDB 的失敗日誌筆數")
+                .register(meterRegistry);
+        this.shedCounter = Counter.builder("flashsale.failurelog.shed")
+                .description("落後時被抽樣 / 丟棄的低價值失敗日誌筆數")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("flashsale.failurelog.failed")
+                .description("格式錯誤或寫入失敗的失敗日誌筆數")
+                .register(meterRegistry);
+        this.sheddingMode = sheddingMode;
+        this.shedAfterLagMs = shedAfterLagMs;
+        this.sampleRate = sampleRate;
+    }
 
-            // 3. 寫入 MongoDB (超快，單純插入)
-            failureLogRepository.save(doc);
+    @KafkaListener(topics = "flash-sale-failure", groupId = "log-group",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            properties = {
+                    "max.poll.records=${flash-sale.failure-log.batch-size:1000}",
+                    "fetch.min.bytes=${flash-sale.failure-log.fetch-min-bytes:65536}",
+                    "fetch.max.wait.ms=${flash-sale.failure-log.fetch-max-wait-ms:500}"
+            })
+    public void consumeFailureLogs(List<ConsumerRecord<String, String>> records, Acknowledgment ack) {
+        long now = System.currentTimeMillis();
 
-            log.debug("✅ 已寫入 MongoDB: {}", doc);
+        // 1. 整批反序列化，轉換成 MongoDB Document
+        List<FailureLog> all = new ArrayList<>(records.size());
+        List<FailureLog> docs = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, String> record : records) {
+            try {
+                FailureLogEvent event = objectMapper.readValue(record.value(), FailureLogEvent.class);
+                FailureLog doc = FailureLog.builder()
+                        .userId(event.getUserId())
+                        .productId(event.getProductId())
+                        .reason(event.getReason())
+                        .ipAddress(event.getIpAddress())
+                        .count(event.getCount() > 1 ? event.getCount() : null)
+                        // 用訊息產生的時間，Consumer 落後時才不會整批記成同一個時間
+                        .failedAt(LocalDateTime.ofInstant(Instant.ofEpochMilli(record.timestamp()), ZoneId.systemDefault()))
+                        .build();
+                all.add(doc);
+                if (shouldShed(event, now - record.timestamp())) {
+                    shedCounter.increment();
+                } else {
+                    docs.add(doc);
+                }
+            } catch (Exception e) {
+                failedCounter.increment();
+                log.error("❌ 失敗日誌格式錯誤，offset: {}", record.offset(), e);
+            }
+        }
 
+        // 2. 每分鐘統計照樣累加 (包含被抽樣掉的)，統計數字不受 Load Shedding 影響
+        try {
+            failureAnalyticsService.record(all);
         } catch (Exception e) {
-            log.error("寫入日誌失敗", e);
+            log.error("❌ 失敗日誌統計累加失敗，共 {} 筆", all.size(), e);
+        }
+
+        // 3. 一次 Unordered Bulk 寫入 (Mongo 可以平行寫，單筆失敗不會中斷後面的)
+        if (!docs.isEmpty()) {
+            try {
+                failureLogStore.write(docs);
+                writtenCounter.increment(docs.size());
+            } catch (BulkOperationException e) {
+                int failed = e.getErrors().size();
+                writtenCounter.increment(docs.size() - failed);
+                failedCounter.increment(failed);
+                log.error("❌ 失敗日誌批次寫入部分失敗: {} / {} 筆", failed, docs.size(), e);
+            } catch (Exception e) {
+                failedCounter.increment(docs.size());
+                log.error("❌ 失敗日誌批次寫入失敗，共 {} 筆", docs.size(), e);
+            }
         }
+
+        // 4. 日誌不值得卡住 Consumer 重試：寫不進去的記在 Metrics 裡，整批照樣簽收
+        ack.acknowledge();
+        log.debug("✅ 失敗日誌已寫入 MongoDB: 收到 {} 筆，寫入 {} 筆", records.size(), docs.size());
+    }
+
+    private boolean shouldShed(FailureLogEvent event, long lagMs) {
+        if (sheddingMode == SheddingMode.NONE || lagMs < shedAfterLagMs
+                || !FailureReason.of(event.getReason()).isLowValue()) {
+            return false;
+        }
+        return sheddingMode == SheddingMode.DROP || ThreadLocalRandom.current().nextDouble() >= sampleRate;
+    }
+
+    /**
+     * 落後時怎麼處理低價值事件
+     */
+    public enum SheddingMode {
+        NONE,   // 全部寫入
+        SAMPLE, // 只留 sample-rate 比例
+        DROP    // 全部丟棄
     }
-}
\ No newline at end of file
+}
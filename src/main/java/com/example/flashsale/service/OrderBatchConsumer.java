@@ -0,0 +1,128 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.DTO.CartItem;
+import com.example.flashsale.DTO.OrderMessage;
+import com.example.flashsale.model.Order;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 批次版的訂單 Consumer (flash-sale.order.consumer-mode=batch 時啟用)
+ * 一次 poll 回來的訊息整批寫入 MySQL，整批成功才簽收；失敗時 nack 整批，等一下從這批的第一筆重新 poll
+ * Consumer 執行緒數 = min(Partition 數, consumer-concurrency)，每條執行緒的批次只含分給它的 Partition
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "flash-sale.order.consumer-mode", havingValue = "batch")
+public class OrderBatchConsumer {
+
+    private final OrderBatchWriter orderBatchWriter;
+    private final StockReservationService stockReservationService;
+    private final OrderPartitionMetrics orderPartitionMetrics;
+
+    // 整批失敗後隔多久重新 poll 同一批
+    private final Duration retryBackoff;
+
+    public OrderBatchConsumer(OrderBatchWriter orderBatchWriter,
+                              StockReservationService stockReservationService,
+                              OrderPartitionMetrics orderPartitionMetrics,
+                              @Value("${flash-sale.order.batch-retry-backoff-ms:1000}") long retryBackoffMs) {
+        this.orderBatchWriter = orderBatchWriter;
+        this.stockReservationService = stockReservationService;
+        this.orderPartitionMetrics = orderPartitionMetrics;
+        this.retryBackoff = Duration.ofMillis(retryBackoffMs);
+    }
+
+    @KafkaListener(topics = "flash-sale-topic", groupId = "flash-sale-group",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            concurrency = "#{T(java.lang.Math).min(${flash-sale.order.partitions:12}, ${flash-sale.order.consumer-concurrency:4})}",
+            properties = {
+                    "max.poll.records=${flash-sale.order.batch-size:500}",
+                    "value.deserializer=com.example.flashsale.serializer.OrderMessageDeserializer"
+            })
+    public void handleOrders(List<ConsumerRecord<String, OrderMessage>> records, Acknowledgment ack) {
+        long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+
+        // 1. 訊息已由 OrderMessageDeserializer 解析 (新舊格式皆可)，解析失敗的是 null，直接丟掉
+        List<Order> orders = new ArrayList<>(records.size());
+        // 單品訂單有預留 (購物車訂單沒有)
+        List<Order> reserved = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, OrderMessage> record : records) {
+            OrderMessage message = record.value();
+            if (message == null) {
+                log.error("❌ 訊息格式錯誤，offset: {}", record.offset());
+                continue;
+            }
+            // 購物車訂單拆成每個品項一筆
+            LocalDateTime createTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(message.getCreatedAt()), ZoneId.systemDefault());
+            List<CartItem> lines = message.getLines();
+            for (int i = 0; i < lines.size(); i++) {
+                Order order = new Order();
+                order.setUserId(message.getUserId());
+                order.setProductId(lines.get(i).getProductId());
+                order.setOrderNo(message.getLineOrderNo(i));
+                order.setQuantity(lines.get(i).getQuantity());
+                order.setCreateTime(createTime);
+                orders.add(order);
+                if (!message.isCart()) {
+                    reserved.add(order);
+                }
+            }
+        }
+
+        try {
+            // 2. 一個 Pipeline 延長整批的預留，已經逾時被收回的訂單不寫入
+            List<Order> expired = stockReservationService.holdAll(reserved);
+            if (!expired.isEmpty()) {
+                log.warn("⌛ [預留] {} 筆訂單的預留已逾時收回，不建立訂單", expired.size());
+                orders.removeAll(expired);
+                reserved.removeAll(expired);
+            }
+
+            // 3. 整批寫入 (單一 Transaction)
+            int saved = orders.isEmpty() ? 0 : orderBatchWriter.persist(orders);
+
+            // 4. Transaction 已經 Commit，移除預留 (預留 -> 賣出)
+            stockReservationService.confirmOrders(reserved);
+
+            // 5. 整批一起簽收
+            long commitStart = System.nanoTime();
+            ack.acknowledge();
+            recordMetrics(records, commitStart - startNanos, System.nanoTime() - commitStart);
+            log.info("✅ [MySQL 批次] 收到 {} 筆，寫入 {} 筆，耗時 {} ms",
+                    records.size(), saved, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            // 光是不簽收不夠：manual_immediate 下一批簽收時會把 offset 提交到這批後面，這批就掉了
+            // nack(0)：這批一筆都不提交，每個 Partition seek 回這批的第一筆，等 retryBackoff 後重新 poll
+            // 已經寫進去的訂單在下一輪會被冪等檢查擋掉
+            log.error("❌ 批次處理訂單失敗，共 {} 筆，{} ms 後整批重試", records.size(), retryBackoff.toMillis(), e);
+            ack.nack(0, retryBackoff);
+        }
+    }
+
+    // 一批可能跨好幾個 Partition：處理時間平均分給每一筆，提交時間每個 Partition 各記一次
+    private void recordMetrics(List<ConsumerRecord<String, OrderMessage>> records, long processNanos, long commitNanos) {
+        long perRecord = processNanos / Math.max(records.size(), 1);
+        Set<Integer> partitions = new HashSet<>();
+        for (ConsumerRecord<String, OrderMessage> record : records) {
+            orderPartitionMetrics.recordConsume(record.partition(), perRecord);
+            partitions.add(record.partition());
+        }
+        partitions.forEach(partition -> orderPartitionMetrics.recordCommit(partition, commitNanos));
+    }
+}
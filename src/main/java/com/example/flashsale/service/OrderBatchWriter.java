@@ -0,0 +1,116 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.model.Order;
+import com.example.flashsale.repository.OrderRepository;
+import com.example.flashsale.repository.ProductRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 【批次寫入訂單】
+ * 一整批 Kafka 訊息只開一個 Transaction：
+ * 1. 一次 IN 查詢擋掉重複的 order_no (冪等性)
+ * 2. 同一商品的扣庫存合併成一條 UPDATE
+ * 3. 訂單用 JDBC Batch Insert 寫入
+ *    (JPA 的 IDENTITY 主鍵要逐筆拿回 ID，Hibernate 會關掉批次；這裡直接走 JDBC，
+ *     搭配連線參數 rewriteBatchedStatements=true，MySQL 會收到一條多列 INSERT)
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class OrderBatchWriter {
+
+    private static final String INSERT_ORDER_SQL =
+            "INSERT INTO orders (product_id, user_id, order_no, quantity, create_time) VALUES (?, ?, ?, ?, ?)";
+
+    private final OrderRepository orderRepository;
+    private final ProductRepository productRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * @return 實際寫入的訂單數
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public int persist(List<Order> orders) {
+        // 1. 批次內去重 (同一批裡 Kafka 重送的訊息)
+        Map<String, Order> byOrderNo = new LinkedHashMap<>();
+        for (Order order : orders) {
+            byOrderNo.putIfAbsent(order.getOrderNo(), order);
+        }
+
+        // 2. 跟 DB 比對，已經寫過的一次剔除
+        List<String> existing = orderRepository.findExistingOrderNos(byOrderNo.keySet());
+        if (!existing.isEmpty()) {
+            log.warn("⚠️ [重複消費] 批次中有 {} 筆訂單已存在，忽略處理", existing.size());
+            existing.forEach(byOrderNo::remove);
+        }
+
+        // 3. 依商品分組，每個商品只下一條 UPDATE
+        Map<Long, List<Order>> byProduct = new LinkedHashMap<>();
+        for (Order order : byOrderNo.values()) {
+            byProduct.computeIfAbsent(order.getProductId(), id -> new ArrayList<>()).add(order);
+        }
+
+        // (購物車訂單的每個品項是一筆，數量可能大於 1)
+        List<Order> accepted = new ArrayList<>(byOrderNo.size());
+        byProduct.forEach((productId, productOrders) -> {
+            List<Order> granted = decreaseStock(productId, productOrders);
+            if (granted.size() < productOrders.size()) {
+                log.warn("⚠️ [MySQL] 商品 {} 庫存不足 (Redis 與 MySQL 資料不一致)，{} 筆訂單未建立",
+                        productId, productOrders.size() - granted.size());
+            }
+            accepted.addAll(granted);
+        });
+
+        if (accepted.isEmpty()) {
+            return 0;
+        }
+
+        // 4. JDBC Batch Insert
+        // 若剛好有別的 Consumer 搶先寫入同一個 order_no，這裡會丟 DuplicateKeyException，
+        // 整批 Rollback 後重新投遞，下一輪第 2 步就會把它剔除
+        jdbcTemplate.batchUpdate(INSERT_ORDER_SQL, accepted, accepted.size(), (ps, order) -> {
+            ps.setLong(1, order.getProductId());
+            ps.setLong(2, order.getUserId());
+            ps.setString(3, order.getOrderNo());
+            ps.setInt(4, order.getQuantity());
+            ps.setTimestamp(5, Timestamp.valueOf(order.getCreateTime()));
+        });
+
+        return accepted.size();
+    }
+
+    /**
+     * 扣庫存：先嘗試整批扣，不夠的話依序挑放得下的訂單，只扣這些訂單的量
+     * @return 扣到庫存的訂單
+     */
+    private List<Order> decreaseStock(Long productId, List<Order> orders) {
+        int requested = orders.stream().mapToInt(Order::getQuantity).sum();
+        if (productRepository.decreaseStockBy(productId, requested) > 0) {
+            return orders;
+        }
+        Integer stock = productRepository.findStockById(productId);
+        int available = stock == null ? 0 : stock;
+        List<Order> fitting = new ArrayList<>();
+        int used = 0;
+        for (Order order : orders) {
+            if (used + order.getQuantity() <= available) {
+                used += order.getQuantity();
+                fitting.add(order);
+            }
+        }
+        if (used > 0 && productRepository.decreaseStockBy(productId, used) > 0) {
+            return fitting;
+        }
+        return List.of();
+    }
+}
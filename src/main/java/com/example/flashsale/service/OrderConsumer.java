@@ -1,47 +1,84 @@
 package com.example.flashsale.service;
 
+import com.example.flashsale.DTO.CartItem;
+import com.example.flashsale.DTO.OrderMessage;
 import com.example.flashsale.model.Order;
 import com.example.flashsale.repository.OrderRepository;
 import com.example.flashsale.repository.ProductRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
+// 逐筆模式 (預設)；設定 flash-sale.order.consumer-mode=batch 會改用 OrderBatchConsumer
+@ConditionalOnProperty(name = "flash-sale.order.consumer-mode", havingValue = "single", matchIfMissing = true)
 public class OrderConsumer {
 
     private final OrderRepository orderRepository;
     private final ProductRepository productRepository;
+    private final StockReservationService stockReservationService;
+    private final OrderPartitionMetrics orderPartitionMetrics;
 
     /**
      * 監聽 "flash-sale-topic"
      * 當有訊息進來時，這個方法會被觸發
+     * 每個 Partition 同一時間只會分給一條 Consumer 執行緒，執行緒數 = min(Partition 數, consumer-concurrency)：
+     * 訊息以 productId 當 Key，同商品的訂單在同一個 Partition 裡依序處理，offset 也依序提交
      */
-    @KafkaListener(topics = "flash-sale-topic", groupId = "flash-sale-group")
+    @KafkaListener(topics = "flash-sale-topic", groupId = "flash-sale-group",
+            concurrency = "#{T(java.lang.Math).min(${flash-sale.order.partitions:12}, ${flash-sale.order.consumer-concurrency:4})}",
+            properties = "value.deserializer=com.example.flashsale.serializer.OrderMessageDeserializer")
     @Transactional(rollbackFor = Exception.class) // 資料庫交易控制
-    public void handleOrder(String message, Acknowledgment ack) {
-        log.info("📥 [Kafka Consumer] 開始處理訂單: {}", message);
+    public void handleOrder(@Payload(required = false) OrderMessage message,
+                            @Header(KafkaHeaders.RECEIVED_PARTITION) int partition,
+                            Acknowledgment ack) {
+        log.info("📥 [Kafka Consumer] 開始處理訂單 (partition {}): {}", partition, message);
+        long start = System.nanoTime();
 
         try {
-            // 1. 解析訊息 "userId:productId:orderNo"
-            String[] parts = message.split(":");
-            if (parts.length < 3) {
-                log.error("❌ 訊息格式錯誤: {}", message);
-                ack.acknowledge(); // 格式錯誤直接丟掉，避免卡死
+            // 1. 訊息已由 OrderMessageDeserializer 解析 (新舊格式皆可)，解析失敗會是 null
+            if (message == null) {
+                log.error("❌ 訊息格式錯誤，丟棄");
+                orderPartitionMetrics.acknowledge(partition, ack); // 格式錯誤直接丟掉，避免卡死
                 return;
             }
 
-            Long userId = Long.parseLong(parts[0]);
-            Long productId = Long.parseLong(parts[1]);
-            String orderNo = parts[2];
+            // 購物車訂單：整車在同一個 Transaction 裡處理
+            if (message.isCart()) {
+                handleCartOrder(message);
+                orderPartitionMetrics.acknowledge(partition, ack);
+                return;
+            }
+
+            Long userId = message.getUserId();
+            Long productId = message.getProductId();
+            String orderNo = message.getOrderNo();
+
+            // 預留已經逾時被收回 (庫存已經還回 Redis 給別人買了)，這筆訂單不能再成立
+            // 預留還在的話會延長到期時間，寫入途中不會被 Reaper 收走
+            if (!stockReservationService.hold(productId, userId, orderNo)) {
+                log.warn("⌛ [預留] 訂單 {} 的預留已逾時收回，不建立訂單", orderNo);
+                orderPartitionMetrics.acknowledge(partition, ack);
+                return;
+            }
 
             // 2. 扣減 MySQL 庫存 (Redis 已扣，這裡做同步)
             int updateCount = productRepository.decreaseStock(productId);
@@ -52,7 +89,8 @@ public class OrderConsumer {
                 order.setProductId(productId);
                 order.setUserId(userId);
                 order.setOrderNo(orderNo); // ✅ 寫入 UUID
-                order.setCreateTime(LocalDateTime.now());
+                order.setQuantity(1);
+                order.setCreateTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(message.getCreatedAt()), ZoneId.systemDefault()));
 
                 try{
                     // 4. 寫入資料庫
@@ -63,6 +101,9 @@ public class OrderConsumer {
                     orderRepository.flush();
 
                     log.info("✅ [MySQL] 訂單建立成功: {}", orderNo);
+
+                    // Commit 後移除預留 (預留 -> 賣出)
+                    stockReservationService.confirm(productId, userId, orderNo);
                 }catch (DataIntegrityViolationException e) {
                     // 🛑 5. 冪等性防禦 (Idempotency)
                     // 捕捉到 order_no 重複，代表這是 Kafka 重複發送的訊息
@@ -74,10 +115,10 @@ public class OrderConsumer {
 
                 // 6. 手動提交 (防掉單)
                 // 只有程式跑到這裡沒崩潰，才告訴 Kafka 可以刪除訊息
-                ack.acknowledge();
+                orderPartitionMetrics.acknowledge(partition, ack);
             } else {
                 log.warn("⚠️ [MySQL] 庫存不足 (Redis 與 MySQL 資料不一致)");
-                ack.acknowledge();
+                orderPartitionMetrics.acknowledge(partition, ack);
             }
 
         } catch (Exception e) {
@@ -86,6 +127,47 @@ public class OrderConsumer {
             // ⚠️ 這裡「不要」呼叫 ack.acknowledge()
             // 這樣 Kafka 會知道這則訊息沒處理成功，稍後會重新投遞給 Consumer (或別的 Consumer)
             // 這就保證了訊息不遺失！
+        } finally {
+            orderPartitionMetrics.recordConsume(partition, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 購物車訂單：每個品項一筆訂單 (order_no = UUID-品項序號)
+     * Redis 已經整車扣過，這裡任何一個品項 MySQL 扣不到就整車 Rollback，不會只成立一半
+     */
+    private void handleCartOrder(OrderMessage message) {
+        List<CartItem> lines = message.getLines();
+        List<String> orderNos = IntStream.range(0, lines.size()).mapToObj(message::getLineOrderNo).toList();
+
+        // 冪等性：整車一起寫入，只要有一筆已存在就代表這則訊息處理過了
+        if (!orderRepository.findExistingOrderNos(orderNos).isEmpty()) {
+            log.warn("⚠️ [重複消費] 攔截到重複的購物車訂單，忽略處理: {}", message.getOrderNo());
+            return;
+        }
+
+        for (CartItem line : lines) {
+            if (productRepository.decreaseStockBy(line.getProductId(), line.getQuantity()) == 0) {
+                log.warn("⚠️ [MySQL] 商品 {} 庫存不足 (Redis 與 MySQL 資料不一致)，購物車訂單 {} 整筆不建立",
+                        line.getProductId(), message.getOrderNo());
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                return;
+            }
+        }
+
+        LocalDateTime createTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(message.getCreatedAt()), ZoneId.systemDefault());
+        List<Order> orders = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            Order order = new Order();
+            order.setProductId(lines.get(i).getProductId());
+            order.setUserId(message.getUserId());
+            order.setOrderNo(orderNos.get(i));
+            order.setQuantity(lines.get(i).getQuantity());
+            order.setCreateTime(createTime);
+            orders.add(order);
         }
+        orderRepository.saveAll(orders);
+        orderRepository.flush();
+        log.info("✅ [MySQL] 購物車訂單建立成功: {}，共 {} 個品項", message.getOrderNo(), orders.size());
     }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package com.example.flashsale.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 訂單 Topic 的消費落後量 (Lag)
+ * Lag = 各 Partition 最新的 offset - Consumer Group 已提交的 offset
+ * Lag > 0 代表還有訂單在 Kafka 裡排隊：Redis 已經扣了，MySQL 還沒扣
+ * 共用一個長駐的 AdminClient (不是每次查都建一個再 close，Kafka 連不上時 close 會一直等沒做完的請求)，
+ * 每次查詢的三個呼叫合起來最多等 TIMEOUT_SECONDS
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class OrderLagProbe {
+
+    static final String ORDER_TOPIC = "flash-sale-topic";
+    static final String ORDER_GROUP = "flash-sale-group";
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final KafkaAdmin kafkaAdmin;
+
+    private AdminClient admin;
+
+    /**
+     * @return 每個 Partition 的 Lag；還沒提交過 offset 的 Partition 保守地當作整個 Partition 都還沒消費
+     */
+    public Map<TopicPartition, Long> lagByPartition() throws Exception {
+        AdminClient admin = admin();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+
+        TopicDescription topic = admin.describeTopics(List.of(ORDER_TOPIC)).allTopicNames()
+                .get(remaining(deadline), TimeUnit.NANOSECONDS).get(ORDER_TOPIC);
+        Map<TopicPartition, OffsetSpec> latest = new HashMap<>();
+        topic.partitions().forEach(p -> latest.put(new TopicPartition(ORDER_TOPIC, p.partition()), OffsetSpec.latest()));
+
+        Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> ends = admin.listOffsets(latest).all()
+                .get(remaining(deadline), TimeUnit.NANOSECONDS);
+        Map<TopicPartition, OffsetAndMetadata> committed = admin.listConsumerGroupOffsets(ORDER_GROUP)
+                .partitionsToOffsetAndMetadata().get(remaining(deadline), TimeUnit.NANOSECONDS);
+
+        Map<TopicPartition, Long> lag = new HashMap<>();
+        ends.forEach((partition, end) -> {
+            OffsetAndMetadata offset = committed.get(partition);
+            long consumed = offset == null ? 0 : offset.offset();
+            lag.put(partition, Math.max(end.offset() - consumed, 0));
+        });
+        return lag;
+    }
+
+    // 第一次用到才建立，之後一直沿用 (AdminClient 自己會重連)；請求逾時也設成同一個上限
+    private synchronized AdminClient admin() {
+        if (admin == null) {
+            Map<String, Object> config = new HashMap<>(kafkaAdmin.getConfigurationProperties());
+            int timeoutMillis = (int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+            config.put(AdminClientConfig.REQUEST_TIMEOUT_MS_CONFIG, timeoutMillis);
+            config.put(AdminClientConfig.DEFAULT_API_TIMEOUT_MS_CONFIG, timeoutMillis);
+            admin = AdminClient.create(config);
+        }
+        return admin;
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(deadline - System.nanoTime(), 0);
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (admin != null) {
+            // 不等還沒做完的請求
+            admin.close(Duration.ZERO);
+            admin = null;
+        }
+    }
+
+    /**
+     * @return 所有 Partition 的 Lag 加總；查不到時回傳 -1 (呼叫端要當作「不確定」處理)
+     */
+    public long totalLag() {
+        try {
+            return lagByPartition().values().stream().mapToLong(Long::longValue).sum();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.warn("⚠️ [Kafka] 查詢訂單 Topic Lag 失敗: {}", e.getMessage());
+            return -1;
+        }
+    }
+}
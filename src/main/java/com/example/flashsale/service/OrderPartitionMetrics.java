@@ -0,0 +1,107 @@
+package com.example.flashsale.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 訂單 Consumer 每個 Partition 的指標 (tag: partition)
+ * - flashsale.order.consume：每筆訂單的處理時間；count 就是吞吐量
+ * - flashsale.order.commit ：提交 offset 的時間 (manual_immediate 下 acknowledge() 會同步 commit)
+ * - flashsale.order.lag    ：最新 offset - 已提交 offset (OrderLagProbe 定期查)
+ * 某個 Partition 吞吐量特別低 / Lag 特別高，通常是熱門商品都落在它身上
+ *
+ * 查 Lag 要打 Kafka Admin API，Kafka 連不上時會卡到逾時：排程只負責把查詢丟給自己的執行緒，
+ * 不佔用共用的排程執行緒 (限流對帳每 200ms 要跑)；上一次還沒查完就跳過這一次
+ */
+@Component
+@Slf4j
+public class OrderPartitionMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final OrderLagProbe orderLagProbe;
+
+    private final Map<Integer, Timer> consumeTimers = new ConcurrentHashMap<>();
+    private final Map<Integer, Timer> commitTimers = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicLong> lags = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor lagExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "order-lag-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    public OrderPartitionMetrics(MeterRegistry meterRegistry, OrderLagProbe orderLagProbe) {
+        this.meterRegistry = meterRegistry;
+        this.orderLagProbe = orderLagProbe;
+    }
+
+    public void recordConsume(int partition, long nanos) {
+        consumeTimers.computeIfAbsent(partition, p -> Timer.builder("flashsale.order.consume")
+                        .description("每筆訂單的處理時間 (count = 處理筆數)")
+                        .tag("partition", String.valueOf(p))
+                        .publishPercentiles(0.5, 0.95, 0.99)
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 提交 offset 並記錄花了多久
+     */
+    public void acknowledge(int partition, Acknowledgment ack) {
+        long start = System.nanoTime();
+        ack.acknowledge();
+        recordCommit(partition, System.nanoTime() - start);
+    }
+
+    public void recordCommit(int partition, long nanos) {
+        commitTimers.computeIfAbsent(partition, p -> Timer.builder("flashsale.order.commit")
+                        .description("提交 offset 的時間")
+                        .tag("partition", String.valueOf(p))
+                        .publishPercentiles(0.5, 0.95, 0.99)
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Scheduled(fixedDelayString = "${flash-sale.order.lag-refresh-ms:10000}")
+    public void refreshLag() {
+        lagExecutor.execute(this::updateLag);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lagExecutor.shutdownNow();
+    }
+
+    void updateLag() {
+        try {
+            orderLagProbe.lagByPartition().forEach((partition, lag) ->
+                    lags.computeIfAbsent(partition.partition(), p -> {
+                        AtomicLong value = new AtomicLong();
+                        Gauge.builder("flashsale.order.lag", value, AtomicLong::get)
+                                .description("訂單 Topic 每個 Partition 還沒消費的筆數")
+                                .tag("partition", String.valueOf(p))
+                                .register(meterRegistry);
+                        return value;
+                    }).set(lag));
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.debug("⚠️ [Kafka] 更新 Partition Lag 失敗: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.DTO.ProductCacheEntry;
+import com.example.flashsale.model.Product;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 【商品多層快取】
+ * L1：本機 Caffeine (有上限 + 短 TTL)，熱門商品頁不用每次都打 Redis、反序列化 JSON
+ * L2：Redis product:{id} (約 10 分鐘 TTL)
+ * 商品異動時透過 Hazelcast Topic 通知所有節點清掉 L1
+ *
+ * 防快取擊穿 / 穿透 / 雪崩：
+ * - Single-flight：同一節點同一個 Key 只有一條執行緒去查 MySQL，其他人等它的結果
+ * - 負快取：不存在的 ID 也快取 (短 TTL)，亂打 ID 不會每次都打到 MySQL
+ * - 提前刷新 (XFetch)：快過期時按機率提前由一條執行緒重載，其他人繼續用舊值
+ * - TTL 加隨機抖動：避免同一時間寫入的 Key 同時過期
+ *
+ * 指標 (Actuator /actuator/metrics)：
+ * - cache.gets{cache=product.l1|product.l2, result=hit|miss}
+ * - cache.evictions{cache=product.l1|product.l2}
+ * - cache.loads{cache=product.l2, result=load|wait|early-refresh}
+ */
+@Component
+@Slf4j
+public class ProductCache {
+
+    // 定義 Key 的前綴，方便管理 (例如 product:1)
+    private static final String PRODUCT_CACHE_PREFIX = "product:";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final HazelcastService hazelcastService;
+
+    private final Cache<Long, ProductCacheEntry> localCache;
+
+    // 正在從 MySQL 載入中的 Key (Single-flight)
+    private final Map<Long, CompletableFuture<ProductCacheEntry>> inFlight = new ConcurrentHashMap<>();
+
+    private final long ttlMillis;
+    private final double ttlJitter;
+    private final long negativeTtlMillis;
+    private final double earlyRefreshBeta;
+
+    private final Counter l2Hits;
+    private final Counter l2Misses;
+    private final Counter l2Evictions;
+    private final Counter loads;
+    private final Counter loadWaits;
+    private final Counter earlyRefreshes;
+
+    public ProductCache(RedisTemplate<String, Object> redisTemplate,
+                        HazelcastService hazelcastService,
+                        MeterRegistry meterRegistry,
+                        @Value("${flash-sale.product-cache.local-max-size:10000}") long localMaxSize,
+                        @Value("${flash-sale.product-cache.local-ttl-ms:5000}") long localTtlMillis,
+                        @Value("${flash-sale.product-cache.ttl-ms:600000}") long ttlMillis,
+                        @Value("${flash-sale.product-cache.ttl-jitter:0.1}") double ttlJitter,
+                        @Value("${flash-sale.product-cache.negative-ttl-ms:60000}") long negativeTtlMillis,
+                        @Value("${flash-sale.product-cache.early-refresh-beta:1.0}") double earlyRefreshBeta) {
+        this.redisTemplate = redisTemplate;
+        this.hazelcastService = hazelcastService;
+        this.ttlMillis = ttlMillis;
+        this.ttlJitter = ttlJitter;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.earlyRefreshBeta = earlyRefreshBeta;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(localMaxSize)
+                .expireAfterWrite(Duration.ofMillis(localTtlMillis))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "product.l1");
+        this.l2Hits = l2Counter(meterRegistry, "cache.gets", "result", "hit");
+        this.l2Misses = l2Counter(meterRegistry, "cache.gets", "result", "miss");
+        this.l2Evictions = l2Counter(meterRegistry, "cache.evictions", null, null);
+        this.loads = l2Counter(meterRegistry, "cache.loads", "result", "load");
+        this.loadWaits = l2Counter(meterRegistry, "cache.loads", "result", "wait");
+        this.earlyRefreshes = l2Counter(meterRegistry, "cache.loads", "result", "early-refresh");
+    }
+
+    private static Counter l2Counter(MeterRegistry meterRegistry, String name, String tagKey, String tagValue) {
+        Counter.Builder builder = Counter.builder(name).tag("cache", "product.l2");
+        if (tagKey != null) {
+            builder.tag(tagKey, tagValue);
+        }
+        return builder.register(meterRegistry);
+    }
+
+    // 訂閱商品異動通知 (包含自己這個節點發出的)
+    @PostConstruct
+    public void subscribe() {
+        hazelcastService.addProductChangedListener(productId -> {
+            if (HazelcastService.ALL_PRODUCTS.equals(productId)) {
+                localCache.invalidateAll();
+            } else {
+                localCache.invalidate(productId);
+            }
+        });
+    }
+
+    /**
+     * 依序查 L1 -> L2 -> loader (MySQL)，查到就回填上一層
+     * 回傳 null 代表商品不存在 (可能來自負快取)
+     */
+    public Product get(Long id, Function<Long, Product> loader) {
+        // 1. L1 本機記憶體
+        ProductCacheEntry entry = localCache.getIfPresent(id);
+        if (entry != null) {
+            return entry.getProduct();
+        }
+
+        // 2. L2 Redis
+        entry = readRemote(id);
+        if (entry == null) {
+            l2Misses.increment();
+            log.debug("🐢 [Cache Miss] 從 MySQL 讀取商品: {}", id);
+            return load(id, loader).getProduct();
+        }
+        l2Hits.increment();
+        log.debug("🔥 [Cache Hit] 從 Redis 讀取商品: {}", id);
+
+        // 3. 快過期了：機率性提前刷新，只讓一條執行緒去重載，其他人照樣拿舊值
+        if (shouldRefreshEarly(entry) && !inFlight.containsKey(id)) {
+            earlyRefreshes.increment();
+            return load(id, loader).getProduct();
+        }
+        localCache.put(id, entry);
+        return entry.getProduct();
+    }
+
+    private ProductCacheEntry readRemote(Long id) {
+        Object cached = redisTemplate.opsForValue().get(PRODUCT_CACHE_PREFIX + id);
+        if (cached instanceof ProductCacheEntry cachedEntry) {
+            return cachedEntry;
+        }
+        if (cached instanceof Product legacy) {
+            // 舊版直接存 Product 的資料，沒有過期資訊，就不做提前刷新
+            return new ProductCacheEntry(legacy, Long.MAX_VALUE, 0);
+        }
+        return null;
+    }
+
+    /**
+     * Single-flight 載入：同一個 Key 只有第一條執行緒查 MySQL，其他執行緒等同一個結果
+     */
+    private ProductCacheEntry load(Long id, Function<Long, Product> loader) {
+        CompletableFuture<ProductCacheEntry> mine = new CompletableFuture<>();
+        CompletableFuture<ProductCacheEntry> running = inFlight.putIfAbsent(id, mine);
+        if (running != null) {
+            loadWaits.increment();
+            return running.join();
+        }
+
+        try {
+            loads.increment();
+            long start = System.currentTimeMillis();
+            Product product = loader.apply(id);
+            long computeMillis = System.currentTimeMillis() - start;
+
+            // 不存在的 ID 也快取起來 (負快取)，TTL 短一點；兩種 TTL 都加隨機抖動
+            long ttl = jitter(product == null ? negativeTtlMillis : ttlMillis);
+            ProductCacheEntry entry = new ProductCacheEntry(product, System.currentTimeMillis() + ttl, computeMillis);
+            redisTemplate.opsForValue().set(PRODUCT_CACHE_PREFIX + id, entry, ttl, TimeUnit.MILLISECONDS);
+            localCache.put(id, entry);
+
+            mine.complete(entry);
+            return entry;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(id, mine);
+        }
+    }
+
+    /**
+     * XFetch：now - computeMillis * beta * ln(rand) >= expireAt 時提前刷新
+     * 越接近過期、載入越慢，刷新機率越高
+     */
+    private boolean shouldRefreshEarly(ProductCacheEntry entry) {
+        if (entry.getExpireAt() == Long.MAX_VALUE) {
+            return false;
+        }
+        double gap = entry.getComputeMillis() * earlyRefreshBeta * -Math.log(ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= entry.getExpireAt();
+    }
+
+    private long jitter(long ttl) {
+        double factor = 1 + ttlJitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+        return Math.max(1, (long) (ttl * factor));
+    }
+
+    /**
+     * 單一商品異動：刪 L2，並通知所有節點清 L1
+     */
+    public void evict(Long id) {
+        redisTemplate.delete(PRODUCT_CACHE_PREFIX + id);
+        l2Evictions.increment();
+        hazelcastService.publishProductChanged(id);
+    }
+}
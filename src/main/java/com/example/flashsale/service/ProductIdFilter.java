@@ -0,0 +1,150 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.repository.ProductRepository;
+import com.example.flashsale.util.LongBloomFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 【商品 ID Bloom Filter】
+ * 機器人亂打不存在的商品 ID 時，在 Controller 就擋掉，不用花一次 Redis Lua 或 MySQL findById
+ * - 啟動時從 MySQL 分頁撈出所有 ID 建立 (每個節點各自建一份)
+ * - 新增商品時透過 Hazelcast Topic (product-changed) 同步到所有節點
+ * - 還沒建好之前一律放行 (fail-open)，不會誤擋真的商品
+ */
+@Component
+@Slf4j
+public class ProductIdFilter {
+
+    private static final int PAGE_SIZE = 10000;
+
+    private final ProductRepository productRepository;
+    private final HazelcastService hazelcastService;
+    private final Timer rebuildTimer;
+
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+
+    private volatile LongBloomFilter filter;
+    // 重建期間新增的 ID 也要寫進新的 filter，避免切換時遺漏
+    // add() 和「開始重建 / 切換」都要拿 swapLock，add 不會夾在讀到舊 filter 和切換之間而兩邊都沒寫到
+    private LongBloomFilter building;
+    private final Object swapLock = new Object();
+
+    // 大量異動觸發的重建：一條專用執行緒，最多再排一個 (排著的那次會撈到最新資料，更多的請求直接丟掉)
+    private final ThreadPoolExecutor rebuildExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), runnable -> {
+                Thread thread = new Thread(runnable, "product-filter-rebuild");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    public ProductIdFilter(ProductRepository productRepository,
+                           HazelcastService hazelcastService,
+                           MeterRegistry meterRegistry,
+                           @Value("${flash-sale.product-filter.expected-insertions:1000000}") long expectedInsertions,
+                           @Value("${flash-sale.product-filter.false-positive-rate:0.001}") double falsePositiveRate) {
+        this.productRepository = productRepository;
+        this.hazelcastService = hazelcastService;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.rebuildTimer = Timer.builder("flashsale.product.filter.rebuild")
+                .description("商品 ID Bloom Filter 重建耗時")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        hazelcastService.addProductChangedListener(productId -> {
+            if (HazelcastService.ALL_PRODUCTS.equals(productId)) {
+                // 大量商品異動 (例如批次匯入)：整份重建，不佔用 Hazelcast 的事件執行緒，也不佔用 common pool
+                rebuildExecutor.execute(this::rebuild);
+            } else {
+                add(productId);
+            }
+        });
+        rebuild();
+    }
+
+    public boolean mightContain(Long productId) {
+        LongBloomFilter current = filter;
+        return current == null || (productId != null && current.mightContain(productId));
+    }
+
+    /**
+     * 只能在商品 Commit 之後呼叫：重建是從 MySQL 撈，還沒 Commit 的 ID 撈不到，要靠這裡寫進正在建的 filter
+     */
+    public void add(Long productId) {
+        synchronized (swapLock) {
+            LongBloomFilter current = filter;
+            if (current != null) {
+                current.add(productId);
+            }
+            if (building != null) {
+                building.add(productId);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * 從 MySQL 分頁 (依 ID 遞增) 撈出所有商品 ID，重新建立 filter
+     * 容量取「設定值」與「目前商品數 x 2」較大者，保留新增商品的空間
+     * @return 重建報告
+     */
+    public synchronized String rebuild() {
+        long start = System.nanoTime();
+        long capacity = Math.max(expectedInsertions, productRepository.count() * 2);
+        LongBloomFilter next = new LongBloomFilter(capacity, falsePositiveRate);
+        synchronized (swapLock) {
+            building = next;
+        }
+
+        long count = 0;
+        Long lastId = 0L;
+        try {
+            List<Long> ids;
+            do {
+                ids = productRepository.findIdsAfter(lastId, PageRequest.ofSize(PAGE_SIZE));
+                for (Long id : ids) {
+                    next.add(id);
+                }
+                count += ids.size();
+                if (!ids.isEmpty()) {
+                    lastId = ids.get(ids.size() - 1);
+                }
+            } while (ids.size() == PAGE_SIZE);
+
+            synchronized (swapLock) {
+                filter = next;
+            }
+        } finally {
+            synchronized (swapLock) {
+                building = null;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        rebuildTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        String report = String.format("商品 ID Bloom Filter 重建完成：%d 筆，%d KB，%d 個雜湊，耗時 %d ms",
+                count, next.bitSize() / 8 / 1024, next.hashCount(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+        log.info("🌸 {}", report);
+        return report;
+    }
+}
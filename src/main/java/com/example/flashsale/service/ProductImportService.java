@@ -0,0 +1,222 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.model.Product;
+import com.example.flashsale.repository.ProductRepository;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 【商品批次匯入】CSV / JSON 檔案 -> MySQL -> Redis
+ * - 檔案邊讀邊寫，不會整份載入記憶體：CSV 逐行讀，JSON 用 Jackson Streaming API 逐個物件解析
+ * - 每 chunk-size 筆一次 JDBC Batch Insert (rewriteBatchedStatements=true 時 MySQL 收到一條多列 INSERT)
+ * - 全部寫完後只預熱新的那一段 ID 的庫存，並通知所有節點重建商品 ID Bloom Filter (中途失敗時已寫入的部分也一樣)
+ *
+ * CSV 格式：name,price,stock (第一行是標題可有可無；商品名稱可以含逗號，最後兩欄是數字)
+ * JSON 格式：[{"name": "...", "price": 100, "stock": 10}, ...]
+ */
+@Service
+@Slf4j
+public class ProductImportService {
+
+    private static final String INSERT_PRODUCT_SQL = "INSERT INTO product (name, price, stock) VALUES (?, ?, ?)";
+
+    private final ProductRepository productRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final StockWarmer stockWarmer;
+    private final HazelcastService hazelcastService;
+    private final ObjectMapper objectMapper;
+
+    private final int chunkSize;
+
+    public ProductImportService(ProductRepository productRepository,
+                                JdbcTemplate jdbcTemplate,
+                                StockWarmer stockWarmer,
+                                HazelcastService hazelcastService,
+                                ObjectMapper objectMapper,
+                                @Value("${flash-sale.warm-up.page-size:1000}") int chunkSize) {
+        this.productRepository = productRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.stockWarmer = stockWarmer;
+        this.hazelcastService = hazelcastService;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param fileName 依副檔名判斷格式 (.json，其餘當作 CSV)
+     */
+    public ImportReport importProducts(InputStream input, String fileName) throws IOException {
+        long start = System.nanoTime();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long[] peakHeap = {heapBefore};
+
+        // 匯入前的最大 ID：之後只預熱比它大的 (IDENTITY 遞增)
+        Long maxIdBefore = productRepository.findMaxId();
+
+        ChunkWriter writer = new ChunkWriter(chunks -> peakHeap[0] = Math.max(peakHeap[0], memory.getHeapMemoryUsage().getUsed()));
+        try {
+            if (fileName != null && fileName.toLowerCase().endsWith(".json")) {
+                readJson(input, writer);
+            } else {
+                readCsv(input, writer);
+            }
+            writer.flush();
+        } catch (IOException | RuntimeException e) {
+            // 讀到一半失敗 (例如 JSON 格式壞掉)：前面的 chunk 已經 Commit 了，一樣要預熱和通知，
+            // 不然這些商品在 MySQL 裡卻沒有 Redis 庫存，也不在任何節點的 Bloom Filter 裡
+            if (writer.inserted > 0) {
+                log.warn("⚠️ [商品匯入] 匯入中斷，已寫入的 {} 筆照常預熱", writer.inserted);
+                publishImported(maxIdBefore);
+            }
+            throw e;
+        }
+        long importNanos = System.nanoTime() - start;
+
+        StockWarmer.WarmUpReport warmUp = publishImported(maxIdBefore);
+
+        ImportReport report = new ImportReport(writer.inserted, writer.rejected,
+                TimeUnit.NANOSECONDS.toMillis(importNanos), StockWarmer.perSecond(writer.inserted, importNanos),
+                (peakHeap[0] - heapBefore) / 1024 / 1024, warmUp);
+        log.info("📥 [商品匯入] 寫入 {} 筆，略過 {} 筆格式錯誤，耗時 {} ms，{} 筆/秒，Heap 增加 {} MB",
+                report.inserted(), report.rejected(), report.tookMillis(), report.rowsPerSecond(), report.heapGrowthMb());
+        return report;
+    }
+
+    // 新商品的庫存寫進 Redis，其他節點重建 Bloom Filter / 清 L1 快取
+    private StockWarmer.WarmUpReport publishImported(Long maxIdBefore) {
+        StockWarmer.WarmUpReport warmUp = stockWarmer.warmUp(maxIdBefore);
+        hazelcastService.publishProductChanged(HazelcastService.ALL_PRODUCTS);
+        return warmUp;
+    }
+
+    private void readCsv(InputStream input, ChunkWriter writer) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            boolean firstLine = true;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Product product = parseCsvLine(line);
+                if (product != null) {
+                    writer.add(product);
+                } else if (!firstLine) {
+                    writer.rejected++;
+                }
+                // 第一行解析不了就當作標題行 (name,price,stock)，不算格式錯誤
+                firstLine = false;
+            }
+        }
+    }
+
+    // 最後兩欄是價格和庫存，前面全部是名稱 (名稱裡可以有逗號)
+    static Product parseCsvLine(String line) {
+        int stockComma = line.lastIndexOf(',');
+        int priceComma = stockComma <= 0 ? -1 : line.lastIndexOf(',', stockComma - 1);
+        if (priceComma <= 0) {
+            return null;
+        }
+        try {
+            Product product = new Product();
+            product.setName(unquote(line.substring(0, priceComma).trim()));
+            product.setPrice(Integer.valueOf(line.substring(priceComma + 1, stockComma).trim()));
+            product.setStock(Integer.valueOf(line.substring(stockComma + 1).trim()));
+            return valid(product) ? product : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void readJson(InputStream input, ChunkWriter writer) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(input)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("JSON 檔案最外層必須是陣列");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                // 一次只解析一個物件：先整個讀成樹 (Parser 停在物件結尾)，欄位型別不對 (例如 stock 不是數字) 只略過這一筆
+                JsonNode node = objectMapper.readTree(parser);
+                Product product;
+                try {
+                    product = objectMapper.treeToValue(node, Product.class);
+                } catch (JsonProcessingException e) {
+                    writer.rejected++;
+                    continue;
+                }
+                if (valid(product)) {
+                    product.setId(null);
+                    writer.add(product);
+                } else {
+                    writer.rejected++;
+                }
+            }
+        }
+    }
+
+    private static boolean valid(Product product) {
+        return product.getName() != null && !product.getName().isBlank()
+                && product.getStock() != null && product.getStock() >= 0;
+    }
+
+    private static String unquote(String value) {
+        return value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")
+                ? value.substring(1, value.length() - 1).replace("\"\"", "\"")
+                : value;
+    }
+
+    // 累積滿一個 chunk 就 Batch Insert，記憶體裡最多只有一個 chunk
+    private class ChunkWriter {
+        private final List<Product> chunk = new ArrayList<>(chunkSize);
+        private final Consumer<Integer> afterFlush;
+        private long inserted;
+        private long rejected;
+
+        ChunkWriter(Consumer<Integer> afterFlush) {
+            this.afterFlush = afterFlush;
+        }
+
+        void add(Product product) {
+            chunk.add(product);
+            if (chunk.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            jdbcTemplate.batchUpdate(INSERT_PRODUCT_SQL, chunk, chunk.size(), (ps, product) -> {
+                ps.setString(1, product.getName());
+                ps.setObject(2, product.getPrice());
+                ps.setInt(3, product.getStock());
+            });
+            inserted += chunk.size();
+            afterFlush.accept(chunk.size());
+            chunk.clear();
+        }
+    }
+
+    public record ImportReport(long inserted, long rejected, long tookMillis, long rowsPerSecond,
+                               long heapGrowthMb, StockWarmer.WarmUpReport warmUp) {
+    }
+}
@@ -2,23 +2,29 @@ package com.example.flashsale.service;
 
 import com.example.flashsale.model.Product;
 import com.example.flashsale.repository.ProductRepository;
+import com.example.flashsale.service.admission.AdmissionPipeline;
+import com.example.flashsale.service.admission.AdmissionResult;
+import com.example.flashsale.service.admission.OrderContext;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 import java.util.concurrent.TimeUnit;
-import java.util.Random;
 import java.util.concurrent.TimeUnit;
-import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Service
 @RequiredArgsConstructor // Lombok 自動生成 Constructor DI (依賴注入)
@@ -26,20 +32,11 @@ import java.util.UUID;
 public class ProductService {
 
     private final ProductRepository productRepository;
-    // 注入我們剛剛設定好的 RedisTemplate
-    //private final RedisTemplate<String, Object> redisTemplate;
-    @Autowired
-    private StringRedisTemplate stringRedisTemplate; // 🔥 專門用來處理庫存數字
+    // 注入我們剛剛設定好的 RedisTemplate (改為建構子注入，Mockito 測試時才注入得進來)
+    private final StringRedisTemplate stringRedisTemplate; // 🔥 專門用來處理庫存數字
 
-    @Autowired
-    private RedisTemplate<String, Object> redisTemplate; // 保留這個處理複雜物件
+    private final RedisTemplate<String, Object> redisTemplate; // 保留這個處理複雜物件
 
-
-    // Mockito 測試時也能把 Mock 物件注入進來
-    private final RedisScript<Long> stockScript;
-    private static final String STOCK_PREFIX = "product:stock:";
-    // 定義 Key 的前綴，方便管理 (例如 product:1)
-    private static final String PRODUCT_CACHE_PREFIX = "product:";
     // 注入 HazelcastService
     private final HazelcastService hazelcastService;
 
@@ -49,76 +46,194 @@ public class ProductService {
     // 注入 Zookeeper Client
     private final CuratorFramework curatorFramework;
 
+    // 本機售罄旗標 (賣完後直接擋掉，不再打 Redis)
+    private final SoldOutCache soldOutCache;
+
+    // ZK 鎖搶購的執行緒 (platform: 呼叫端執行緒 / virtual: 虛擬執行緒)
+    private final TaskExecutor zkOrderExecutor;
+
+    // 非同步搶購送 Kafka 的執行緒 (send() 可能卡住，不能在 Lettuce I/O 執行緒上送)
+    private final TaskExecutor kafkaSendExecutor;
+
+    // ZK 等鎖 / 持鎖的延遲指標
+    private final ZkLockMetrics zkLockMetrics;
+
+    // ZK 鎖合併 (同商品的請求在本機排隊，一次拿鎖處理一批)
+    private final ZkOrderCoalescer zkOrderCoalescer;
+
+    // 商品多層快取 (L1 Caffeine + L2 Redis)
+    private final ProductCache productCache;
+
+    // 商品 ID Bloom Filter
+    private final ProductIdFilter productIdFilter;
+
+    // 庫存的 Redis Key (Hash Tag 規則)
+    private final StockKeys stockKeys;
+
+    // 庫存分片 (建立商品時平均分配)
+    private final StockShardManager stockShardManager;
+
+    // 庫存預留 (ZK 鎖模式扣完庫存後補記預留)
+    private final StockReservationService stockReservationService;
+
+    // 搶購准入流程 (商品 ID -> 黑名單 -> 限流 -> 扣庫存)
+    private final AdmissionPipeline admissionPipeline;
+
+    // 每人每個商品限購一件 (ZK 鎖模式不走 StockStage，在鎖內自己檢查)
+    @Value("${flash-sale.order.one-per-user:true}")
+    private boolean onePerUser;
+
     @Transactional(rollbackFor = Exception.class)
     public Product createProduct(Product product) {
         Product savedProduct = productRepository.save(product);
 
         // 【庫存預熱】將庫存數量寫入 Redis (重要！)
-        // Key: product:stock:1, Value: 100
-        redisTemplate.opsForValue().set(STOCK_PREFIX + savedProduct.getId(), savedProduct.getStock());
+        // Key: product:stock:{1}, Value: 100；開啟分片時平均拆到 product:stock:{1:0} ~ {1:K-1}
+        stockShardManager.distribute(savedProduct.getId(), savedProduct.getStock());
+
+        // 通知所有節點清除售罄旗標 (補貨)
+        hazelcastService.broadcastStockReset(savedProduct.getId());
+
+        // Commit 之後才做：
+        // - 本機加進 Bloom Filter (重建只撈得到已 Commit 的 ID)，其他節點由清快取送出的商品異動通知加入
+        // - 清掉這個商品的快取 (Commit 前別的請求回源查不到，會把「不存在」又寫回快取)
+        Long productId = savedProduct.getId();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    productCreated(productId);
+                }
+            });
+        } else {
+            productCreated(productId);
+        }
 
         return savedProduct;
     }
 
+    private void productCreated(Long productId) {
+        productIdFilter.add(productId);
+        productCache.evict(productId);
+    }
+
     /**
-     * 查詢商品 (加入 Redis 快取邏輯)
+     * 查詢商品 (L1 Caffeine -> L2 Redis -> MySQL)
      */
     public Product getProduct(Long id) {
-        String cacheKey = PRODUCT_CACHE_PREFIX + id;
+        return productCache.get(id, productId -> productRepository.findById(productId).orElse(null));
+    }
+
+    /**
+     * 搶購商品 (秒殺核心邏輯)
+     * 准入順序：商品 ID 驗證 -> 黑名單 -> 限流 -> 扣庫存 (見 AdmissionPipeline)
+     * 被擋下的請求不會吃掉庫存，扣完庫存後才失敗的會把庫存還回去
+     */
+    public String orderProduct(Long productId) {
+        return orderProduct(productId, null);
+    }
 
-        // 1. 先查 Redis
-        Product cachedProduct = (Product) redisTemplate.opsForValue().get(cacheKey);
-        if (cachedProduct != null) {
-            log.info("🔥 [Cache Hit] 從 Redis 讀取商品: {}", id);
-            return cachedProduct;
+    /**
+     * @param userId 下單的用戶 (每人每個商品限購一件)；沒帶就隨機產生 (壓測用)
+     */
+    public String orderProduct(Long productId, Long userId) {
+        // 1. 沒帶 User ID 時模擬一個
+        if (userId == null) {
+            userId = randomUserId();
+        }
+        OrderContext context = new OrderContext(productId, userId);
+
+        // 2. 依序通過各個准入關卡 (最後一關才扣庫存)
+        AdmissionResult admission = admissionPipeline.admit(context);
+        if (!admission.isAdmitted()) {
+            return reject(context, admission);
         }
 
-        // 2. Redis 沒有，查 MySQL
-        log.info("🐢 [Cache Miss] 從 MySQL 讀取商品: {}", id);
-        Product product = productRepository.findById(id).orElse(null);
+        // 3. ✅ 全域唯一的訂單編號 (UUID，進入關卡前就產生，扣庫存時記錄預留用)
+        // 這代表「這一次的點擊行為」，就算 Kafka 重送，這個 UUID 也不會變
+        UUID orderId = context.getOrderId();
 
-        // 3. 如果 MySQL 有資料，寫入 Redis (並設定 10 分鐘過期，避免髒資料永久存在)
-        if (product != null) {
-            redisTemplate.opsForValue().set(cacheKey, product, 10, TimeUnit.MINUTES);
+        // 4. 發送訊息 (帶入 UUID)，送失敗 (包含 send() 直接丟例外) 時把庫存還回去
+        CompletableFuture<?> sent;
+        try {
+            sent = kafkaService.sendOrderMessage(productId, userId, orderId);
+        } catch (RuntimeException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        sent.whenComplete((sendResult, ex) -> {
+            if (ex != null) {
+                log.error("❌ [Kafka] 訂單 {} 送出失敗，補回庫存", orderId, ex);
+                admissionPipeline.rollback(context);
+            }
+        });
+        if (sent.isCompletedExceptionally()) {
+            return "搶購失敗，系統忙碌中";
         }
 
-        return product;
+        return "搶購成功，訂單處理中...";
     }
 
     /**
-     * 搶購商品 (秒殺核心邏輯)
+     * 搶購商品 (非同步版)
+     * Servlet 執行緒不會卡在 Redis / Kafka 上：Lua 走 Lettuce Reactive API，Kafka 送出結果串在後面
+     * Kafka 送失敗時把庫存補回 Redis，不會默默弄丟一個庫存
      */
-    public String orderProduct(Long productId) {
-        // 1. Redis 扣庫存 (Lua 腳本)
-        String key = STOCK_PREFIX + productId;
-        Long result = redisTemplate.execute(stockScript, Collections.singletonList(key));
-        // 2. 模擬 User ID (因為無限購，所以同一個 ID 可以一直買)
-        Long userId = 1000L + new Random().nextInt(19000);
-
-        // ✅ [新功能] Hazelcast 分散式黑名單檢查
-        // IMap 的效能極高，因為它可能直接讀取本機記憶體
-        if (hazelcastService.isBlacklisted(userId)) {
-            // 🔥 發送 Kafka 異步紀錄
-            kafkaService.sendFailureLog(userId, productId, "BLACKLIST_HIT");
-            log.warn("🛑 用戶 {} 在黑名單中，拒絕搶購", userId);
-            return "您的帳號異常，無法參與活動";
-        }
+    public CompletableFuture<String> orderProductAsync(Long productId) {
+        return orderProductAsync(productId, null);
+    }
 
-        if (result != null && result == 1) {
+    public CompletableFuture<String> orderProductAsync(Long productId, Long userId) {
+        Long buyerId = userId != null ? userId : randomUserId();
+        OrderContext context = new OrderContext(productId, buyerId);
 
-            // 3. ✅ 生成全域唯一的訂單編號 (UUID)
-            // 這代表「這一次的點擊行為」，就算 Kafka 重送，這個 UUID 也不會變
-            String orderNo = UUID.randomUUID().toString();
+        // 注意：後續回呼跑在 Lettuce / Kafka 的 I/O 執行緒上，裡面不能做阻塞操作
+        return admissionPipeline.admitAsync(context).thenCompose(admission -> {
+            if (!admission.isAdmitted()) {
+                return CompletableFuture.completedFuture(reject(context, admission));
+            }
 
-            // 4. 發送訊息 (帶入 UUID)
-            kafkaService.sendOrderMessage(productId, userId, orderNo);
+            UUID orderId = context.getOrderId();
+            // 換到 kafkaSendExecutor 送：send() 同步丟出的例外也會變成失敗的 Future，一樣走下面的補回
+            CompletableFuture<?> sent;
+            try {
+                sent = CompletableFuture.supplyAsync(() -> kafkaService.sendOrderMessage(productId, buyerId, orderId), kafkaSendExecutor)
+                        .thenCompose(Function.identity());
+            } catch (RejectedExecutionException e) {
+                sent = CompletableFuture.failedFuture(e);
+            }
+            return sent.thenApply(sendResult -> "搶購成功，訂單處理中...")
+                    .exceptionally(ex -> {
+                        log.error("❌ [Kafka] 訂單 {} 送出失敗，補回庫存", orderId, ex);
+                        admissionPipeline.rollback(context);
+                        return "搶購失敗，系統忙碌中";
+                    });
+        });
+    }
 
-            return "搶購成功，訂單處理中...";
-        } else {
+    // 壓測用：模擬 User ID
+    private static Long randomUserId() {
+        return 1000L + ThreadLocalRandom.current().nextInt(19000);
+    }
+
+    // 被准入關卡擋下：需要的話送 Kafka 失敗日誌，回傳給使用者的訊息
+    private String reject(OrderContext context, AdmissionResult admission) {
+        if (admission.getFailureReason() != null) {
             // 🔥 發送 Kafka 異步紀錄
-            kafkaService.sendFailureLog(userId, productId, "OUT_OF_STOCK");
-            return "搶購失敗，庫存不足";
+            kafkaService.sendFailureLog(context.getUserId(), context.getProductId(), admission.getFailureReason());
         }
+        return admission.getMessage();
+    }
+
+    /**
+     * ZK 鎖搶購，交給 zkOrderExecutor 執行
+     * virtual 模式下 Tomcat 執行緒馬上釋放，等鎖的是虛擬執行緒；platform 模式等同直接呼叫
+     */
+    public CompletableFuture<String> orderProductByZkAsync(Long productId) {
+        return orderProductByZkAsync(productId, null);
+    }
+
+    public CompletableFuture<String> orderProductByZkAsync(Long productId, Long userId) {
+        return CompletableFuture.supplyAsync(() -> orderProductByZk(productId, userId), zkOrderExecutor);
     }
 
     /**
@@ -126,17 +241,38 @@ public class ProductService {
      * 特點：強一致性，但效能比 Redis Lua 差
      */
     public String orderProductByZk(Long productId) {
+        return orderProductByZk(productId, null);
+    }
+
+    /**
+     * @param userId 下單的用戶 (每人每個商品限購一件，在鎖內用 product:buyers:{id} 檢查)；沒帶就隨機產生 (壓測用)
+     */
+    public String orderProductByZk(Long productId, Long userId) {
+        // ZK 鎖內是讀一個 Key 再寫回，不支援拆成多個分片的庫存
+        if (stockKeys.isSharded()) {
+            return "搶購失敗，庫存分片模式不支援 ZK 鎖";
+        }
+        // 已賣完就不用去搶 ZK 鎖了
+        if (soldOutCache.isSoldOut(productId)) {
+            return "搶購失敗，庫存不足";
+        }
+
         String lockPath = "/lock/product/" + productId;
 
-        Long userId = 1000L + new Random().nextInt(19000);
+        if (userId == null) {
+            userId = randomUserId();
+        }
+        OrderContext context = new OrderContext(productId, userId);
 
-        // ✅ [新功能] Hazelcast 分散式黑名單檢查
-        // IMap 的效能極高，因為它可能直接讀取本機記憶體
-        if (hazelcastService.isBlacklisted(userId)) {
-            // 🔥 發送 Kafka 異步紀錄
-            kafkaService.sendFailureLog(userId, productId, "BLACKLIST_HIT");
-            log.warn("🛑 用戶 {} 在黑名單中，拒絕搶購", userId);
-            return "您的帳號異常，無法參與活動";
+        // 扣庫存之前的准入關卡 (商品 ID / 黑名單 / 限流)，庫存在下面的鎖內處理
+        AdmissionResult admission = admissionPipeline.admitBeforeStock(context);
+        if (!admission.isAdmitted()) {
+            return reject(context, admission);
+        }
+
+        // 鎖合併模式：在本機排隊，整批共用一次 ZK 鎖
+        if (zkOrderCoalescer.isEnabled()) {
+            return zkOrderCoalescer.order(productId, userId);
         }
 
         // 1. 定義鎖 (針對該商品 ID)
@@ -145,28 +281,46 @@ public class ProductService {
         try {
             // 2. 嘗試獲取鎖 (最多等 3 秒)
             // 這一行對應 ZK 內部：建立 Ephemeral Sequential Node
-            if (lock.acquire(3, TimeUnit.SECONDS)) {
+            long waitStart = System.nanoTime();
+            boolean acquired = lock.acquire(3, TimeUnit.SECONDS);
+            long holdStart = System.nanoTime();
+            zkLockMetrics.recordWait(holdStart - waitStart, acquired);
+
+            if (acquired) {
                 try {
                     // --- 進入 Critical Section (臨界區) ---
                     // 在這裡面，同一時間只有一個執行緒能執行！
 
                     // A. 查 Redis 庫存 (普通的 get，不需要 Lua)
-                    String stockKey = STOCK_PREFIX + productId;
+                    String stockKey = stockKeys.stock(productId);
                     Object stockObj = redisTemplate.opsForValue().get(stockKey);
                     int stock = stockObj == null ? 0 : Integer.parseInt(stockObj.toString());
 
+                    // 每人限購一件：先佔名額 (跟扣庫存的 Lua 腳本用同一個 Set)，沒貨再還回去
+                    String buyersKey = stockKeys.buyers(productId);
+                    if (onePerUser && stock > 0
+                            && !Long.valueOf(1).equals(stringRedisTemplate.opsForSet().add(buyersKey, userId.toString()))) {
+                        kafkaService.sendFailureLog(userId, productId, "ALREADY_PURCHASED");
+                        return "搶購失敗，每人限購一件";
+                    }
+
                     if (stock > 0) {
                         // B. 扣 Redis 庫存
                         //redisTemplate.opsForValue().set(stockKey, String.valueOf(stock - 1));
                         stringRedisTemplate.opsForValue().set(stockKey, String.valueOf(stock - 1));
                         // C. 發送 Kafka (建立訂單流程)
 
-                        String orderNo = UUID.randomUUID().toString();
-                        kafkaService.sendOrderMessage(productId, userId, orderNo);
+                        // 鎖外的 Kafka 送失敗時由預留的 Reaper 把庫存收回 (有開啟預留時)
+                        UUID orderId = context.getOrderId();
+                        if (stockReservationService.isEnabled()) {
+                            stockReservationService.reserve(productId, userId, orderId.toString());
+                        }
+                        kafkaService.sendOrderMessage(productId, userId, orderId);
 
                         log.info("✅ [ZK鎖] 搶購成功，剩餘庫存: {}", (stock - 1));
                         return "搶購成功 (ZK Lock)";
                     } else {
+                        soldOutCache.markSoldOut(productId);
                         log.warn("❌ [ZK鎖] 庫存不足");
                         return "搶購失敗，庫存不足";
                     }
@@ -174,6 +328,7 @@ public class ProductService {
                 } finally {
                     // 3. 務必釋放鎖！(對應 ZK 內部：刪除節點)
                     lock.release();
+                    zkLockMetrics.recordHold(System.nanoTime() - holdStart);
                 }
             } else {
                 // 獲取鎖失敗 (超時)
@@ -0,0 +1,40 @@
+package com.example.flashsale.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本機售罄旗標 (Node-local Sold-out Flag)
+ * 商品一旦被 Lua 腳本判定為 0 (賣完)，之後的請求直接在 JVM 內擋掉，不再打 Redis
+ * 補貨 / 同步庫存時，由 HazelcastService 廣播到所有節點清除旗標
+ */
+@Component
+@Slf4j
+public class SoldOutCache {
+
+    private final Set<Long> soldOutProducts = ConcurrentHashMap.newKeySet();
+
+    public boolean isSoldOut(Long productId) {
+        return soldOutProducts.contains(productId);
+    }
+
+    public void markSoldOut(Long productId) {
+        if (soldOutProducts.add(productId)) {
+            log.info("🈵 [售罄旗標] 商品 {} 已賣完，本機之後直接拒絕", productId);
+        }
+    }
+
+    public void clear(Long productId) {
+        if (soldOutProducts.remove(productId)) {
+            log.info("♻️ [售罄旗標] 商品 {} 已補貨，清除旗標", productId);
+        }
+    }
+
+    public void clearAll() {
+        soldOutProducts.clear();
+        log.info("♻️ [售罄旗標] 已清除本機所有售罄旗標");
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.flashsale.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 庫存相關的 Redis Key
+ * {...} 是 Hash Tag：Tag 相同的 Key 會落在同一個 Redis Cluster slot，Lua 腳本才能一次操作多個 Key
+ * - 預設每個商品一個 Tag：product:stock:{1}、product:buyers:{1} (不同商品分散到不同節點)
+ * - 設定 flash-sale.stock.hash-tag 後整場活動共用一個 Tag：product:stock:{sale}:1
+ *   購物車結帳要在一個腳本裡扣多個商品，Cluster 模式下必須這樣設定
+ * - 設定 flash-sale.stock.shards = K (> 1) 後每個商品的庫存拆成 K 份：product:stock:{1:0} ~ product:stock:{1:K-1}
+ *   分片編號放在 Hash Tag 裡面，K 份庫存才會落在不同 slot (不同 Redis 節點 / 執行緒)
+ *   購買名單跟著分片走 (product:buyers:{1:0})，用戶固定對應到自己的主分片 (見 homeShard)
+ */
+@Component
+@Slf4j
+public class StockKeys {
+
+    private final String saleTag;
+    private final int shards;
+
+    public StockKeys(@Value("${flash-sale.stock.hash-tag:}") String saleTag,
+                     @Value("${flash-sale.stock.shards:1}") int shards) {
+        this.saleTag = saleTag == null || saleTag.isBlank() ? null : "{" + saleTag.trim() + "}:";
+        if (this.saleTag != null && shards > 1) {
+            // 整場活動同一個 slot 時分片沒有意義 (全部還是打到同一個節點)
+            log.warn("⚠️ [庫存 Key] 已設定 hash-tag，忽略 shards = {}", shards);
+            this.shards = 1;
+        } else {
+            this.shards = Math.max(shards, 1);
+        }
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    public boolean isSharded() {
+        return shards > 1;
+    }
+
+    // 剩餘庫存 (String，數字)；分片模式下是第 0 個分片
+    public String stock(Long productId) {
+        return stock(productId, 0);
+    }
+
+    public String stock(Long productId, int shard) {
+        return "product:stock:" + tag(productId, shard);
+    }
+
+    // 已購買的用戶 (Set，限購用)；分片模式下是第 0 個分片
+    public String buyers(Long productId) {
+        return buyers(productId, 0);
+    }
+
+    public String buyers(Long productId, int shard) {
+        return "product:buyers:" + tag(productId, shard);
+    }
+
+    // 預留中的訂單 (Sorted Set，score = 到期時間)；跟庫存同一個 slot，扣庫存的腳本才能一起寫入
+    public String reservations(Long productId, int shard) {
+        return "product:reservations:" + tag(productId, shard);
+    }
+
+    // 是否整場活動共用一個 slot (購物車可以跨商品結帳)
+    public boolean isSaleWide() {
+        return saleTag != null;
+    }
+
+    /**
+     * 用戶的主分片：同一個用戶永遠落在同一個分片，限購名單才查得到
+     * 先把 userId 打散再取餘數，連號的用戶也能平均分到各分片
+     */
+    public int homeShard(Long userId) {
+        if (shards == 1) {
+            return 0;
+        }
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(h ^ (h >>> 32), (long) shards);
+    }
+
+    private String tag(Long productId, int shard) {
+        if (saleTag != null) {
+            return saleTag + productId;
+        }
+        return shards == 1 ? "{" + productId + "}" : "{" + productId + ":" + shard + "}";
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.flashsale.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 【節點批次租借庫存 (Lease Mode)】
+ * 每個節點一次從 Redis 租 N 個庫存放在本機，用無鎖計數器 (CAS) 發給請求
+ * Redis 呼叫次數：一單一次 -> 一個區塊一次
+ *
+ * 防超賣：庫存先從 Redis 扣掉才會進到本機，本機只發手上有的，所以總數不會超過 Redis 的庫存
+ * 代價：節點當機時手上沒用完的租約會遺失 (少賣，不會多賣)
+ */
+@Component
+@Slf4j
+public class StockLeaseManager {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScript<Long> stockLeaseScript;
+    private final HazelcastService hazelcastService;
+    private final StockKeys stockKeys;
+
+    // direct: 每單打一次 Lua (預設) / lease: 批次租借
+    private final boolean enabled;
+    private final long leaseSize;
+    private final long idleTimeoutMillis;
+
+    private final Map<Long, LeaseBucket> buckets = new ConcurrentHashMap<>();
+
+    public StockLeaseManager(StringRedisTemplate stringRedisTemplate,
+                             RedisScript<Long> stockLeaseScript,
+                             HazelcastService hazelcastService,
+                             StockKeys stockKeys,
+                             @Value("${flash-sale.stock.allocation-mode:direct}") String allocationMode,
+                             @Value("${flash-sale.stock.lease-size:50}") long leaseSize,
+                             @Value("${flash-sale.stock.lease-idle-timeout-ms:30000}") long idleTimeoutMillis) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.stockLeaseScript = stockLeaseScript;
+        this.hazelcastService = hazelcastService;
+        this.stockKeys = stockKeys;
+        this.enabled = "lease".equalsIgnoreCase(allocationMode);
+        this.leaseSize = leaseSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 取得 1 個庫存
+     * 快速路徑：本機計數器 CAS 扣 1，不碰網路
+     * 本機用完時：只讓一個執行緒去 Redis 租下一個區塊，其他人等它回來
+     * @return 這個庫存來自哪個租約 (歸還時要還給同一個)；拿不到回傳 null
+     */
+    public LeaseBucket acquire(Long productId) {
+        LeaseBucket bucket = buckets.computeIfAbsent(productId, id -> new LeaseBucket());
+        while (true) {
+            if (bucket.tryTake()) {
+                return bucket;
+            }
+            synchronized (bucket) {
+                // 租約已經被 discard 掉：改用新的區塊，不能再往舊的裡面補貨
+                if (bucket.discarded) {
+                    bucket = buckets.computeIfAbsent(productId, id -> new LeaseBucket());
+                    continue;
+                }
+                // Double check：可能別的執行緒剛補完貨
+                if (bucket.remaining.get() > 0) {
+                    continue;
+                }
+                long granted = lease(productId);
+                if (granted <= 0) {
+                    return null; // Redis 也沒貨了
+                }
+                bucket.remaining.addAndGet(granted);
+            }
+        }
+    }
+
+    public boolean tryAcquire(Long productId) {
+        return acquire(productId) != null;
+    }
+
+    /**
+     * 歸還 1 個已取得但沒用到的庫存 (例如後面的檢查又拒絕了這筆請求)
+     * 只還給原本的租約：那個租約已經被 discard (庫存被覆寫) 的話這個庫存也不算數了，直接丟掉，
+     * 還到新的區塊會多出一個 (超賣)
+     */
+    public void release(LeaseBucket bucket) {
+        if (bucket == null) {
+            return;
+        }
+        synchronized (bucket) {
+            if (!bucket.discarded) {
+                bucket.remaining.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Redis 庫存被覆寫 (補貨 / 同步) 時呼叫
+     * 本機手上的租約已經不算數了，直接丟掉，不能再還回 Redis (否則會多出庫存)
+     * 除了移出 Map，還要把區塊作廢：已經拿到舊區塊參考的執行緒不能再從裡面發貨
+     */
+    public void discard(Long productId) {
+        if (productId == null) {
+            buckets.keySet().forEach(id -> invalidate(buckets.remove(id)));
+        } else {
+            invalidate(buckets.remove(productId));
+        }
+    }
+
+    private void invalidate(LeaseBucket bucket) {
+        if (bucket == null) {
+            return;
+        }
+        synchronized (bucket) {
+            bucket.discarded = true;
+            bucket.remaining.set(0);
+        }
+    }
+
+    /**
+     * 定期把閒置太久的租約還回 Redis，避免庫存卡在某個節點上賣不掉
+     */
+    @Scheduled(fixedDelayString = "${flash-sale.stock.lease-idle-timeout-ms:30000}")
+    public void returnIdleLeases() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        buckets.forEach((productId, bucket) -> {
+            if (now - bucket.lastActivity > idleTimeoutMillis) {
+                returnLease(productId, bucket);
+            }
+        });
+    }
+
+    /**
+     * 節點關機時把手上的租約全部還回去
+     */
+    @PreDestroy
+    public void returnAllLeases() {
+        buckets.forEach(this::returnLease);
+    }
+
+    // 分片模式下從隨機的分片開始租，該分片沒貨再換下一個，避免所有節點都擠在同一個分片上
+    private long lease(Long productId) {
+        int shards = stockKeys.shards();
+        int start = shards == 1 ? 0 : ThreadLocalRandom.current().nextInt(shards);
+        for (int i = 0; i < shards; i++) {
+            int shard = (start + i) % shards;
+            Long granted = stringRedisTemplate.execute(stockLeaseScript,
+                    Collections.singletonList(stockKeys.stock(productId, shard)), String.valueOf(leaseSize));
+            if (granted != null && granted > 0) {
+                log.debug("📦 [租借庫存] 商品 {} 向 Redis 分片 {} 租到 {} 個", productId, shard, granted);
+                return granted;
+            }
+        }
+        return 0;
+    }
+
+    private void returnLease(Long productId, LeaseBucket bucket) {
+        long unused;
+        synchronized (bucket) {
+            unused = bucket.remaining.getAndSet(0);
+        }
+        if (unused <= 0) {
+            return;
+        }
+        try {
+            // 還到隨機的分片 (總數不變，分片之間不平均時由 StockShardManager.rebalance 重新分配)
+            int shard = stockKeys.isSharded() ? ThreadLocalRandom.current().nextInt(stockKeys.shards()) : 0;
+            stringRedisTemplate.opsForValue().increment(stockKeys.stock(productId, shard), unused);
+            // 其他節點可能已經立了售罄旗標，通知它們這批庫存回來了
+            hazelcastService.broadcastStockReturned(productId);
+            log.info("↩️ [租借庫存] 商品 {} 歸還 {} 個未用完的庫存", productId, unused);
+        } catch (Exception e) {
+            log.error("❌ [租借庫存] 商品 {} 歸還 {} 個庫存失敗", productId, unused, e);
+        }
+    }
+
+    // 單一商品在本機的租約 (欄位只給本類別用，外面只拿來當歸還時的憑證)
+    public static class LeaseBucket {
+        final AtomicLong remaining = new AtomicLong();
+        volatile long lastActivity = System.currentTimeMillis();
+        // 被 discard 之後就不再發貨 (remaining 也會歸零)
+        volatile boolean discarded;
+
+        boolean tryTake() {
+            long current;
+            do {
+                if (discarded) {
+                    return false;
+                }
+                current = remaining.get();
+                if (current <= 0) {
+                    return false;
+                }
+            } while (!remaining.compareAndSet(current, current - 1));
+            lastActivity = System.currentTimeMillis();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.repository.ProductRepository;
+import com.example.flashsale.repository.ProductRepository.StockView;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 【Redis / MySQL 庫存對帳】(取代手動 sync-stock 整份覆寫)
+ *
+ * Redis 永遠領先 MySQL：已經扣了 Redis、還在 Kafka 排隊 (或預留中) 的訂單，MySQL 還沒扣
+ * 所以正確的關係是：Redis 剩餘 = MySQL 剩餘 - 處理中的訂單數，直接用 MySQL 覆寫會把賣掉的庫存變回來
+ *
+ * 處理中的訂單數怎麼算：
+ * - 開啟預留 (flash-sale.reservation.enabled)：每個商品預留 Sorted Set 的 ZCARD，精確到商品
+ * - 沒開預留：只知道 Kafka 的總 Lag，Lag > 0 時這輪直接跳過 (不確定就不動)
+ * 偏差要連續兩輪一樣才修正，避開「MySQL 已 Commit、預留還沒移除」這種一瞬間的落差
+ * (上一輪的偏差存在 Redis：每輪搶到鎖的節點不一定是同一個)
+ * 購物車訂單沒有預留：開預留時 Kafka 還有訂單排隊，Redis 偏少可能只是購物車訂單還沒寫進 MySQL，這時不補庫存
+ *
+ * 商品依 ID 分頁串流 (Keyset)，一頁一個 Pipeline 讀、一個 Pipeline 修，記憶體只放一頁
+ * 修正用增量 (INCRBY / 租借腳本扣減)，不用 SET，對帳途中進來的訂單不會被覆蓋掉
+ * 多個節點用 Redis 鎖確保同一時間只有一個在對帳
+ * 租約模式下庫存散在各節點本機，Redis 看不到全貌，不對帳
+ */
+@Component
+@Slf4j
+public class StockReconciler {
+
+    private static final String LOCK_KEY = "stock:reconcile:lock";
+    // 上一輪發現偏差的商品 -> 偏差量 (只放有偏差的，數量很少)
+    private static final String PENDING_KEY = "stock:reconcile:pending";
+
+    private final ProductRepository productRepository;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScript<Long> stockLeaseScript;
+    private final StockKeys stockKeys;
+    private final StockShardManager stockShardManager;
+    private final StockReservationService stockReservationService;
+    private final StockLeaseManager stockLeaseManager;
+    private final OrderLagProbe orderLagProbe;
+    private final HazelcastService hazelcastService;
+
+    private final boolean enabled;
+    private final int pageSize;
+    // 對帳鎖的存活時間 (要比一輪對帳長，節點當機時鎖會自己過期)
+    private final long lockTtlMillis;
+    // 上一輪的偏差多久沒更新就不算數 (中間跳過太多輪就重新觀察)
+    private final Duration pendingTtl;
+
+    private final Timer completedTimer;
+    private final Timer skippedTimer;
+    private final DistributionSummary driftSummary;
+    private final Counter correctedCounter;
+
+    public StockReconciler(ProductRepository productRepository,
+                           StringRedisTemplate stringRedisTemplate,
+                           RedisScript<Long> stockLeaseScript,
+                           StockKeys stockKeys,
+                           StockShardManager stockShardManager,
+                           StockReservationService stockReservationService,
+                           StockLeaseManager stockLeaseManager,
+                           OrderLagProbe orderLagProbe,
+                           HazelcastService hazelcastService,
+                           MeterRegistry meterRegistry,
+                           @Value("${flash-sale.reconcile.enabled:true}") boolean enabled,
+                           @Value("${flash-sale.reconcile.page-size:1000}") int pageSize,
+                           @Value("${flash-sale.reconcile.lock-ttl-ms:300000}") long lockTtlMillis,
+                           @Value("${flash-sale.reconcile.interval-ms:60000}") long intervalMillis) {
+        this.productRepository = productRepository;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.stockLeaseScript = stockLeaseScript;
+        this.stockKeys = stockKeys;
+        this.stockShardManager = stockShardManager;
+        this.stockReservationService = stockReservationService;
+        this.stockLeaseManager = stockLeaseManager;
+        this.orderLagProbe = orderLagProbe;
+        this.hazelcastService = hazelcastService;
+        this.enabled = enabled;
+        this.pageSize = pageSize;
+        this.lockTtlMillis = lockTtlMillis;
+        this.pendingTtl = Duration.ofMillis(intervalMillis * 3);
+        this.completedTimer = passTimer(meterRegistry, "completed");
+        this.skippedTimer = passTimer(meterRegistry, "skipped");
+        this.driftSummary = DistributionSummary.builder("flashsale.stock.reconcile.drift")
+                .description("每個有偏差的商品偏了幾個庫存 (絕對值)")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.correctedCounter = Counter.builder("flashsale.stock.reconcile.corrected")
+                .description("對帳修正的商品數")
+                .register(meterRegistry);
+    }
+
+    private static Timer passTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("flashsale.stock.reconcile.duration")
+                .description("每輪對帳花費的時間")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${flash-sale.reconcile.interval-ms:60000}",
+            fixedDelayString = "${flash-sale.reconcile.interval-ms:60000}")
+    public void scheduledReconcile() {
+        if (enabled) {
+            reconcile();
+        }
+    }
+
+    /**
+     * 跑一輪對帳 (排程 / 管理員手動觸發共用)
+     */
+    public ReconcileReport reconcile() {
+        long start = System.nanoTime();
+        String skipReason = skipReason();
+        if (skipReason != null) {
+            return skipped(start, skipReason);
+        }
+
+        String owner = UUID.randomUUID().toString();
+        if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(LOCK_KEY, owner, Duration.ofMillis(lockTtlMillis)))) {
+            return skipped(start, "其他節點正在對帳");
+        }
+        try {
+            ReconcileReport report = reconcileAll(start);
+            completedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            log.info("🔍 [對帳] 掃描 {} 個商品，{} 個有偏差，修正 {} 個 (共 {} 個庫存)，耗時 {} ms",
+                    report.scanned(), report.drifted(), report.corrected(), report.unitsCorrected(), report.tookMillis());
+            return report;
+        } finally {
+            // 只刪自己的鎖 (鎖過期後可能已經被別的節點拿走)
+            if (owner.equals(stringRedisTemplate.opsForValue().get(LOCK_KEY))) {
+                stringRedisTemplate.delete(LOCK_KEY);
+            }
+        }
+    }
+
+    private String skipReason() {
+        if (stockLeaseManager.isEnabled()) {
+            return "租約模式下庫存散在各節點，不對帳";
+        }
+        if (!stockReservationService.isEnabled()) {
+            long lag = orderLagProbe.totalLag();
+            if (lag != 0) {
+                // 沒有預留就不知道哪個商品有訂單在排隊，等 Kafka 消化完再對
+                return lag < 0 ? "查不到 Kafka Lag" : "Kafka 還有 " + lag + " 筆訂單排隊中";
+            }
+        }
+        return null;
+    }
+
+    private ReconcileReport skipped(long start, String reason) {
+        skippedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.info("⏭️ [對帳] 跳過本輪：{}", reason);
+        return new ReconcileReport(0, 0, 0, 0, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), reason);
+    }
+
+    private ReconcileReport reconcileAll(long start) {
+        // 沒開預留時 skipReason 已經確認過 Lag = 0
+        boolean ordersQueued = stockReservationService.isEnabled() && orderLagProbe.totalLag() != 0;
+        long scanned = 0;
+        long drifted = 0;
+        long corrected = 0;
+        long units = 0;
+        long afterId = 0;
+        while (true) {
+            List<StockView> page = productRepository.findStockAfter(afterId, PageRequest.of(0, pageSize));
+            if (page.isEmpty()) {
+                break;
+            }
+            List<Correction> corrections = new ArrayList<>();
+            Map<Long, Long> pending = new HashMap<>();
+            List<Long> resolved = new ArrayList<>();
+            List<Drift> drifts = drifts(page);
+            for (int i = 0; i < page.size(); i++) {
+                Long productId = page.get(i).getId();
+                Drift drift = drifts.get(i);
+                if (drift.current() == 0) {
+                    if (drift.previous() != null) {
+                        resolved.add(productId);
+                    }
+                    continue;
+                }
+                drifted++;
+                driftSummary.record(Math.abs(drift.current()));
+                // 連續兩輪偏差一樣才修 (第一次看到先記下來)
+                if (drift.previous() == null || drift.previous() != drift.current()) {
+                    pending.put(productId, drift.current());
+                } else if (drift.current() < 0 && ordersQueued) {
+                    // Redis 偏少可能是還在排隊的購物車訂單 (沒有預留，算不進處理中)，留到下一輪再確認
+                    log.debug("⏸️ [對帳] 商品 {} 少了 {} 個，Kafka 還有訂單排隊，先不補", productId, -drift.current());
+                } else {
+                    resolved.add(productId);
+                    corrections.add(new Correction(productId, -drift.current()));
+                }
+            }
+            units += correct(corrections);
+            savePending(pending, resolved);
+            corrected += corrections.size();
+            scanned += page.size();
+            afterId = page.get(page.size() - 1).getId();
+        }
+        correctedCounter.increment(corrected);
+        return new ReconcileReport(scanned, drifted, corrected, units,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), null);
+    }
+
+    /**
+     * 一個 Pipeline 讀回整頁商品的 Redis 庫存 (所有分片)、預留數和上一輪記下的偏差
+     * 偏差 = Redis 剩餘 - (MySQL 剩餘 - 處理中的訂單數)；正數 = Redis 多了 (會超賣)
+     */
+    private List<Drift> drifts(List<StockView> page) {
+        int shards = stockKeys.shards();
+        boolean reservations = stockReservationService.isEnabled();
+        byte[] pendingKey = bytes(PENDING_KEY);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (StockView product : page) {
+                for (int shard = 0; shard < shards; shard++) {
+                    connection.stringCommands().get(bytes(stockKeys.stock(product.getId(), shard)));
+                    if (reservations) {
+                        connection.zSetCommands().zCard(bytes(stockKeys.reservations(product.getId(), shard)));
+                    }
+                }
+                connection.hashCommands().hGet(pendingKey, bytes(String.valueOf(product.getId())));
+            }
+            return null;
+        });
+
+        List<Drift> drifts = new ArrayList<>(page.size());
+        int cursor = 0;
+        for (StockView product : page) {
+            long redisStock = 0;
+            long inFlight = 0;
+            for (int shard = 0; shard < shards; shard++) {
+                Object stock = results.get(cursor++);
+                redisStock += stock == null ? 0 : Long.parseLong(stock.toString());
+                if (reservations) {
+                    Object reserved = results.get(cursor++);
+                    inFlight += reserved == null ? 0 : ((Number) reserved).longValue();
+                }
+            }
+            Object previous = results.get(cursor++);
+            long mysqlStock = product.getStock() == null ? 0 : product.getStock();
+            drifts.add(new Drift(redisStock - (mysqlStock - inFlight),
+                    previous == null ? null : Long.valueOf(previous.toString())));
+        }
+        return drifts;
+    }
+
+    // 這一頁新記下的偏差 / 已經沒偏差或修好的商品，一個 Pipeline 寫回 Redis
+    private void savePending(Map<Long, Long> pending, List<Long> resolved) {
+        if (pending.isEmpty() && resolved.isEmpty()) {
+            return;
+        }
+        byte[] pendingKey = bytes(PENDING_KEY);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            if (!resolved.isEmpty()) {
+                connection.hashCommands().hDel(pendingKey,
+                        resolved.stream().map(id -> bytes(String.valueOf(id))).toArray(byte[][]::new));
+            }
+            if (!pending.isEmpty()) {
+                Map<byte[], byte[]> entries = new HashMap<>();
+                pending.forEach((id, drift) -> entries.put(bytes(String.valueOf(id)), bytes(String.valueOf(drift))));
+                connection.hashCommands().hMSet(pendingKey, entries);
+                connection.keyCommands().pExpire(pendingKey, pendingTtl.toMillis());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 補庫存用 INCRBY，扣庫存用租借腳本 (不會扣成負數)，整頁一個 Pipeline
+     * 分片模式下要扣的話要逐個分片扣，不進 Pipeline
+     * @return 實際修正的庫存數 (絕對值加總)
+     */
+    private long correct(List<Correction> corrections) {
+        if (corrections.isEmpty()) {
+            return 0;
+        }
+        byte[] leaseScript = bytes(stockLeaseScript.getScriptAsString());
+        List<Correction> shardedTakes = new ArrayList<>();
+        List<Correction> pipelined = new ArrayList<>();
+        for (Correction correction : corrections) {
+            if (correction.delta() < 0 && stockKeys.isSharded()) {
+                shardedTakes.add(correction);
+            } else {
+                pipelined.add(correction);
+            }
+        }
+
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Correction correction : pipelined) {
+                byte[] key = bytes(stockKeys.stock(correction.productId()));
+                if (correction.delta() > 0) {
+                    connection.stringCommands().incrBy(key, correction.delta());
+                } else {
+                    connection.scriptingCommands().eval(leaseScript, ReturnType.INTEGER, 1,
+                            key, bytes(String.valueOf(-correction.delta())));
+                }
+            }
+            return null;
+        });
+
+        long units = 0;
+        for (int i = 0; i < pipelined.size(); i++) {
+            Correction correction = pipelined.get(i);
+            units += correction.delta() > 0 ? correction.delta() : ((Number) results.get(i)).longValue();
+            log.warn("🛠️ [對帳] 商品 {} Redis 庫存修正 {}", correction.productId(), correction.delta());
+            if (correction.delta() > 0) {
+                // 可能已經被判定售罄，通知所有節點庫存回來了
+                hazelcastService.broadcastStockReturned(correction.productId());
+            }
+        }
+        for (Correction correction : shardedTakes) {
+            units += stockShardManager.take(correction.productId(), -correction.delta());
+            log.warn("🛠️ [對帳] 商品 {} Redis 庫存修正 {}", correction.productId(), correction.delta());
+        }
+        return units;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private record Correction(Long productId, long delta) {
+    }
+
+    /**
+     * @param previous 上一輪記下的偏差；null = 上一輪沒有偏差
+     */
+    private record Drift(long current, Long previous) {
+    }
+
+    /**
+     * @param skipReason 跳過本輪的原因；null = 有完整跑完
+     */
+    public record ReconcileReport(long scanned, long drifted, long corrected, long unitsCorrected,
+                                  long tookMillis, String skipReason) {
+    }
+}
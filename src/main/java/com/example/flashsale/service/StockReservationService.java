@@ -0,0 +1,338 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.model.Order;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 【庫存預留 (Reservation)】
+ * 庫存狀態：可賣 (product:stock) -> 預留 (product:reservations) -> 賣出 (MySQL 訂單)
+ * - 扣庫存時同一個 Lua 腳本把訂單記進預留的 Sorted Set，score = 到期時間
+ * - Consumer 寫 MySQL 前先延長預留 (還在才寫)，Commit 後把預留移除 = 賣出
+ * - Kafka 送不出去 / Consumer 一直寫不進去時，Reaper 定期把過期的預留整批還回可賣
+ *
+ * Reaper 不掃描整個集合：Sorted Set 依到期時間排序，每次只讀最前面已過期的一段 (ZRANGEBYSCORE + LIMIT)
+ * 有預留的 Sorted Set 記在 product:reservations:due (Sorted Set，score = 這個 Key 下次要檢查的時間)，
+ * Reaper 只處理 score <= 現在的 Key：沒有預留的 Key 每 ttl-ms 才檢查一次，不會每秒把所有 Key 跑一遍
+ * 同一時間只有一個節點在收 (Redis 鎖)
+ * 購物車訂單不走預留 (整車扣在同一個腳本裡，Kafka 送失敗時當場補回)
+ */
+@Component
+@Slf4j
+public class StockReservationService {
+
+    // 有預留的 Sorted Set 清單 (成員：商品 ID:分片，score：下次要檢查的時間)
+    static final String DUE_KEY = "product:reservations:due";
+    private static final String REAP_LOCK_KEY = "product:reservations:reap:lock";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+    private final RedisScript<Long> reservationReleaseScript;
+    private final RedisScript<Long> reservationReapScript;
+    private final StockKeys stockKeys;
+    private final HazelcastService hazelcastService;
+    private final Counter reapedCounter;
+
+    private final boolean enabled;
+    // 預留多久沒被確認就收回 (涵蓋 Kafka 送出 + Consumer 寫入的時間)
+    private final long ttlMillis;
+    // Consumer 開始寫 MySQL 時把預留延長這麼久，寫入途中不會被 Reaper 收走
+    private final long confirmGraceMillis;
+    // Reaper 每次腳本最多收幾筆
+    private final int reapBatchSize;
+    // Reaper 鎖的存活時間 (節點當機時鎖會自己過期，其他節點接手)
+    private final long reapLockTtlMillis;
+    private final boolean onePerUser;
+
+    // 本節點已登記過的 Sorted Set，只有第一次需要 SADD 到 index
+    private final Set<String> registered = ConcurrentHashMap.newKeySet();
+
+    public StockReservationService(StringRedisTemplate stringRedisTemplate,
+                                   ReactiveStringRedisTemplate reactiveStringRedisTemplate,
+                                   RedisScript<Long> reservationReleaseScript,
+                                   RedisScript<Long> reservationReapScript,
+                                   StockKeys stockKeys,
+                                   HazelcastService hazelcastService,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${flash-sale.reservation.enabled:false}") boolean enabled,
+                                   @Value("${flash-sale.reservation.ttl-ms:60000}") long ttlMillis,
+                                   @Value("${flash-sale.reservation.confirm-grace-ms:300000}") long confirmGraceMillis,
+                                   @Value("${flash-sale.reservation.reap-batch-size:500}") int reapBatchSize,
+                                   @Value("${flash-sale.reservation.reap-lock-ttl-ms:30000}") long reapLockTtlMillis,
+                                   @Value("${flash-sale.order.one-per-user:true}") boolean onePerUser) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.reactiveStringRedisTemplate = reactiveStringRedisTemplate;
+        this.reservationReleaseScript = reservationReleaseScript;
+        this.reservationReapScript = reservationReapScript;
+        this.stockKeys = stockKeys;
+        this.hazelcastService = hazelcastService;
+        this.reapedCounter = Counter.builder("flashsale.reservation.reaped")
+                .description("逾時被收回的預留數")
+                .register(meterRegistry);
+        this.enabled = enabled;
+        this.ttlMillis = ttlMillis;
+        this.confirmGraceMillis = confirmGraceMillis;
+        this.reapBatchSize = reapBatchSize;
+        this.reapLockTtlMillis = reapLockTtlMillis;
+        this.onePerUser = onePerUser;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // 預留成員：訂單編號:userId (Reaper 從這裡拿回 userId 歸還限購名額)
+    public static String member(String orderNo, Long userId) {
+        return orderNo + ":" + userId;
+    }
+
+    // 預留一律記在用戶主分片的 Sorted Set (跟購買名單同一個 slot)
+    public String key(Long productId, Long userId) {
+        return stockKeys.reservations(productId, stockKeys.homeShard(userId));
+    }
+
+    public long deadline() {
+        return System.currentTimeMillis() + ttlMillis;
+    }
+
+    /**
+     * 把這個 Sorted Set 登記到 due，Reaper 才找得到
+     * 每個節點每個 Key 只登記一次 (ZADD NX)：已經登記過的 Key 排定的檢查時間一定不晚於新預留的到期時間 (見 reschedule)
+     */
+    public void register(Long productId, Long userId) {
+        String entry = productId + ":" + stockKeys.homeShard(userId);
+        if (registered.add(entry)) {
+            stringRedisTemplate.opsForZSet().addIfAbsent(DUE_KEY, entry, deadline());
+        }
+    }
+
+    /**
+     * 庫存不是在扣庫存腳本裡扣的 (租約 / 其他分片 / ZK 鎖)，另外補記預留
+     */
+    public void reserve(Long productId, Long userId, String orderNo) {
+        register(productId, userId);
+        stringRedisTemplate.opsForZSet().add(key(productId, userId), member(orderNo, userId), deadline());
+    }
+
+    /**
+     * 訂單沒成立：把預留還回可賣 (同一個腳本，已經被 Reaper 收走就不會重複歸還)
+     */
+    public Mono<Boolean> release(Long productId, Long userId, String orderNo) {
+        int shard = stockKeys.homeShard(userId);
+        List<String> keys = onePerUser
+                ? List.of(stockKeys.reservations(productId, shard), stockKeys.stock(productId, shard), stockKeys.buyers(productId, shard))
+                : List.of(stockKeys.reservations(productId, shard), stockKeys.stock(productId, shard));
+        return reactiveStringRedisTemplate.execute(reservationReleaseScript, keys, List.of(member(orderNo, userId), String.valueOf(userId)))
+                .next()
+                .map(released -> released == 1);
+    }
+
+    /**
+     * 只移除預留，不動 Redis 庫存 (租約模式的庫存要還給本機，由呼叫端處理)
+     * @return true = 預留還在並已移除
+     */
+    public Mono<Boolean> forget(Long productId, Long userId, String orderNo) {
+        return reactiveStringRedisTemplate.opsForZSet().remove(key(productId, userId), member(orderNo, userId))
+                .map(removed -> removed > 0);
+    }
+
+    /**
+     * Consumer 寫 MySQL 前呼叫：預留還在就延長到期時間 (ZADD XX)
+     * @return false = 預留已經過期被收回 (庫存已經還回去了)，這筆訂單不能再成立
+     */
+    public boolean hold(Long productId, Long userId, String orderNo) {
+        if (!enabled) {
+            return true;
+        }
+        byte[] key = bytes(key(productId, userId));
+        byte[] value = bytes(member(orderNo, userId));
+        double score = System.currentTimeMillis() + confirmGraceMillis;
+        Boolean held = stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.zSetCommands().zAdd(key, score, value, RedisZSetCommands.ZAddArgs.ifExists().ch()));
+        return Boolean.TRUE.equals(held);
+    }
+
+    /**
+     * 批次版：一個 Pipeline 延長整批的預留
+     * @return 預留已經不在的訂單
+     */
+    public List<Order> holdAll(List<Order> orders) {
+        if (!enabled || orders.isEmpty()) {
+            return List.of();
+        }
+        double score = System.currentTimeMillis() + confirmGraceMillis;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Order order : orders) {
+                connection.zSetCommands().zAdd(
+                        bytes(key(order.getProductId(), order.getUserId())), score,
+                        bytes(member(order.getOrderNo(), order.getUserId())),
+                        RedisZSetCommands.ZAddArgs.ifExists().ch());
+            }
+            return null;
+        });
+        List<Order> expired = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            if (!Boolean.TRUE.equals(results.get(i))) {
+                expired.add(orders.get(i));
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * 訂單已經寫進 MySQL：移除預留 (預留 -> 賣出)
+     * 在 Transaction 裡呼叫時等 Commit 之後才移除，Rollback 的話預留留著，重送時還能再 hold
+     */
+    public void confirm(Long productId, Long userId, String orderNo) {
+        confirmAll(List.of(new Confirmation(productId, userId, orderNo)));
+    }
+
+    public void confirmOrders(List<Order> orders) {
+        confirmAll(orders.stream().map(order -> new Confirmation(order.getProductId(), order.getUserId(), order.getOrderNo())).toList());
+    }
+
+    private void confirmAll(List<Confirmation> confirmations) {
+        if (!enabled || confirmations.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    removeAll(confirmations);
+                }
+            });
+        } else {
+            removeAll(confirmations);
+        }
+    }
+
+    private void removeAll(List<Confirmation> confirmations) {
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Confirmation c : confirmations) {
+                    connection.zSetCommands().zRem(bytes(key(c.productId(), c.userId())), bytes(member(c.orderNo(), c.userId())));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 移除失敗只會讓預留多留到 confirm-grace 之後被收回 (少賣)，訂單本身已經成立
+            log.error("❌ [預留] {} 筆訂單確認失敗", confirmations.size(), e);
+        }
+    }
+
+    /**
+     * 【Reaper】定期收回過期的預留
+     * 只處理排定檢查時間已到的 Key；每個 Sorted Set 一次收一批，收滿一批代表可能還有，繼續收到不滿為止
+     * 腳本是原子的，同一筆預留只會被收一次；用鎖只是避免每個節點都重跑一遍
+     */
+    @Scheduled(fixedDelayString = "${flash-sale.reservation.reap-interval-ms:1000}")
+    public void reap() {
+        if (!enabled) {
+            return;
+        }
+        String owner = UUID.randomUUID().toString();
+        if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                .setIfAbsent(REAP_LOCK_KEY, owner, Duration.ofMillis(reapLockTtlMillis)))) {
+            return;
+        }
+        try {
+            reapDue(System.currentTimeMillis());
+        } finally {
+            // 只刪自己的鎖 (鎖過期後可能已經被別的節點拿走)
+            if (owner.equals(stringRedisTemplate.opsForValue().get(REAP_LOCK_KEY))) {
+                stringRedisTemplate.delete(REAP_LOCK_KEY);
+            }
+        }
+    }
+
+    private void reapDue(long nowMillis) {
+        Set<String> entries = stringRedisTemplate.opsForZSet().rangeByScore(DUE_KEY, Double.NEGATIVE_INFINITY, nowMillis);
+        if (entries == null || entries.isEmpty()) {
+            return;
+        }
+        String now = String.valueOf(nowMillis);
+        long total = 0;
+        for (String entry : entries) {
+            int separator = entry.lastIndexOf(':');
+            Long productId = Long.valueOf(entry.substring(0, separator));
+            int shard = Integer.parseInt(entry.substring(separator + 1));
+            try {
+                long reaped = reap(productId, shard, now);
+                if (reaped > 0) {
+                    // 其他節點可能已經立了售罄旗標，通知它們庫存回來了
+                    hazelcastService.broadcastStockReturned(productId);
+                    total += reaped;
+                }
+                reschedule(entry, productId, shard, nowMillis);
+            } catch (Exception e) {
+                log.error("❌ [預留] 商品 {} 分片 {} 回收失敗", productId, shard, e);
+            }
+        }
+        if (total > 0) {
+            reapedCounter.increment(total);
+            log.warn("⌛ [預留] 收回 {} 筆逾時未成立的訂單，庫存已歸還", total);
+        }
+    }
+
+    /**
+     * 下次檢查時間 = min(剩下最早到期的預留, 現在 + ttl)
+     * 之後才新增的預留到期時間至少是 現在 + ttl，所以不用另外登記也不會漏收
+     */
+    private void reschedule(String entry, Long productId, int shard, long nowMillis) {
+        double next = nowMillis + ttlMillis;
+        Set<ZSetOperations.TypedTuple<String>> earliest =
+                stringRedisTemplate.opsForZSet().rangeWithScores(stockKeys.reservations(productId, shard), 0, 0);
+        if (earliest != null) {
+            for (ZSetOperations.TypedTuple<String> first : earliest) {
+                if (first.getScore() != null) {
+                    next = Math.min(next, first.getScore());
+                }
+            }
+        }
+        stringRedisTemplate.opsForZSet().add(DUE_KEY, entry, next);
+    }
+
+    long reap(Long productId, int shard, String now) {
+        List<String> keys = onePerUser
+                ? List.of(stockKeys.reservations(productId, shard), stockKeys.stock(productId, shard), stockKeys.buyers(productId, shard))
+                : List.of(stockKeys.reservations(productId, shard), stockKeys.stock(productId, shard));
+        long total = 0;
+        while (true) {
+            Long reaped = stringRedisTemplate.execute(reservationReapScript, keys, now, String.valueOf(reapBatchSize));
+            long count = reaped == null ? 0 : reaped;
+            total += count;
+            if (count < reapBatchSize) {
+                return total;
+            }
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private record Confirmation(Long productId, Long userId, String orderNo) {
+    }
+}
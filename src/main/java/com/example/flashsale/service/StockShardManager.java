@@ -0,0 +1,189 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.model.Product;
+import com.example.flashsale.repository.ProductRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 【庫存分片】
+ * 熱門商品的庫存拆成 K 份放在不同 slot (見 StockKeys)，流量分散到 K 個 Redis 節點 / 執行緒
+ * - distribute：把總庫存平均寫進各分片 (建立商品 / 同步庫存)
+ * - remaining：一次 MGET 讀回所有分片加總
+ * - rebalance：賣到後來各分片不平均時，把多的搬到少的，總數不變
+ * 沒開分片 (K = 1) 時就是原本的單一 Key
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StockShardManager {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScript<Long> stockLeaseScript;
+    private final HazelcastService hazelcastService;
+    private final StockKeys stockKeys;
+
+    /**
+     * 把商品的總庫存平均寫進各分片 (除不盡的餘數放在前面幾個分片)
+     */
+    public void distribute(Long productId, long total) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            writeShards(connection, productId, total);
+            return null;
+        });
+    }
+
+    /**
+     * 批次版本 (同步庫存用)：所有商品的所有分片一個 Pipeline 寫完
+     */
+    public void distributeAll(Collection<Product> products) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Product product : products) {
+                writeShards(connection, product.getId(), product.getStock() == null ? 0 : product.getStock());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 預熱用：只寫還不存在的 Key (SET NX)，活動中重啟 / 擴容的節點不會把正在賣的庫存蓋回去
+     * @return 這次實際寫入的商品數
+     */
+    public long warm(List<ProductRepository.StockView> products) {
+        int shards = stockKeys.shards();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ProductRepository.StockView product : products) {
+                long total = product.getStock() == null ? 0 : product.getStock();
+                for (int shard = 0; shard < shards; shard++) {
+                    connection.stringCommands().setNX(
+                            stockKeys.stock(product.getId(), shard).getBytes(StandardCharsets.UTF_8),
+                            String.valueOf(share(total, shards, shard)).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return null;
+        });
+        long written = 0;
+        for (int i = 0; i < results.size(); i += shards) {
+            if (Boolean.TRUE.equals(results.get(i))) {
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * 剩餘庫存 (所有分片加總)，一次 MGET
+     * Cluster 模式下 Lettuce 會自動把 MGET 依 slot 拆開並行送出
+     */
+    public long remaining(Long productId) {
+        return sum(readShards(productId));
+    }
+
+    /**
+     * 重新分配：每個分片調整到 總數 / K
+     * 多的分片用租借腳本扣出 (原子，不會扣成負數)，實際扣到多少就補多少給不夠的分片
+     * 過程中請求照常進來，結果不一定剛好平均，但總數一定不變
+     */
+    public RebalanceResult rebalance(Long productId) {
+        List<Long> before = readShards(productId);
+        int shards = before.size();
+        long total = sum(before);
+        if (shards == 1) {
+            return new RebalanceResult(productId, before, before, 0);
+        }
+
+        // 1. 先從多的分片把超出的部分拿出來
+        long pool = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            long surplus = before.get(shard) - share(total, shards, shard);
+            if (surplus > 0) {
+                Long taken = stringRedisTemplate.execute(stockLeaseScript,
+                        Collections.singletonList(stockKeys.stock(productId, shard)), String.valueOf(surplus));
+                pool += taken == null ? 0 : taken;
+            }
+        }
+
+        // 2. 補給不夠的分片，剩下的 (期間被買走導致目標變小) 補回第 0 個分片
+        long moved = pool;
+        for (int shard = 0; shard < shards && pool > 0; shard++) {
+            long deficit = share(total, shards, shard) - before.get(shard);
+            if (deficit > 0) {
+                long give = Math.min(deficit, pool);
+                stringRedisTemplate.opsForValue().increment(stockKeys.stock(productId, shard), give);
+                pool -= give;
+            }
+        }
+        if (pool > 0) {
+            stringRedisTemplate.opsForValue().increment(stockKeys.stock(productId, 0), pool);
+        }
+
+        // 3. 某些分片可能被判定售罄過，通知所有節點清除旗標
+        if (moved > 0) {
+            hazelcastService.broadcastStockReturned(productId);
+        }
+        List<Long> after = readShards(productId);
+        log.info("⚖️ [庫存分片] 商品 {} 重新分配完成，搬移 {} 個：{} -> {}", productId, moved, before, after);
+        return new RebalanceResult(productId, before, after, moved);
+    }
+
+    /**
+     * 從各分片扣掉 amount 個 (對帳修正用)，用租借腳本扣，任何分片都不會扣成負數
+     * @return 實際扣到的數量 (分片加總不夠時會小於 amount)
+     */
+    public long take(Long productId, long amount) {
+        long taken = 0;
+        for (int shard = 0; shard < stockKeys.shards() && taken < amount; shard++) {
+            Long granted = stringRedisTemplate.execute(stockLeaseScript,
+                    Collections.singletonList(stockKeys.stock(productId, shard)), String.valueOf(amount - taken));
+            taken += granted == null ? 0 : granted;
+        }
+        return taken;
+    }
+
+    private void writeShards(RedisConnection connection, Long productId, long total) {
+        int shards = stockKeys.shards();
+        for (int shard = 0; shard < shards; shard++) {
+            connection.stringCommands().set(
+                    stockKeys.stock(productId, shard).getBytes(StandardCharsets.UTF_8),
+                    String.valueOf(share(total, shards, shard)).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private List<Long> readShards(Long productId) {
+        int shards = stockKeys.shards();
+        List<String> keys = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            keys.add(stockKeys.stock(productId, shard));
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<Long> stocks = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            String value = values == null ? null : values.get(shard);
+            stocks.add(value == null ? 0L : Long.parseLong(value));
+        }
+        return stocks;
+    }
+
+    // 第 shard 個分片應分到的數量
+    static long share(long total, int shards, int shard) {
+        return total / shards + (shard < total % shards ? 1 : 0);
+    }
+
+    private static long sum(List<Long> stocks) {
+        return stocks.stream().mapToLong(Long::longValue).sum();
+    }
+
+    public record RebalanceResult(Long productId, List<Long> before, List<Long> after, long moved) {
+    }
+}
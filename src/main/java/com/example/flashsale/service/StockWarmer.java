@@ -0,0 +1,147 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.repository.ProductRepository;
+import com.example.flashsale.repository.ProductRepository.StockView;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 【庫存預熱】MySQL -> Redis
+ * - 商品依 ID 分頁串流 (Keyset，只撈 ID 和庫存)，一頁一個 Pipeline，記憶體只放「在途的幾頁」
+ * - 讀 MySQL 和寫 Redis 重疊進行：最多 max-in-flight 頁同時在寫，Redis 跟不上時讀取端會停下來等 (Back-pressure)
+ * - 只寫還不存在的 Key (SET NX)，活動中重啟的節點不會把正在賣的庫存蓋掉
+ * - 啟動時在 ApplicationRunner 裡跑完才會發出 ApplicationReadyEvent，
+ *   Actuator 的 readiness (/actuator/health/readiness) 在這之前都是 OUT_OF_SERVICE，流量不會進來
+ * - 啟動時預熱失敗直接讓啟動失敗 (不能帶著一半的庫存變成 ready)，由部署平台重啟重試
+ */
+@Component
+@Slf4j
+public class StockWarmer implements ApplicationRunner {
+
+    private final ProductRepository productRepository;
+    private final StockShardManager stockShardManager;
+    private final Timer warmUpTimer;
+
+    private final boolean enabledOnStartup;
+    private final int pageSize;
+    private final int maxInFlight;
+
+    public StockWarmer(ProductRepository productRepository,
+                       StockShardManager stockShardManager,
+                       MeterRegistry meterRegistry,
+                       @Value("${flash-sale.warm-up.enabled:true}") boolean enabledOnStartup,
+                       @Value("${flash-sale.warm-up.page-size:1000}") int pageSize,
+                       @Value("${flash-sale.warm-up.max-in-flight:4}") int maxInFlight) {
+        this.productRepository = productRepository;
+        this.stockShardManager = stockShardManager;
+        this.warmUpTimer = Timer.builder("flashsale.stock.warmup")
+                .description("庫存預熱耗時")
+                .register(meterRegistry);
+        this.enabledOnStartup = enabledOnStartup;
+        this.pageSize = pageSize;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabledOnStartup) {
+            WarmUpReport report = warmUp(0L);
+            if (report.error() != null) {
+                throw new IllegalStateException("啟動時庫存預熱失敗: " + report.error());
+            }
+        }
+    }
+
+    /**
+     * 預熱 ID 大於 afterId 的所有商品 (0 = 全部；匯入商品後只預熱新的那一段)
+     */
+    public WarmUpReport warmUp(Long afterId) {
+        long start = System.nanoTime();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long peakHeap = heapBefore;
+
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicLong written = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService writers = Executors.newFixedThreadPool(maxInFlight);
+        long scanned = 0;
+        long lastId = afterId;
+        try {
+            List<StockView> page;
+            do {
+                page = productRepository.findStockAfter(lastId, PageRequest.ofSize(pageSize));
+                if (page.isEmpty()) {
+                    break;
+                }
+                // 在途的頁數到上限就等：Redis 寫得比 MySQL 讀得慢時，不會無限制地把資料堆在記憶體裡
+                inFlight.acquire();
+                if (failure.get() != null) {
+                    inFlight.release();
+                    break;
+                }
+                List<StockView> chunk = page;
+                CompletableFuture.runAsync(() -> written.addAndGet(stockShardManager.warm(chunk)), writers)
+                        .whenComplete((result, ex) -> {
+                            if (ex != null) {
+                                failure.compareAndSet(null, ex);
+                            }
+                            inFlight.release();
+                        });
+                scanned += page.size();
+                lastId = page.get(page.size() - 1).getId();
+                peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+            } while (page.size() == pageSize);
+            // 等最後幾頁寫完
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } finally {
+            writers.shutdown();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        warmUpTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        WarmUpReport report = new WarmUpReport(scanned, written.get(), TimeUnit.NANOSECONDS.toMillis(elapsed),
+                perSecond(scanned, elapsed), (peakHeap - heapBefore) / 1024 / 1024,
+                failure.get() == null ? null : failure.get().getMessage());
+        if (failure.get() != null) {
+            log.error("❌ [庫存預熱] 中途失敗，已處理 {} 個商品", scanned, failure.get());
+        } else {
+            log.info("🔥 [庫存預熱] {} 個商品，新寫入 {} 個 (其餘已存在)，耗時 {} ms，{} 筆/秒，Heap 增加 {} MB",
+                    report.products(), report.written(), report.tookMillis(), report.rowsPerSecond(), report.heapGrowthMb());
+        }
+        return report;
+    }
+
+    static long perSecond(long rows, long elapsedNanos) {
+        return elapsedNanos == 0 ? rows : rows * 1_000_000_000L / elapsedNanos;
+    }
+
+    /**
+     * @param heapGrowthMb 過程中 Heap 用量相對開始時的最高增幅 (取樣值，含還沒被 GC 的垃圾)
+     * @param error        中途失敗的原因；null = 全部完成
+     */
+    public record WarmUpReport(long products, long written, long tookMillis, long rowsPerSecond,
+                               long heapGrowthMb, String error) {
+    }
+}
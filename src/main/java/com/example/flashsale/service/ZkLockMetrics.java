@@ -0,0 +1,57 @@
+package com.example.flashsale.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZK 分散式鎖的延遲指標 (P50 / P95 / P99)
+ * - flashsale.zk.lock.wait：從開始搶鎖到拿到 (或超時) 的時間
+ * - flashsale.zk.lock.hold：拿到鎖到釋放的時間 (臨界區)
+ * - flashsale.zk.coalesce.batch：鎖合併模式下，每次拿鎖處理了幾筆請求
+ * 切換平台 / 虛擬執行緒模式時，用這兩個數字比較每個 Pod 能撐多少併發
+ */
+@Component
+public class ZkLockMetrics {
+
+    private final Timer waitAcquired;
+    private final Timer waitTimeout;
+    private final Timer hold;
+    private final DistributionSummary batchSize;
+
+    public ZkLockMetrics(MeterRegistry meterRegistry) {
+        this.waitAcquired = waitTimer(meterRegistry, "acquired");
+        this.waitTimeout = waitTimer(meterRegistry, "timeout");
+        this.hold = Timer.builder("flashsale.zk.lock.hold")
+                .description("ZK 鎖持有時間 (臨界區)")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("flashsale.zk.coalesce.batch")
+                .description("每次拿到 ZK 鎖處理的請求數")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    private static Timer waitTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("flashsale.zk.lock.wait")
+                .description("ZK 鎖等待時間")
+                .tag("outcome", outcome)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    public void recordWait(long nanos, boolean acquired) {
+        (acquired ? waitAcquired : waitTimeout).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordHold(long nanos) {
+        hold.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordBatch(int size) {
+        batchSize.record(size);
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.flashsale.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 【ZK 鎖合併 (Lock Coalescing)】
+ * 原本每個請求都在 /lock/product/{id} 底下建一個臨時順序節點，1 萬個請求 = 1 萬次 create / watch / delete
+ * 改成：同一商品的請求先在本機排隊 (FIFO)，由一條執行緒代表整個節點去搶 ZK 鎖，
+ * 拿到鎖後一次讀 Redis 庫存、把排隊中的一批請求全部處理完再放鎖
+ * ZK 操作次數從「跟請求數成正比」變成「跟節點數成正比」
+ */
+@Component
+@Slf4j
+public class ZkOrderCoalescer {
+
+    private final CuratorFramework curatorFramework;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final KafkaService kafkaService;
+    private final SoldOutCache soldOutCache;
+    private final ZkLockMetrics zkLockMetrics;
+    private final StockKeys stockKeys;
+    private final StockReservationService stockReservationService;
+
+    private final boolean enabled;
+    private final int maxBatch;
+    // 每人每個商品限購一件
+    private final boolean onePerUser;
+
+    private final Map<Long, ProductQueue> queues = new ConcurrentHashMap<>();
+
+    public ZkOrderCoalescer(CuratorFramework curatorFramework,
+                            StringRedisTemplate stringRedisTemplate,
+                            KafkaService kafkaService,
+                            SoldOutCache soldOutCache,
+                            ZkLockMetrics zkLockMetrics,
+                            StockKeys stockKeys,
+                            StockReservationService stockReservationService,
+                            @Value("${flash-sale.zk.coalesce.enabled:false}") boolean enabled,
+                            @Value("${flash-sale.zk.coalesce.max-batch:200}") int maxBatch,
+                            @Value("${flash-sale.order.one-per-user:true}") boolean onePerUser) {
+        this.curatorFramework = curatorFramework;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.kafkaService = kafkaService;
+        this.soldOutCache = soldOutCache;
+        this.zkLockMetrics = zkLockMetrics;
+        this.stockKeys = stockKeys;
+        this.stockReservationService = stockReservationService;
+        this.enabled = enabled;
+        this.maxBatch = maxBatch;
+        this.onePerUser = onePerUser;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 排隊搶購，阻塞等待結果 (最多排 5 秒)
+     * 目前沒有人代表本節點搶鎖時，呼叫端自己就成為 Leader 去處理佇列；
+     * Leader 處理到自己的請求完成就交棒，其他還在等的執行緒會接手，避免 Leader 在持續湧入的流量中一直回不去
+     */
+    public String order(Long productId, Long userId) {
+        ProductQueue queue = queues.computeIfAbsent(productId, id -> new ProductQueue());
+        PendingOrder pending = new PendingOrder(userId);
+        queue.pending.add(pending);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            if (!pending.result.isDone() && queue.draining.compareAndSet(false, true)) {
+                try {
+                    drain(productId, queue, pending);
+                } finally {
+                    queue.draining.set(false);
+                }
+            }
+
+            try {
+                return pending.result.get(10, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 還沒被處理到就超時：把自己從佇列拿掉；已經被 Leader 取走的話就繼續等結果
+                if (System.nanoTime() > deadline && queue.pending.remove(pending)) {
+                    log.warn("⏳ [ZK合併] 排隊超時，商品 {}", productId);
+                    return "搶購失敗，系統忙碌中";
+                }
+            } catch (Exception e) {
+                log.error("ZK 系統錯誤", e);
+                return "系統錯誤";
+            }
+        }
+    }
+
+    private void drain(Long productId, ProductQueue queue, PendingOrder own) {
+        InterProcessMutex lock = new InterProcessMutex(curatorFramework, "/lock/product/" + productId);
+
+        while (!own.result.isDone() && !queue.pending.isEmpty()) {
+            // 1. 從佇列取出一批
+            List<PendingOrder> batch = new ArrayList<>();
+            PendingOrder next;
+            while (batch.size() < maxBatch && (next = queue.pending.poll()) != null) {
+                batch.add(next);
+            }
+
+            try {
+                // 2. 整批只搶一次 ZK 鎖
+                long waitStart = System.nanoTime();
+                boolean acquired = lock.acquire(3, TimeUnit.SECONDS);
+                long holdStart = System.nanoTime();
+                zkLockMetrics.recordWait(holdStart - waitStart, acquired);
+
+                if (!acquired) {
+                    log.warn("⏳ [ZK合併] 搶鎖失敗 (人太多，排隊超時)，{} 筆請求失敗", batch.size());
+                    batch.forEach(p -> p.result.complete("搶購失敗，系統忙碌中"));
+                    continue;
+                }
+                try {
+                    processBatch(productId, batch);
+                } finally {
+                    lock.release();
+                    zkLockMetrics.recordHold(System.nanoTime() - holdStart);
+                    zkLockMetrics.recordBatch(batch.size());
+                }
+            } catch (Exception e) {
+                log.error("ZK 系統錯誤", e);
+                batch.forEach(p -> p.result.complete("系統錯誤"));
+            }
+        }
+    }
+
+    /**
+     * 臨界區：讀一次庫存，依排隊順序分配，前 min(庫存, 批次數量) 筆成功，其餘失敗
+     * 每人限購一件時先 SADD 佔名額 (跟扣庫存的 Lua 腳本用同一個 Set)，已經買過的不佔庫存
+     */
+    private void processBatch(Long productId, List<PendingOrder> batch) {
+        String stockKey = stockKeys.stock(productId);
+        String buyersKey = stockKeys.buyers(productId);
+        String stockValue = stringRedisTemplate.opsForValue().get(stockKey);
+        int stock = stockValue == null ? 0 : Integer.parseInt(stockValue);
+
+        List<PendingOrder> winners = new ArrayList<>();
+        boolean soldOut = false;
+        for (PendingOrder pending : batch) {
+            if (winners.size() >= stock) {
+                pending.result.complete("搶購失敗，庫存不足");
+                soldOut = true;
+            } else if (onePerUser && !Long.valueOf(1).equals(
+                    stringRedisTemplate.opsForSet().add(buyersKey, pending.userId.toString()))) {
+                kafkaService.sendFailureLog(pending.userId, productId, "ALREADY_PURCHASED");
+                pending.result.complete("搶購失敗，每人限購一件");
+            } else {
+                winners.add(pending);
+            }
+        }
+
+        int granted = winners.size();
+        if (granted > 0) {
+            stringRedisTemplate.opsForValue().set(stockKey, String.valueOf(stock - granted));
+        }
+
+        int sent = 0;
+        // 正在送的這一筆已經補記的預留 (沒開預留或還沒記到就是 null)
+        String reservedOrderNo = null;
+        try {
+            for (; sent < granted; sent++) {
+                PendingOrder pending = winners.get(sent);
+                UUID orderId = UUID.randomUUID();
+                reservedOrderNo = null;
+                if (stockReservationService.isEnabled()) {
+                    stockReservationService.reserve(productId, pending.userId, orderId.toString());
+                    reservedOrderNo = orderId.toString();
+                }
+                kafkaService.sendOrderMessage(productId, pending.userId, orderId);
+                pending.result.complete("搶購成功 (ZK Lock)");
+            }
+        } catch (RuntimeException e) {
+            // 送到一半失敗 (例如 Producer buffer 滿了直接丟例外)：還沒送出的庫存和限購名額趁還拿著鎖還回去
+            refundUnsent(productId, stockKey, buyersKey, winners.subList(sent, granted), reservedOrderNo);
+            throw e;
+        }
+
+        if (soldOut) {
+            soldOutCache.markSoldOut(productId);
+        }
+        log.info("✅ [ZK合併] 一次鎖處理 {} 筆，成功 {} 筆，剩餘庫存: {}", batch.size(), granted, stock - granted);
+    }
+
+    // unsent 第一筆是送失敗的那一筆：已經補記預留的話先移除，不然 Reaper 之後會再還一次
+    private void refundUnsent(Long productId, String stockKey, String buyersKey, List<PendingOrder> unsent, String reservedOrderNo) {
+        long refund = unsent.size();
+        try {
+            if (reservedOrderNo != null && !Boolean.TRUE.equals(
+                    stockReservationService.forget(productId, unsent.get(0).userId, reservedOrderNo).block())) {
+                refund--; // 預留已經被 Reaper 收走，那一個庫存已經還過了 (限購名額也一起還了，下面再 SREM 一次無妨)
+            }
+            if (refund > 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey, refund);
+            }
+            if (onePerUser) {
+                stringRedisTemplate.opsForSet().remove(buyersKey, unsent.stream().map(p -> p.userId.toString()).toArray());
+            }
+            log.warn("↩️ [ZK合併] 商品 {} Kafka 送單失敗，補回 {} 個未送出的庫存", productId, refund);
+        } catch (Exception e) {
+            log.error("❌ [ZK合併] 商品 {} 補回 {} 個庫存失敗", productId, refund, e);
+        }
+    }
+
+    static class ProductQueue {
+        final ConcurrentLinkedQueue<PendingOrder> pending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean draining = new AtomicBoolean();
+    }
+
+    static class PendingOrder {
+        final Long userId;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        PendingOrder(Long userId) {
+            this.userId = userId;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.flashsale.service.admission;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 搶購准入流程：商品 ID 驗證 -> 用戶准入 (黑名單) -> 限流 -> 扣庫存
+ * 關卡是可插拔的 Spring Bean (實作 AdmissionStage + @Order)，新增關卡不用改 ProductService
+ * 每一關各自計時：flashsale.admission.stage{stage, outcome=pass|reject}
+ */
+@Component
+@Slf4j
+public class AdmissionPipeline {
+
+    private final List<AdmissionStage> stages;
+    private final List<AdmissionStage> preStockStages;
+    private final Map<AdmissionStage, Timer> passTimers = new IdentityHashMap<>();
+    private final Map<AdmissionStage, Timer> rejectTimers = new IdentityHashMap<>();
+
+    // Spring 注入的 List 已依 @Order 排好
+    public AdmissionPipeline(List<AdmissionStage> stages, MeterRegistry meterRegistry) {
+        this.stages = List.copyOf(stages);
+        this.preStockStages = this.stages.stream().filter(stage -> !stage.isStockStage()).toList();
+        for (AdmissionStage stage : this.stages) {
+            passTimers.put(stage, stageTimer(meterRegistry, stage.name(), "pass"));
+            rejectTimers.put(stage, stageTimer(meterRegistry, stage.name(), "reject"));
+        }
+        log.info("🚦 [准入流程] {}", this.stages.stream().map(AdmissionStage::name).toList());
+    }
+
+    private static Timer stageTimer(MeterRegistry meterRegistry, String stage, String outcome) {
+        return Timer.builder("flashsale.admission.stage")
+                .description("搶購准入各關卡耗時")
+                .tag("stage", stage)
+                .tag("outcome", outcome)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 依序跑完所有關卡；被拒絕時已通過的關卡依反序 rollback (例如還庫存)
+     */
+    public AdmissionResult admit(OrderContext context) {
+        return admit(context, stages);
+    }
+
+    /**
+     * 只跑扣庫存之前的關卡 (ZK 鎖搶購在鎖內自己扣庫存)
+     */
+    public AdmissionResult admitBeforeStock(OrderContext context) {
+        return admit(context, preStockStages);
+    }
+
+    private AdmissionResult admit(OrderContext context, List<AdmissionStage> selected) {
+        for (int i = 0; i < selected.size(); i++) {
+            AdmissionStage stage = selected.get(i);
+            long start = System.nanoTime();
+            AdmissionResult result = stage.admit(context);
+            record(stage, result, System.nanoTime() - start);
+            if (!result.isAdmitted()) {
+                rollback(context, selected, i - 1);
+                return result;
+            }
+        }
+        return AdmissionResult.admitted();
+    }
+
+    /**
+     * 非同步版：一關完成才串下一關，會打網路的關卡 (扣庫存) 不佔用呼叫端執行緒
+     */
+    public CompletableFuture<AdmissionResult> admitAsync(OrderContext context) {
+        return admitAsync(context, 0);
+    }
+
+    private CompletableFuture<AdmissionResult> admitAsync(OrderContext context, int index) {
+        if (index == stages.size()) {
+            return CompletableFuture.completedFuture(AdmissionResult.admitted());
+        }
+        AdmissionStage stage = stages.get(index);
+        long start = System.nanoTime();
+        return stage.admitAsync(context).thenCompose(result -> {
+            record(stage, result, System.nanoTime() - start);
+            if (!result.isAdmitted()) {
+                rollback(context, stages, index - 1);
+                return CompletableFuture.completedFuture(result);
+            }
+            return admitAsync(context, index + 1);
+        });
+    }
+
+    /**
+     * 全部關卡都通過、但後續步驟失敗 (例如 Kafka 送單失敗) 時呼叫，把拿走的資源全部還回去
+     */
+    public void rollback(OrderContext context) {
+        rollback(context, stages, stages.size() - 1);
+    }
+
+    /**
+     * 配合 admitBeforeStock：只還扣庫存之前的關卡 (庫存由呼叫端自己扣、自己還，不能再跑 StockStage 的 rollback)
+     */
+    public void rollbackBeforeStock(OrderContext context) {
+        rollback(context, preStockStages, preStockStages.size() - 1);
+    }
+
+    private void rollback(OrderContext context, List<AdmissionStage> selected, int fromIndex) {
+        for (int i = fromIndex; i >= 0; i--) {
+            AdmissionStage stage = selected.get(i);
+            try {
+                stage.rollback(context);
+            } catch (Exception e) {
+                log.error("❌ [准入流程] 關卡 {} rollback 失敗，商品 {} 用戶 {}",
+                        stage.name(), context.getProductId(), context.getUserId(), e);
+            }
+        }
+    }
+
+    private void record(AdmissionStage stage, AdmissionResult result, long nanos) {
+        (result.isAdmitted() ? passTimers : rejectTimers).get(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
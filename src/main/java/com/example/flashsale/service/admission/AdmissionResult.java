@@ -0,0 +1,28 @@
+package com.example.flashsale.service.admission;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * 准入關卡的判定結果
+ * failureReason 不為 null 時，呼叫端要送一筆失敗日誌 (例如 BLACKLIST_HIT / OUT_OF_STOCK)
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public class AdmissionResult {
+
+    private static final AdmissionResult ADMITTED = new AdmissionResult(true, null, null);
+
+    private final boolean admitted;
+    private final String message;       // 回給使用者的訊息
+    private final String failureReason; // 失敗日誌的原因代碼，null 代表不記錄
+
+    public static AdmissionResult admitted() {
+        return ADMITTED;
+    }
+
+    public static AdmissionResult rejected(String message, String failureReason) {
+        return new AdmissionResult(false, message, failureReason);
+    }
+}
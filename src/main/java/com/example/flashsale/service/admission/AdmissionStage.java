@@ -0,0 +1,36 @@
+package com.example.flashsale.service.admission;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 搶購准入關卡
+ * 由 AdmissionPipeline 依 @Order 由小到大執行，任一關拒絕就停下，並把前面已通過的關卡依反序 rollback
+ * 便宜的純記憶體檢查排前面，會動到庫存的關卡排最後
+ */
+public interface AdmissionStage {
+
+    // 指標 tag 用的名稱
+    String name();
+
+    AdmissionResult admit(OrderContext context);
+
+    /**
+     * 非同步版，預設直接包同步結果 (純記憶體檢查不需要另外實作)
+     * 會打網路的關卡要覆寫，回呼裡不能做阻塞操作
+     */
+    default CompletableFuture<AdmissionResult> admitAsync(OrderContext context) {
+        return CompletableFuture.completedFuture(admit(context));
+    }
+
+    /**
+     * 請求在後面被拒絕 (或送單失敗) 時，把這一關拿走的資源還回去
+     * 可能跑在 Kafka / Lettuce 的 I/O 執行緒上，不能阻塞
+     */
+    default void rollback(OrderContext context) {
+    }
+
+    // 會扣庫存的關卡 (ZK 鎖搶購自己管庫存，會跳過這類關卡)
+    default boolean isStockStage() {
+        return false;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.flashsale.service.admission;
+
+import com.example.flashsale.service.HazelcastService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * 關卡 2：用戶准入 (Hazelcast 黑名單)
+ * 一定要排在扣庫存之前，黑名單的機器人才不會吃掉真的庫存
+ */
+@Component
+@Order(200)
+@RequiredArgsConstructor
+@Slf4j
+public class BlacklistStage implements AdmissionStage {
+
+    private final HazelcastService hazelcastService;
+
+    @Override
+    public String name() {
+        return "blacklist";
+    }
+
+    @Override
+    public AdmissionResult admit(OrderContext context) {
+        if (hazelcastService.isBlacklisted(context.getUserId())) {
+            log.warn("🛑 用戶 {} 在黑名單中，拒絕搶購", context.getUserId());
+            return AdmissionResult.rejected("您的帳號異常，無法參與活動", "BLACKLIST_HIT");
+        }
+        return AdmissionResult.admitted();
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.flashsale.service.admission;
+
+import com.example.flashsale.DTO.CartItem;
+import com.example.flashsale.service.StockLeaseManager;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 一筆搶購請求在各個准入關卡之間傳遞的資料
+ * 購物車結帳時 items 是所有品項，productId 是第一個品項 (記錄失敗日誌用)
+ * orderId 在進入關卡前就產生，扣庫存時要用它記錄預留 (見 StockReservationService)
+ * lease 是租約模式下這筆庫存來自哪個本機租約，rollback 時只還給同一個 (見 StockLeaseManager.release)
+ */
+@Getter
+public class OrderContext {
+
+    private final Long productId;
+    private final Long userId;
+    private final List<CartItem> items;
+    private final UUID orderId = UUID.randomUUID();
+    @Setter
+    private volatile StockLeaseManager.LeaseBucket lease;
+
+    public OrderContext(Long productId, Long userId) {
+        this.productId = productId;
+        this.userId = userId;
+        this.items = List.of();
+    }
+
+    // 購物車結帳
+    public OrderContext(Long userId, List<CartItem> items) {
+        this.productId = items.get(0).getProductId();
+        this.userId = userId;
+        this.items = items;
+    }
+
+    // 這筆請求涉及的所有商品
+    public List<Long> getProductIds() {
+        return items.isEmpty() ? List.of(productId) : items.stream().map(CartItem::getProductId).toList();
+    }
+}
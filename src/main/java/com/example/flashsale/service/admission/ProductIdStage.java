@@ -0,0 +1,35 @@
+package com.example.flashsale.service.admission;
+
+import com.example.flashsale.service.ProductIdFilter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * 關卡 1：商品 ID 驗證 (Bloom Filter)
+ * 不存在的 ID 多半是機器人亂打，不記失敗日誌
+ */
+@Component
+@Order(100)
+@RequiredArgsConstructor
+public class ProductIdStage implements AdmissionStage {
+
+    private static final AdmissionResult UNKNOWN_PRODUCT = AdmissionResult.rejected("搶購失敗，商品不存在", null);
+
+    private final ProductIdFilter productIdFilter;
+
+    @Override
+    public String name() {
+        return "product-id";
+    }
+
+    @Override
+    public AdmissionResult admit(OrderContext context) {
+        for (Long productId : context.getProductIds()) {
+            if (!productIdFilter.mightContain(productId)) {
+                return UNKNOWN_PRODUCT;
+            }
+        }
+        return AdmissionResult.admitted();
+    }
+}
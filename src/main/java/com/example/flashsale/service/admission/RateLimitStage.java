@@ -0,0 +1,46 @@
+package com.example.flashsale.service.admission;
+
+import com.example.flashsale.service.DistributedRateLimiter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * 關卡 3：限流 (每個用戶 / 每個商品)
+ * 擋住機器人洗請求，避免真人被擠掉、Redis 被打滿
+ */
+@Component
+@Order(300)
+@RequiredArgsConstructor
+@Slf4j
+public class RateLimitStage implements AdmissionStage {
+
+    private static final AdmissionResult RATE_LIMITED =
+            AdmissionResult.rejected("搶購失敗，請求過於頻繁，請稍後再試", "RATE_LIMITED");
+
+    private final DistributedRateLimiter rateLimiter;
+
+    @Override
+    public String name() {
+        return "rate-limit";
+    }
+
+    @Override
+    public AdmissionResult admit(OrderContext context) {
+        if (!rateLimiter.isEnabled()) {
+            return AdmissionResult.admitted();
+        }
+        if (!rateLimiter.tryAcquireUser(context.getUserId())) {
+            log.debug("🚧 [限流] 用戶 {} 請求過於頻繁", context.getUserId());
+            return RATE_LIMITED;
+        }
+        for (Long productId : context.getProductIds()) {
+            if (!rateLimiter.tryAcquireProduct(productId)) {
+                log.debug("🚧 [限流] 商品 {} 流量已達上限", productId);
+                return RATE_LIMITED;
+            }
+        }
+        return AdmissionResult.admitted();
+    }
+}
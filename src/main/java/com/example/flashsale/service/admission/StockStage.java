@@ -0,0 +1,330 @@
+package com.example.flashsale.service.admission;
+
+import com.example.flashsale.service.HazelcastService;
+import com.example.flashsale.service.SoldOutCache;
+import com.example.flashsale.service.StockKeys;
+import com.example.flashsale.service.StockLeaseManager;
+import com.example.flashsale.service.StockReservationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * 關卡 4 (最後一關)：扣庫存
+ * direct 模式：每單一次 Lua 腳本 (限購檢查 + 扣庫存在同一個腳本裡)；分片模式下先扣用戶的主分片，沒貨再試其他分片
+ * lease 模式：先 SADD 佔限購名額，再從本機租約拿，用完才整批向 Redis 租 (一個區塊一次 Redis 呼叫)
+ * 請求在後面被拒絕 / 送單失敗時，rollback 把庫存和限購名額還回去 (同一個 Lua 腳本，原子操作)
+ * 開啟預留時扣到的庫存先記成「預留」，訂單寫進 MySQL 才算賣出 (見 StockReservationService)
+ */
+@Component
+@Order(400)
+@Slf4j
+public class StockStage implements AdmissionStage {
+
+    // stock_deduct.lua 的回傳值
+    private static final long DEDUCT_OUT_OF_STOCK = 0;
+    private static final long DEDUCT_SUCCESS = 1;
+    private static final long DEDUCT_ALREADY_BOUGHT = 2;
+    // 非同步版：同步 Redis 步驟排不進執行緒池 (沒扣到庫存)
+    private static final long DEDUCT_BUSY = -1;
+
+    // 售罄旗標擋下的請求佔了賣完後的絕大多數流量，不逐筆送失敗日誌，避免把壓力轉嫁給 Kafka
+    private static final AdmissionResult SOLD_OUT = AdmissionResult.rejected("搶購失敗，庫存不足", null);
+    private static final AdmissionResult OUT_OF_STOCK = AdmissionResult.rejected("搶購失敗，庫存不足", "OUT_OF_STOCK");
+    private static final AdmissionResult ALREADY_BOUGHT = AdmissionResult.rejected("搶購失敗，每人限購一件", "ALREADY_PURCHASED");
+    private static final AdmissionResult BUSY = AdmissionResult.rejected("搶購失敗，系統忙碌中", null);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+    private final RedisScript<Long> stockScript;
+    private final RedisScript<Long> stockRefundScript;
+    private final SoldOutCache soldOutCache;
+    private final StockLeaseManager stockLeaseManager;
+    private final HazelcastService hazelcastService;
+    private final StockKeys stockKeys;
+    private final StockReservationService stockReservationService;
+    // 非同步版裡的同步 Redis 呼叫改到這裡跑 (見 RedisConfig#redisBlockingExecutor)
+    private final Executor redisBlockingExecutor;
+
+    // 每人每個商品限購一件
+    private final boolean onePerUser;
+
+    public StockStage(StringRedisTemplate stringRedisTemplate,
+                      ReactiveStringRedisTemplate reactiveStringRedisTemplate,
+                      RedisScript<Long> stockScript,
+                      RedisScript<Long> stockRefundScript,
+                      SoldOutCache soldOutCache,
+                      StockLeaseManager stockLeaseManager,
+                      HazelcastService hazelcastService,
+                      StockKeys stockKeys,
+                      StockReservationService stockReservationService,
+                      @Qualifier("redisBlockingExecutor") Executor redisBlockingExecutor,
+                      @Value("${flash-sale.order.one-per-user:true}") boolean onePerUser) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.reactiveStringRedisTemplate = reactiveStringRedisTemplate;
+        this.stockScript = stockScript;
+        this.stockRefundScript = stockRefundScript;
+        this.soldOutCache = soldOutCache;
+        this.stockLeaseManager = stockLeaseManager;
+        this.hazelcastService = hazelcastService;
+        this.stockKeys = stockKeys;
+        this.stockReservationService = stockReservationService;
+        this.redisBlockingExecutor = redisBlockingExecutor;
+        this.onePerUser = onePerUser;
+    }
+
+    @Override
+    public String name() {
+        return "stock";
+    }
+
+    @Override
+    public boolean isStockStage() {
+        return true;
+    }
+
+    @Override
+    public AdmissionResult admit(OrderContext context) {
+        // 本機售罄旗標：已確認賣完就直接回絕，不碰任何網路 I/O
+        if (soldOutCache.isSoldOut(context.getProductId())) {
+            return SOLD_OUT;
+        }
+        return toResult(context.getProductId(), deductStock(context));
+    }
+
+    @Override
+    public CompletableFuture<AdmissionResult> admitAsync(OrderContext context) {
+        if (soldOutCache.isSoldOut(context.getProductId())) {
+            return CompletableFuture.completedFuture(SOLD_OUT);
+        }
+        return deductStockAsync(context).thenApply(code -> toResult(context.getProductId(), code));
+    }
+
+    @Override
+    public void rollback(OrderContext context) {
+        Long productId = context.getProductId();
+        Long buyerId = context.getUserId();
+        String userId = String.valueOf(buyerId);
+        String orderNo = context.getOrderId().toString();
+        int home = stockKeys.homeShard(buyerId);
+        if (stockLeaseManager.isEnabled()) {
+            if (stockReservationService.isEnabled()) {
+                // 預留還在才歸還 (已被 Reaper 收走的話庫存已經回到 Redis，不能再還一次)
+                stockReservationService.forget(productId, buyerId, orderNo)
+                        .subscribe(removed -> {
+                            if (removed) {
+                                releaseLease(context, home, userId);
+                            }
+                        }, ex -> log.error("❌ [補償] 商品 {} 訂單 {} 預留移除失敗，交給 Reaper 收回", productId, orderNo, ex));
+                return;
+            }
+            releaseLease(context, home, userId);
+            return;
+        }
+        if (stockReservationService.isEnabled()) {
+            stockReservationService.release(productId, buyerId, orderNo)
+                    .subscribe(
+                            released -> {
+                                if (released) {
+                                    hazelcastService.broadcastStockReturned(productId);
+                                }
+                            },
+                            ex -> log.error("❌ [補償] 商品 {} 訂單 {} 預留歸還失敗，交給 Reaper 收回", productId, orderNo, ex));
+            return;
+        }
+        // 一律還到用戶的主分片 (跟購買名單同一個 slot，一個腳本原子完成)，總庫存不變
+        // 走 Reactive API，不會卡住呼叫端 (可能是 Kafka 的 I/O 執行緒)
+        reactiveStringRedisTemplate.execute(stockRefundScript, keys(productId, home), List.of(userId, "1"))
+                .subscribe(
+                        result -> hazelcastService.broadcastStockReturned(productId),
+                        ex -> log.error("❌ [補償] 商品 {} 庫存補回失敗，需人工處理", productId, ex));
+    }
+
+    private void releaseLease(OrderContext context, int home, String userId) {
+        Long productId = context.getProductId();
+        stockLeaseManager.release(context.getLease());
+        if (onePerUser) {
+            releaseSlotAsync(productId, home, userId);
+        }
+    }
+
+    private void releaseSlotAsync(Long productId, int home, String userId) {
+        reactiveStringRedisTemplate.opsForSet().remove(stockKeys.buyers(productId, home), userId)
+                .subscribe(removed -> { }, ex -> log.error("❌ [補償] 商品 {} 用戶 {} 限購名額歸還失敗", productId, userId, ex));
+    }
+
+    private AdmissionResult toResult(Long productId, long code) {
+        if (code == DEDUCT_SUCCESS) {
+            return AdmissionResult.admitted();
+        }
+        if (code == DEDUCT_ALREADY_BOUGHT) {
+            return ALREADY_BOUGHT;
+        }
+        if (code == DEDUCT_BUSY) {
+            return BUSY;
+        }
+        // 第一次拿到 0 (所有分片都沒貨) 就立起售罄旗標，之後的請求不用再打 Redis
+        soldOutCache.markSoldOut(productId);
+        return OUT_OF_STOCK;
+    }
+
+    private long deductStock(OrderContext context) {
+        Long productId = context.getProductId();
+        String userId = String.valueOf(context.getUserId());
+        int home = stockKeys.homeShard(context.getUserId());
+        if (stockLeaseManager.isEnabled()) {
+            // SADD 本身是原子的：回傳 0 代表這個用戶已經在名單裡
+            if (onePerUser && !Long.valueOf(1).equals(stringRedisTemplate.opsForSet().add(stockKeys.buyers(productId, home), userId))) {
+                return DEDUCT_ALREADY_BOUGHT;
+            }
+            return leaseOrReleaseSlot(context, home);
+        }
+        // 先扣用戶的主分片：限購檢查 + 扣庫存 (+ 記錄預留) 一個腳本 (絕大多數請求到這裡就結束，一單一次 Redis)
+        registerReservation(context);
+        Long result = stringRedisTemplate.execute(stockScript, deductKeys(productId, home), deductArgs(context).toArray());
+        long code = result == null ? DEDUCT_OUT_OF_STOCK : result;
+        if (code != DEDUCT_OUT_OF_STOCK || !stockKeys.isSharded()) {
+            return code;
+        }
+        return deductFromOtherShards(context, home);
+    }
+
+    private CompletableFuture<Long> deductStockAsync(OrderContext context) {
+        Long productId = context.getProductId();
+        String userId = String.valueOf(context.getUserId());
+        int home = stockKeys.homeShard(context.getUserId());
+        if (stockLeaseManager.isEnabled()) {
+            if (!onePerUser) {
+                // 租約模式絕大多數是本機 CAS，只有整批補貨時才會碰 Redis
+                // (開啟預留時每單還要記一筆預留，是同步 Redis 呼叫，改到其他執行緒做)
+                return stockReservationService.isEnabled()
+                        ? offload(() -> leaseOrReleaseSlot(context, home), () -> { })
+                        : CompletableFuture.completedFuture(leaseOrReleaseSlot(context, home));
+            }
+            return reactiveStringRedisTemplate.opsForSet().add(stockKeys.buyers(productId, home), userId)
+                    .toFuture()
+                    // 租約補貨 / 歸還名額是同步 Redis 呼叫，不能跑在 Lettuce 的 I/O 執行緒上
+                    .thenCompose(added -> added != null && added == 1
+                            ? offload(() -> leaseOrReleaseSlot(context, home), () -> releaseSlotAsync(productId, home, userId))
+                            : CompletableFuture.completedFuture(DEDUCT_ALREADY_BOUGHT));
+        }
+        registerReservation(context);
+        CompletableFuture<Long> homeResult = reactiveStringRedisTemplate.execute(stockScript, deductKeys(productId, home), deductArgs(context))
+                .next()
+                .defaultIfEmpty(DEDUCT_OUT_OF_STOCK)
+                .toFuture();
+        if (!stockKeys.isSharded()) {
+            return homeResult;
+        }
+        // 主分片沒貨才輪詢其他分片 (同步呼叫，一樣不能跑在 Lettuce 的 I/O 執行緒上)
+        return homeResult.thenCompose(code -> code == DEDUCT_OUT_OF_STOCK
+                ? offload(() -> deductFromOtherShards(context, home), () -> { })
+                : CompletableFuture.completedFuture(code));
+    }
+
+    /**
+     * 把同步的 Redis 步驟交給 redisBlockingExecutor；池子滿了就回 DEDUCT_BUSY，並先執行 onRejected 還掉已經佔的資源
+     */
+    private CompletableFuture<Long> offload(Supplier<Long> step, Runnable onRejected) {
+        try {
+            return CompletableFuture.supplyAsync(step, redisBlockingExecutor);
+        } catch (RejectedExecutionException e) {
+            onRejected.run();
+            return CompletableFuture.completedFuture(DEDUCT_BUSY);
+        }
+    }
+
+    /**
+     * 主分片賣完了，依序試其他分片
+     * 其他分片跟購買名單不在同一個 slot，不能放進同一個腳本：先用 SADD 在主分片佔好限購名額，都沒貨再還回去
+     */
+    private long deductFromOtherShards(OrderContext context, int home) {
+        Long productId = context.getProductId();
+        String userId = String.valueOf(context.getUserId());
+        if (onePerUser && !Long.valueOf(1).equals(stringRedisTemplate.opsForSet().add(stockKeys.buyers(productId, home), userId))) {
+            return DEDUCT_ALREADY_BOUGHT;
+        }
+        int shards = stockKeys.shards();
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            Long result = stringRedisTemplate.execute(stockScript,
+                    Collections.singletonList(stockKeys.stock(productId, shard)), userId);
+            if (result != null && result == DEDUCT_SUCCESS) {
+                reserve(context);
+                return DEDUCT_SUCCESS;
+            }
+        }
+        if (onePerUser) {
+            stringRedisTemplate.opsForSet().remove(stockKeys.buyers(productId, home), userId);
+        }
+        return DEDUCT_OUT_OF_STOCK;
+    }
+
+    // 租約拿不到庫存時，把剛佔的限購名額還回去
+    private long leaseOrReleaseSlot(OrderContext context, int home) {
+        Long productId = context.getProductId();
+        StockLeaseManager.LeaseBucket lease = stockLeaseManager.acquire(productId);
+        if (lease != null) {
+            context.setLease(lease);
+            reserve(context);
+            return DEDUCT_SUCCESS;
+        }
+        if (onePerUser) {
+            stringRedisTemplate.opsForSet().remove(stockKeys.buyers(productId, home), String.valueOf(context.getUserId()));
+        }
+        return DEDUCT_OUT_OF_STOCK;
+    }
+
+    // 庫存不是在主分片的腳本裡扣的，另外補記預留
+    private void reserve(OrderContext context) {
+        if (stockReservationService.isEnabled()) {
+            stockReservationService.reserve(context.getProductId(), context.getUserId(), context.getOrderId().toString());
+        }
+    }
+
+    private void registerReservation(OrderContext context) {
+        if (stockReservationService.isEnabled()) {
+            stockReservationService.register(context.getProductId(), context.getUserId());
+        }
+    }
+
+    // 限購開啟時多帶購買名單的 Key，腳本看 KEYS 數量決定要不要檢查 (兩個 Key 在同一個分片 / slot)
+    private List<String> keys(Long productId, int shard) {
+        return onePerUser
+                ? List.of(stockKeys.stock(productId, shard), stockKeys.buyers(productId, shard))
+                : Collections.singletonList(stockKeys.stock(productId, shard));
+    }
+
+    // 開啟預留時最後再接預留的 Sorted Set (同一個 slot)
+    private List<String> deductKeys(Long productId, int shard) {
+        if (!stockReservationService.isEnabled()) {
+            return keys(productId, shard);
+        }
+        List<String> keys = new ArrayList<>(keys(productId, shard));
+        keys.add(stockKeys.reservations(productId, shard));
+        return keys;
+    }
+
+    private List<String> deductArgs(OrderContext context) {
+        String userId = String.valueOf(context.getUserId());
+        if (!stockReservationService.isEnabled()) {
+            return List.of(userId);
+        }
+        return List.of(userId,
+                StockReservationService.member(context.getOrderId().toString(), context.getUserId()),
+                String.valueOf(stockReservationService.deadline()));
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.flashsale.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * long 專用的開放定址 (Open Addressing / Linear Probing) 集合
+ * - 不用 Long 包裝，查詢不產生任何物件
+ * - 讀取完全無鎖，可以跟寫入同時進行；寫入 (add / remove / 擴容) 用 synchronized 串行化
+ *   (黑名單這種「讀超多、寫很少」的場景剛好)
+ * - 刪除用墓碑 (TOMBSTONE) 標記，避免斷開探測鏈；墓碑太多時隨擴容一起清掉
+ */
+public class LongOpenHashSet {
+
+    private static final long EMPTY = 0L;
+    private static final long TOMBSTONE = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private volatile AtomicLongArray table;
+    private int size;      // 只在 synchronized 內修改
+    private int occupied;  // size + 墓碑數
+
+    // 0 和 Long.MIN_VALUE 被拿來當標記，本身另外用旗標記錄
+    private volatile boolean containsEmptyKey;
+    private volatile boolean containsTombstoneKey;
+
+    public LongOpenHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongOpenHashSet(int expectedSize) {
+        this.table = new AtomicLongArray(tableSizeFor(expectedSize));
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return containsEmptyKey;
+        }
+        if (key == TOMBSTONE) {
+            return containsTombstoneKey;
+        }
+        AtomicLongArray t = table;
+        int mask = t.length() - 1;
+        int index = hash(key) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long current = t.get(index);
+            if (current == key) {
+                return true;
+            }
+            if (current == EMPTY) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public synchronized boolean add(long key) {
+        if (key == EMPTY) {
+            boolean added = !containsEmptyKey;
+            containsEmptyKey = true;
+            return added;
+        }
+        if (key == TOMBSTONE) {
+            boolean added = !containsTombstoneKey;
+            containsTombstoneKey = true;
+            return added;
+        }
+        if (contains(key)) {
+            return false;
+        }
+        // 負載超過 50% 就擴容 (同時清掉墓碑)
+        if ((occupied + 1) * 2 > table.length()) {
+            rehash(Math.max(table.length(), tableSizeFor((size + 1) * 2)));
+        }
+        AtomicLongArray t = table;
+        int mask = t.length() - 1;
+        int index = hash(key) & mask;
+        while (true) {
+            long current = t.get(index);
+            if (current == EMPTY || current == TOMBSTONE) {
+                if (current == EMPTY) {
+                    occupied++;
+                }
+                t.set(index, key);
+                size++;
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public synchronized boolean remove(long key) {
+        if (key == EMPTY) {
+            boolean removed = containsEmptyKey;
+            containsEmptyKey = false;
+            return removed;
+        }
+        if (key == TOMBSTONE) {
+            boolean removed = containsTombstoneKey;
+            containsTombstoneKey = false;
+            return removed;
+        }
+        AtomicLongArray t = table;
+        int mask = t.length() - 1;
+        int index = hash(key) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long current = t.get(index);
+            if (current == key) {
+                t.set(index, TOMBSTONE);
+                size--;
+                return true;
+            }
+            if (current == EMPTY) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        return size + (containsEmptyKey ? 1 : 0) + (containsTombstoneKey ? 1 : 0);
+    }
+
+    // 建一張新表再整個換掉，讀取端看到的永遠是完整的表
+    private void rehash(int newCapacity) {
+        AtomicLongArray old = table;
+        AtomicLongArray next = new AtomicLongArray(newCapacity);
+        int mask = newCapacity - 1;
+        for (int i = 0; i < old.length(); i++) {
+            long key = old.get(i);
+            if (key == EMPTY || key == TOMBSTONE) {
+                continue;
+            }
+            int index = hash(key) & mask;
+            while (next.get(index) != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            next.set(index, key);
+        }
+        occupied = size;
+        table = next;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.flashsale.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 有界、無鎖的多生產者 / 單消費者環形佇列 (MPSC, Dmitry Vyukov 的 Bounded Queue)
+ * - 每個格子放 (long a, long b, int tag) 三個原始型別，存在平行陣列裡：offer 不產生任何物件
+ * - 生產者用 CAS 搶 tail 的位置；每格有自己的序號 (sequence)，寫完資料才發布序號，消費者看到序號才讀
+ * - 滿了 offer 直接回傳 false，由呼叫端決定丟棄或合併 (不會阻塞請求執行緒)
+ * - drain 只能由同一條執行緒呼叫
+ */
+public class MpscRingBuffer {
+
+    /**
+     * drain 時每一筆的回呼
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long a, long b, int tag);
+    }
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final long[] as;
+    private final long[] bs;
+    private final int[] tags;
+
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head; // 只有消費者寫，volatile 只是讓 size() 讀得到
+
+    /**
+     * @param capacity 會往上取到 2 的次方
+     */
+    public MpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.as = new long[size];
+        this.bs = new long[size];
+        this.tags = new int[size];
+    }
+
+    public boolean offer(long a, long b, int tag) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    as[index] = a;
+                    bs[index] = b;
+                    tags[index] = tag;
+                    // 發布：volatile 寫，消費者讀到序號時一定看得到上面三個值
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // 這格還沒被消費者讀走：滿了
+                return false;
+            } else {
+                // 被別的生產者搶先了
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 最多取出 max 筆
+     *
+     * @return 取出幾筆
+     */
+    public int drain(EntryConsumer consumer, int max) {
+        long pos = head;
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) (pos & mask);
+            if (sequences.get(index) != pos + 1) {
+                // 空了，或生產者搶到位置但還沒寫完
+                break;
+            }
+            consumer.accept(as[index], bs[index], tags[index]);
+            // 這格讓給下一圈的生產者
+            sequences.set(index, pos + mask + 1);
+            pos++;
+            drained++;
+        }
+        head = pos;
+        return drained;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * 近似值 (並行中讀取)
+     */
+    public int size() {
+        return (int) Math.max(0, Math.min(tail.get() - head, capacity()));
+    }
+}
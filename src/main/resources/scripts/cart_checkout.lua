@@ -0,0 +1,30 @@
+-- 購物車結帳：一次扣多個商品，全部成功或全部不扣
+-- KEYS[1..n]: 各商品的庫存 Key (Cluster 模式下必須是同一個 Hash Tag，見 StockKeys)
+-- KEYS[n+1..2n]: (選填) 各商品已購買用戶的 Set，有帶才檢查每人限購
+-- ARGV[1]: userId
+-- ARGV[2..n+1]: 各商品的購買數量
+-- 回傳 {結果, 第幾個商品}：結果 1 成功 / 0 庫存不足 / 2 已經買過；第幾個商品從 1 開始，成功時為 0
+
+local n = #ARGV - 1;
+local limited = (#KEYS == 2 * n);
+
+-- 1. 先全部檢查，任何一項不行就直接回傳，什麼都沒動
+for i = 1, n do
+    if (limited and redis.call('sismember', KEYS[n + i], ARGV[1]) == 1) then
+        return {2, i};
+    end
+    local stock = tonumber(redis.call('get', KEYS[i]) or '0');
+    if (stock < tonumber(ARGV[i + 1])) then
+        return {0, i};
+    end
+end
+
+-- 2. 全部通過才一起扣 (腳本執行期間不會有別的指令插進來)
+for i = 1, n do
+    redis.call('decrby', KEYS[i], ARGV[i + 1]);
+    if (limited) then
+        redis.call('sadd', KEYS[n + i], ARGV[1]);
+    end
+end
+
+return {1, 0};
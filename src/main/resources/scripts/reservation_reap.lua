@@ -0,0 +1,24 @@
+-- KEYS[1]: 預留的 Sorted Set (例如 product:reservations:{1})
+-- KEYS[2]: 商品庫存的 Key
+-- KEYS[3]: (選填) 已購買用戶的 Set，有帶就把過期訂單的用戶移出
+-- ARGV[1]: 現在時間 (毫秒)，score <= 這個值的都算過期
+-- ARGV[2]: 一次最多收幾筆 (控制單次腳本執行時間，不會卡住 Redis)
+-- 回傳：這次收回的筆數 (= 歸還的庫存數)
+-- Sorted Set 依到期時間排序，只讀最前面過期的那一段，不需要掃描整個集合
+
+local expired = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2]));
+if (#expired == 0) then
+    return 0;
+end
+
+redis.call('zrem', KEYS[1], unpack(expired));
+redis.call('incrby', KEYS[2], #expired);
+
+if (#KEYS >= 3) then
+    for _, member in ipairs(expired) do
+        -- 成員格式：訂單編號:userId
+        redis.call('srem', KEYS[3], string.match(member, ':([^:]+)$'));
+    end
+end
+
+return #expired;
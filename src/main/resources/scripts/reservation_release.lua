@@ -0,0 +1,17 @@
+-- KEYS[1]: 預留的 Sorted Set (例如 product:reservations:{1})
+-- KEYS[2]: 商品庫存的 Key
+-- KEYS[3]: (選填) 已購買用戶的 Set，有帶就把這個用戶移出
+-- ARGV[1]: 預留成員 (訂單編號:userId)
+-- ARGV[2]: userId
+-- 回傳：1 已歸還 / 0 預留已經不在 (被 Reaper 收走或已確認賣出)，不重複歸還
+
+if (redis.call('zrem', KEYS[1], ARGV[1]) == 0) then
+    return 0;
+end
+
+redis.call('incr', KEYS[2]);
+if (#KEYS >= 3) then
+    redis.call('srem', KEYS[3], ARGV[2]);
+end
+
+return 1;
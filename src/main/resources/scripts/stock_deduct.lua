@@ -1,17 +1,38 @@
--- KEYS[1]: 商品庫存的 Key (例如 product:stock:1)
--- ARGV: 不需要參數，預設扣 1
+-- KEYS[1]: 商品庫存的 Key (例如 product:stock:{1})
+-- KEYS[2]: (選填) 已購買用戶的 Set (例如 product:buyers:{1})，有帶才檢查每人限購一件
+-- KEYS[n]: (選填) 預留的 Sorted Set (例如 product:reservations:{1})，有帶 ARGV[2..3] 時固定是最後一個 Key
+-- ARGV[1]: (選填) userId
+-- ARGV[2]: (選填) 預留成員 (訂單編號:userId)
+-- ARGV[3]: (選填) 預留到期時間 (毫秒時間戳，當作 score)
+-- 回傳：1 成功 / 0 庫存不足 / 2 已經買過
+-- 檢查限購、扣庫存、記錄預留在同一個腳本裡，中間不會有別的請求插進來
 
--- 1. 檢查 Key 是否存在
+local reserving = (#ARGV >= 3);
+local limited = ((#KEYS - (reserving and 1 or 0)) >= 2);
+
+-- 1. 限購：這個用戶已經買過了
+if (limited and redis.call('sismember', KEYS[2], ARGV[1]) == 1) then
+    return 2;
+end
+
+-- 2. 檢查 Key 是否存在
 if (redis.call('exists', KEYS[1]) == 1) then
-    -- 2. 取得目前庫存
+    -- 3. 取得目前庫存
     local stock = tonumber(redis.call('get', KEYS[1]));
 
-    -- 3. 判斷庫存是否 > 0
+    -- 4. 判斷庫存是否 > 0
     if (stock > 0) then
-        -- 4. 扣庫存
+        -- 5. 扣庫存，記下買過的用戶
         redis.call('decr', KEYS[1]);
+        if (limited) then
+            redis.call('sadd', KEYS[2], ARGV[1]);
+        end
+        -- 6. 庫存從「可賣」移到「預留」，訂單寫進 MySQL 後才算賣出，逾時由 Reaper 還回來
+        if (reserving) then
+            redis.call('zadd', KEYS[#KEYS], ARGV[3], ARGV[2]);
+        end
         return 1; -- 成功
     end
 end
 
-return 0; -- 失敗 (沒庫存或商品不存在)
\ No newline at end of file
+return 0; -- 失敗 (沒庫存或商品不存在)
@@ -0,0 +1,15 @@
+-- KEYS[1]: 商品庫存的 Key (例如 product:stock:{1})
+-- ARGV[1]: 這次想租借的數量 (一個區塊 N 個)
+
+-- 1. 取得目前庫存 (Key 不存在視為 0)
+local stock = tonumber(redis.call('get', KEYS[1]) or '0');
+
+if (stock <= 0) then
+    return 0; -- 沒庫存可以租
+end
+
+-- 2. 最多只能租到剩下的數量，保證不會超賣
+local granted = math.min(stock, tonumber(ARGV[1]));
+redis.call('decrby', KEYS[1], granted);
+
+return granted; -- 實際租到的數量
@@ -0,0 +1,17 @@
+-- KEYS[1..n]: 各商品的庫存 Key (例如 product:stock:{1})
+-- KEYS[n+1..2n]: (選填) 各商品已購買用戶的 Set，有帶就把這個用戶移出 (讓他可以重新搶)
+-- ARGV[1]: userId
+-- ARGV[2..n+1]: 各商品要還回去的數量
+-- 補償用：訂單沒成立時把庫存和限購名額一起還回去 (單品搶購就是 n = 1、數量 1)
+
+local n = #ARGV - 1;
+local limited = (#KEYS == 2 * n);
+
+for i = 1, n do
+    redis.call('incrby', KEYS[i], ARGV[i + 1]);
+    if (limited) then
+        redis.call('srem', KEYS[n + i], ARGV[1]);
+    end
+end
+
+return n;
@@ -0,0 +1,174 @@
+package com.example.flashsale.config;
+
+import com.example.flashsale.DTO.OrderMessage;
+import com.example.flashsale.serializer.OrderMessageSerializer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.compress.Compression;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.common.utils.Utils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 訂單 Producer 調校組合的本機比較 (不需要 Broker)
+ * 跑真正的 Client 端流程：OrderMessageSerializer -> 依 Key 分 Partition (murmur2，跟 Kafka 內建的一樣)
+ * -> 依 batch.size / linger.ms 湊批 -> 用該組合的壓縮方式建 Record Batch，比較批次數、網路 bytes、湊批等待和 CPU 吞吐量
+ * acks / 冪等的成本要有真的 Broker 才量得到，這裡量不到
+ *
+ * mvn test -Dtest=KafkaProducerProfileBenchmark -Dbenchmark=true [-Dbenchmark.records=500000 -Dbenchmark.rate=50000]
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class KafkaProducerProfileBenchmark {
+
+    private static final int PARTITIONS = 12;
+    private static final int PRODUCTS = 50;
+
+    // Kafka 3.9 Producer 的預設值
+    private static final int DEFAULT_BATCH_SIZE = 16384;
+    private static final int DEFAULT_LINGER_MS = 0;
+
+    @Test
+    @DisplayName("比較各調校組合的批次大小、網路 bytes、湊批等待與 CPU 吞吐量")
+    void compareProfiles() {
+        int records = Integer.getInteger("benchmark.records", 500_000);
+        int ratePerSecond = Integer.getInteger("benchmark.rate", 50_000);
+        Workload workload = Workload.generate(records, ratePerSecond);
+
+        System.out.printf("%n訂單 %d 筆，每秒 %d 筆，%d 個 Partition，%d 個商品 (一半流量在熱門商品)%n",
+                records, ratePerSecond, PARTITIONS, PRODUCTS);
+        System.out.printf("%-11s %10s %12s %12s %10s %14s %14s%n",
+                "profile", "batches", "rec/batch", "wire bytes", "B/rec", "avg wait ms", "client rec/s");
+        for (KafkaProducerProfile profile : KafkaProducerProfile.values()) {
+            Result result = run(profile, workload);
+            System.out.printf("%-11s %10d %12.1f %12d %10.1f %14.2f %14d%n",
+                    profile, result.batches, (double) records / result.batches, result.wireBytes,
+                    (double) result.wireBytes / records, result.totalWaitMs / records, result.recordsPerSecond);
+            assertEquals(records, result.records);
+        }
+
+        // Key = productId：同一個商品只會落在一個 Partition (順序有保證)
+        Map<Long, Integer> partitionOf = new HashMap<>();
+        for (int i = 0; i < records; i++) {
+            Integer previous = partitionOf.putIfAbsent(workload.productIds[i], workload.partitions[i]);
+            if (previous != null) {
+                assertEquals(previous, workload.partitions[i]);
+            }
+        }
+    }
+
+    private static Result run(KafkaProducerProfile profile, Workload workload) {
+        Map<String, Object> config = profile.overrides();
+        int batchSize = ((Number) config.getOrDefault(ProducerConfig.BATCH_SIZE_CONFIG, DEFAULT_BATCH_SIZE)).intValue();
+        int lingerMs = ((Number) config.getOrDefault(ProducerConfig.LINGER_MS_CONFIG, DEFAULT_LINGER_MS)).intValue();
+        Compression compression = Compression.of(CompressionType.forName(
+                (String) config.getOrDefault(ProducerConfig.COMPRESSION_TYPE_CONFIG, "none"))).build();
+
+        OrderMessageSerializer valueSerializer = new OrderMessageSerializer();
+        StringSerializer keySerializer = new StringSerializer();
+        Batch[] open = new Batch[PARTITIONS];
+        Result result = new Result();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < workload.messages.length; i++) {
+            long now = workload.arrivalMs[i];
+            int partition = workload.partitions[i];
+            Batch batch = open[partition];
+            // linger.ms 到了就送出 (沒有新訊息觸發時，在下一筆到達時補算)
+            if (batch != null && now - batch.firstArrivalMs >= lingerMs && lingerMs > 0) {
+                batch.close(now, result);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = open[partition] = new Batch(compression, batchSize, now);
+            }
+            byte[] key = keySerializer.serialize("flash-sale-topic", String.valueOf(workload.productIds[i]));
+            byte[] value = valueSerializer.serialize("flash-sale-topic", workload.messages[i]);
+            batch.append(now, key, value);
+            // 滿了或 linger.ms = 0 (不等) 就立刻送出
+            if (batch.builder.estimatedSizeInBytes() >= batchSize || lingerMs == 0) {
+                batch.close(now, result);
+                open[partition] = null;
+            }
+        }
+        long end = workload.arrivalMs[workload.arrivalMs.length - 1];
+        for (Batch batch : open) {
+            if (batch != null) {
+                batch.close(Math.max(end, batch.firstArrivalMs + lingerMs), result);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        result.recordsPerSecond = elapsed == 0 ? 0 : result.records * 1_000_000_000L / elapsed;
+        return result;
+    }
+
+    private static class Batch {
+        private final MemoryRecordsBuilder builder;
+        private final long firstArrivalMs;
+        private long arrivalSumMs;
+        private int count;
+
+        Batch(Compression compression, int batchSize, long firstArrivalMs) {
+            this.builder = MemoryRecords.builder(ByteBuffer.allocate(batchSize), compression,
+                    TimestampType.CREATE_TIME, 0L);
+            this.firstArrivalMs = firstArrivalMs;
+        }
+
+        void append(long timestamp, byte[] key, byte[] value) {
+            builder.append(timestamp, key, value);
+            arrivalSumMs += timestamp;
+            count++;
+        }
+
+        void close(long sentAtMs, Result result) {
+            result.batches++;
+            result.records += count;
+            result.wireBytes += builder.build().sizeInBytes();
+            // 這批每一筆在 Producer 裡等了多久才送出
+            result.totalWaitMs += (double) sentAtMs * count - arrivalSumMs;
+        }
+    }
+
+    private static class Result {
+        long batches;
+        long records;
+        long wireBytes;
+        double totalWaitMs;
+        long recordsPerSecond;
+    }
+
+    private record Workload(OrderMessage[] messages, long[] productIds, int[] partitions, long[] arrivalMs) {
+
+        static Workload generate(int records, int ratePerSecond) {
+            Random random = new Random(42);
+            StringSerializer keySerializer = new StringSerializer();
+            OrderMessage[] messages = new OrderMessage[records];
+            long[] productIds = new long[records];
+            int[] partitions = new int[records];
+            long[] arrivalMs = new long[records];
+            long startMs = 1_700_000_000_000L;
+            for (int i = 0; i < records; i++) {
+                long productId = random.nextBoolean() ? 1 : 2 + random.nextInt(PRODUCTS - 1);
+                arrivalMs[i] = startMs + (long) i * 1000 / ratePerSecond;
+                messages[i] = new OrderMessage(1 + random.nextInt(1_000_000), productId, UUID.randomUUID(), arrivalMs[i]);
+                productIds[i] = productId;
+                // 跟 Kafka 內建 Partitioner 對有 Key 的訊息算法一樣
+                byte[] key = keySerializer.serialize("flash-sale-topic", String.valueOf(productId));
+                partitions[i] = Utils.toPositive(Utils.murmur2(key)) % PARTITIONS;
+            }
+            return new Workload(messages, productIds, partitions, arrivalMs);
+        }
+    }
+}
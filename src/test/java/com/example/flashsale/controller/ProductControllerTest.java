@@ -1,16 +1,28 @@
 package com.example.flashsale.controller;
 
+import com.example.flashsale.service.ProductIdFilter;
 import com.example.flashsale.service.ProductService;
+import com.example.flashsale.service.StockShardManager;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 // 1. 只啟動 Web 層，不啟動整個 Spring Context
@@ -25,17 +37,58 @@ class ProductControllerTest {
     @MockBean
     private ProductService productService;
 
+    @MockBean
+    private ProductIdFilter productIdFilter;
+
+    @MockBean
+    private StockShardManager stockShardManager;
+
+    @BeforeEach
+    void setUp() {
+        // 預設所有商品 ID 都存在
+        when(productIdFilter.mightContain(anyLong())).thenReturn(true);
+    }
+
     @Test
     @DisplayName("API 測試：秒殺請求成功回應")
     void orderProductApi_ShouldReturnOk() throws Exception {
         // --- Given ---
         Long productId = 1L;
-        // 告訴 Mockito：當有人呼叫 service.orderProduct(1) 時，回傳 "OK"
-        when(productService.orderProduct(productId)).thenReturn("搶購成功，訂單處理中...");
+        Long userId = 1001L;
+        // 告訴 Mockito：當有人呼叫 service.orderProduct(1, 1001) 時，回傳 "OK"
+        when(productService.orderProduct(productId, userId)).thenReturn("搶購成功，訂單處理中...");
 
         // --- When & Then ---
-        mockMvc.perform(post("/api/products/{id}/order", productId)) // 模擬 POST 請求
+        mockMvc.perform(post("/api/products/{id}/order", productId).param("userId", "1001")) // 模擬 POST 請求
                 .andExpect(status().isOk()) // 預期 HTTP 200
                 .andExpect(content().string("搶購成功，訂單處理中...")); // 預期回傳內容
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("API 測試：非同步秒殺請求成功回應")
+    void orderProductAsyncApi_ShouldReturnOk() throws Exception {
+        Long productId = 1L;
+        when(productService.orderProductAsync(productId, null))
+                .thenReturn(CompletableFuture.completedFuture("搶購成功，訂單處理中..."));
+
+        // 非同步 API：先確認請求進入 async 狀態，再取回結果
+        MvcResult mvcResult = mockMvc.perform(post("/api/products/{id}/order/async", productId))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().string("搶購成功，訂單處理中..."));
+    }
+
+    @Test
+    @DisplayName("API 測試：查詢不存在的商品 ID 直接被 Bloom Filter 擋下")
+    void unknownProduct_ShouldBeRejectedBeforeService() throws Exception {
+        Long productId = 999L;
+        when(productIdFilter.mightContain(productId)).thenReturn(false);
+
+        mockMvc.perform(get("/api/products/{id}", productId))
+                .andExpect(status().isNotFound());
+        verify(productService, never()).getProduct(productId);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.flashsale.serializer;
+
+import com.example.flashsale.DTO.CartItem;
+import com.example.flashsale.DTO.OrderMessage;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class OrderMessageSerializerTest {
+
+    private final OrderMessageSerializer serializer = new OrderMessageSerializer();
+    private final OrderMessageDeserializer deserializer = new OrderMessageDeserializer();
+
+    @Test
+    @DisplayName("測試二進位格式序列化後可以完整還原")
+    void testRoundTrip() {
+        UUID orderId = UUID.randomUUID();
+        OrderMessage message = new OrderMessage(12345L, 1L, orderId, 1700000000000L);
+
+        byte[] data = serializer.serialize("flash-sale-topic", message);
+        OrderMessage decoded = deserializer.deserialize("flash-sale-topic", data);
+
+        assertEquals(OrderMessageSerializer.VERSION_1_LENGTH, data.length);
+        assertEquals(message, decoded);
+        assertEquals(orderId.toString(), decoded.getOrderNo());
+    }
+
+    @Test
+    @DisplayName("測試購物車訂單 (v2) 序列化後可以完整還原，明細編號加上品項序號")
+    void testCartRoundTrip() {
+        UUID orderId = UUID.randomUUID();
+        List<CartItem> items = List.of(new CartItem(1L, 2), new CartItem(7L, 1), new CartItem(42L, 3));
+        OrderMessage message = new OrderMessage(12345L, orderId, items, 1700000000000L);
+
+        byte[] data = serializer.serialize("flash-sale-topic", message);
+        OrderMessage decoded = deserializer.deserialize("flash-sale-topic", data);
+
+        assertEquals(OrderMessageSerializer.VERSION_2, data[0]);
+        assertEquals(OrderMessageSerializer.VERSION_2_HEADER_LENGTH + 3 * OrderMessageSerializer.VERSION_2_ITEM_LENGTH, data.length);
+        assertEquals(message, decoded);
+        assertEquals(items, decoded.getLines());
+        assertEquals(orderId + "-2", decoded.getLineOrderNo(1));
+    }
+
+    @Test
+    @DisplayName("測試滾動升級期間仍可讀取舊的字串格式")
+    void testLegacyFormat() {
+        UUID orderId = UUID.randomUUID();
+        byte[] legacy = ("12345:1:" + orderId).getBytes(StandardCharsets.US_ASCII);
+
+        OrderMessage decoded = deserializer.deserialize("flash-sale-topic", legacy);
+
+        assertEquals(12345L, decoded.getUserId());
+        assertEquals(1L, decoded.getProductId());
+        assertEquals(orderId, decoded.getOrderId());
+    }
+
+    @Test
+    @DisplayName("測試格式錯誤的訊息回傳 null")
+    void testMalformed() {
+        assertNull(deserializer.deserialize("flash-sale-topic", "12345:abc".getBytes(StandardCharsets.US_ASCII)));
+        assertNull(deserializer.deserialize("flash-sale-topic", new byte[]{OrderMessageSerializer.VERSION_1, 0, 0}));
+        assertNull(deserializer.deserialize("flash-sale-topic", new byte[]{OrderMessageSerializer.VERSION_2, 0, 0}));
+    }
+}
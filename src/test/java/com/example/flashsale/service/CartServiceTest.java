@@ -0,0 +1,151 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.DTO.CartItem;
+import com.example.flashsale.service.admission.AdmissionPipeline;
+import com.example.flashsale.service.admission.BlacklistStage;
+import com.example.flashsale.service.admission.ProductIdStage;
+import com.example.flashsale.service.admission.StockStage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CartServiceTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
+    @Mock
+    @SuppressWarnings("rawtypes")
+    private RedisScript<List> cartCheckoutScript;
+
+    @Mock
+    private RedisScript<Long> stockRefundScript;
+
+    @Mock
+    private ProductIdFilter productIdFilter;
+
+    @Mock
+    private HazelcastService hazelcastService;
+
+    @Mock
+    private KafkaService kafkaService;
+
+    @Mock
+    private StockLeaseManager stockLeaseManager;
+
+    @Mock
+    private StockReservationService stockReservationService;
+
+    private final StockKeys stockKeys = new StockKeys("sale", 1);
+
+    private CartService cartService;
+
+    @BeforeEach
+    void setUp() {
+        AdmissionPipeline admissionPipeline = new AdmissionPipeline(List.of(
+                new ProductIdStage(productIdFilter),
+                new BlacklistStage(hazelcastService),
+                // 購物車不走這一關 (自己扣庫存)，放進來確認補償時不會被多還一次
+                new StockStage(stringRedisTemplate, reactiveStringRedisTemplate, null, stockRefundScript,
+                        new SoldOutCache(), stockLeaseManager, hazelcastService, stockKeys, stockReservationService, Runnable::run, false)
+        ), new SimpleMeterRegistry());
+        cartService = new CartService(stringRedisTemplate, reactiveStringRedisTemplate, cartCheckoutScript,
+                stockRefundScript, stockKeys, admissionPipeline, new SoldOutCache(), kafkaService, hazelcastService,
+                20, false);
+        lenient().when(productIdFilter.mightContain(anyLong())).thenReturn(true);
+    }
+
+    @Test
+    @DisplayName("測試整車一次 Lua 扣庫存、一則 Kafka 訊息，重複的商品會合併數量")
+    void testCheckout_Success() {
+        when(stringRedisTemplate.execute(eq(cartCheckoutScript), anyList(), any(Object[].class))).thenReturn(List.of(1L, 0L));
+        when(kafkaService.sendCartOrderMessage(eq(1001L), any(UUID.class), anyList())).thenReturn(new CompletableFuture<>());
+
+        String result = cartService.checkout(1001L, List.of(
+                new CartItem(1L, 2), new CartItem(2L, 1), new CartItem(1L, 1)));
+
+        assertEquals("結帳成功，訂單處理中...", result);
+        // 同一個 Hash Tag，整車的 Key 落在同一個 slot；不管幾個品項都只打一次 Redis
+        verify(stringRedisTemplate, times(1)).execute(cartCheckoutScript,
+                List.of("product:stock:{sale}:1", "product:stock:{sale}:2"), "1001", "3", "1");
+        verify(kafkaService).sendCartOrderMessage(eq(1001L), any(UUID.class),
+                eq(List.of(new CartItem(1L, 3), new CartItem(2L, 1))));
+    }
+
+    @Test
+    @DisplayName("測試任何一個商品庫存不足就整車不成立")
+    void testCheckout_OneItemOutOfStock() {
+        // 第 2 個商品不夠：腳本什麼都沒扣
+        when(stringRedisTemplate.execute(eq(cartCheckoutScript), anyList(), any(Object[].class))).thenReturn(List.of(0L, 2L));
+
+        String result = cartService.checkout(1001L, List.of(new CartItem(1L, 1), new CartItem(2L, 5)));
+
+        assertEquals("結帳失敗，商品 2 庫存不足", result);
+        verify(kafkaService).sendFailureLog(1001L, 2L, "OUT_OF_STOCK");
+        verify(kafkaService, never()).sendCartOrderMessage(anyLong(), any(UUID.class), anyList());
+    }
+
+    @Test
+    @DisplayName("測試格式錯誤的購物車不會打 Redis")
+    void testCheckout_InvalidCart() {
+        assertEquals("結帳失敗，購物車內容錯誤", cartService.checkout(1001L, List.of()));
+        assertEquals("結帳失敗，購物車內容錯誤", cartService.checkout(1001L, List.of(new CartItem(1L, 0))));
+
+        verifyNoInteractions(stringRedisTemplate, kafkaService);
+    }
+
+    @Test
+    @DisplayName("測試 Kafka 送單失敗時整車庫存只補回一次，不會再跑扣庫存關卡的 rollback")
+    void testCheckout_SendFailedRefundsOnce() {
+        when(stringRedisTemplate.execute(eq(cartCheckoutScript), anyList(), any(Object[].class))).thenReturn(List.of(1L, 0L));
+        when(kafkaService.sendCartOrderMessage(eq(1001L), any(UUID.class), anyList()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+        when(reactiveStringRedisTemplate.execute(eq(stockRefundScript), anyList(), anyList())).thenReturn(Flux.just(1L));
+
+        String result = cartService.checkout(1001L, List.of(new CartItem(1L, 1), new CartItem(2L, 2)));
+
+        assertEquals("結帳成功，訂單處理中...", result);
+        verify(reactiveStringRedisTemplate, times(1)).execute(eq(stockRefundScript), anyList(), anyList());
+        verify(reactiveStringRedisTemplate).execute(stockRefundScript,
+                List.of("product:stock:{sale}:1", "product:stock:{sale}:2"), List.of("1001", "1", "2"));
+        verify(hazelcastService).broadcastStockReturned(1L);
+        verify(hazelcastService).broadcastStockReturned(2L);
+    }
+
+    @Test
+    @DisplayName("測試 Kafka send() 直接丟例外時整車補回庫存、還回前面的關卡，回結帳失敗")
+    void testCheckout_SendThrowsRefundsAndFails() {
+        when(stringRedisTemplate.execute(eq(cartCheckoutScript), anyList(), any(Object[].class))).thenReturn(List.of(1L, 0L));
+        when(kafkaService.sendCartOrderMessage(eq(1001L), any(UUID.class), anyList()))
+                .thenThrow(new IllegalStateException("buffer exhausted"));
+        when(reactiveStringRedisTemplate.execute(eq(stockRefundScript), anyList(), anyList())).thenReturn(Flux.just(1L));
+
+        String result = cartService.checkout(1001L, List.of(new CartItem(1L, 1), new CartItem(2L, 2)));
+
+        assertEquals("結帳失敗，系統忙碌中", result);
+        verify(reactiveStringRedisTemplate, times(1)).execute(stockRefundScript,
+                List.of("product:stock:{sale}:1", "product:stock:{sale}:2"), List.of("1001", "1", "2"));
+        verify(hazelcastService).broadcastStockReturned(1L);
+        verify(hazelcastService).broadcastStockReturned(2L);
+    }
+}
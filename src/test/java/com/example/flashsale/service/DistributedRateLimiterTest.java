@@ -0,0 +1,161 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.config.RateLimitProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisKeyCommands;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DistributedRateLimiterTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    private RateLimitProperties properties;
+    private DistributedRateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        properties = new RateLimitProperties();
+        properties.setWindowMs(1000);
+        properties.setUserLimit(3);
+        rateLimiter = new DistributedRateLimiter(stringRedisTemplate, properties);
+    }
+
+    @Test
+    @DisplayName("本機快速路徑：同一個視窗內剛好放行上限次數")
+    void localLimitIsExact() {
+        long now = 10_000;
+        assertTrue(rateLimiter.tryAcquireUser(1001L, now));
+        assertTrue(rateLimiter.tryAcquireUser(1001L, now));
+        assertTrue(rateLimiter.tryAcquireUser(1001L, now));
+        assertFalse(rateLimiter.tryAcquireUser(1001L, now));
+
+        // 其他用戶不受影響，個別覆寫的上限也會生效
+        properties.getUserOverrides().put(1002L, 1);
+        assertTrue(rateLimiter.tryAcquireUser(1002L, now));
+        assertFalse(rateLimiter.tryAcquireUser(1002L, now));
+    }
+
+    @Test
+    @DisplayName("滑動視窗：上個視窗的次數依剩餘比例算進來")
+    void previousWindowIsWeighted() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(rateLimiter.tryAcquireUser(1001L, 10_000));
+        }
+        // 下個視窗剛開始：上個視窗 3 次 x 90% ≈ 2，只剩 1 次
+        assertTrue(rateLimiter.tryAcquireUser(1001L, 11_100));
+        assertFalse(rateLimiter.tryAcquireUser(1001L, 11_100));
+        // 下個視窗快結束：上個視窗幾乎不算了
+        assertTrue(rateLimiter.tryAcquireUser(1001L, 11_990));
+    }
+
+    @Test
+    @DisplayName("對帳：Redis 回傳的叢集總數會擋下本機的請求")
+    @SuppressWarnings("unchecked")
+    void syncAppliesClusterCount() {
+        long now = 10_000;
+        assertTrue(rateLimiter.tryAcquireUser(1001L, now));
+
+        // 其他節點已經替這個用戶放行了 2 次，INCRBY 後叢集總數 = 3
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenReturn(List.of(3L, true));
+        rateLimiter.sync(now + 100);
+
+        assertFalse(rateLimiter.tryAcquireUser(1001L, now + 200));
+    }
+
+    @Test
+    @DisplayName("對帳：沒有新增次數的 Key 不送 INCRBY，離上限還遠就整個跳過，接近上限才 GET 讀回叢集總數")
+    @SuppressWarnings("unchecked")
+    void syncSkipsIdleKeysAndReadsOnlyNearLimit() {
+        properties.setUserLimit(4);
+        long now = 10_000;
+        RedisConnection connection = mock(RedisConnection.class);
+        RedisStringCommands stringCommands = mock(RedisStringCommands.class);
+        RedisKeyCommands keyCommands = mock(RedisKeyCommands.class);
+        when(connection.stringCommands()).thenReturn(stringCommands);
+        when(connection.keyCommands()).thenReturn(keyCommands);
+        List<List<Object>> results = new ArrayList<>(List.of(
+                List.of(1L, true),   // 用戶 1001 第一次回報：INCRBY + PEXPIRE
+                List.of(2L),         // 用戶 1001 第二次回報：這個視窗已經設過 PEXPIRE
+                List.of("4")));      // 用戶 1001 沒新增次數但接近上限：GET 讀到其他節點又放了 2 次
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection);
+            return results.remove(0);
+        });
+        byte[] key = ("rate:user:1001:" + now / 1000).getBytes(StandardCharsets.UTF_8);
+
+        assertTrue(rateLimiter.tryAcquireUser(1001L, now));
+        rateLimiter.sync(now + 10);
+        // 估計值 1 < 上限 4 x 0.5：不用對帳
+        rateLimiter.sync(now + 20);
+        verify(stringRedisTemplate, times(1)).executePipelined(any(RedisCallback.class));
+
+        assertTrue(rateLimiter.tryAcquireUser(1001L, now + 30));
+        rateLimiter.sync(now + 40);
+        verify(keyCommands, times(1)).pExpire(key, 2000);
+
+        // 估計值 2 >= 4 x 0.5：沒新增次數也讀回叢集總數
+        rateLimiter.sync(now + 50);
+        verify(stringCommands).get(key);
+        verify(stringCommands, times(2)).incrBy(eq(key), anyLong());
+        assertFalse(rateLimiter.tryAcquireUser(1001L, now + 60));
+    }
+
+    @Test
+    @DisplayName("商品上限為 0 代表不限流")
+    void zeroLimitMeansUnlimited() {
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(rateLimiter.tryAcquireProduct(1L, 10_000));
+        }
+    }
+
+    @Test
+    @DisplayName("多執行緒同時搶：本機放行次數不會超過上限")
+    void concurrentAcquireNeverExceedsLimit() throws Exception {
+        properties.setUserLimit(100);
+        int threads = 8;
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 1000; i++) {
+                    if (rateLimiter.tryAcquireUser(1001L, 10_000)) {
+                        admitted.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(100, admitted.get());
+    }
+}
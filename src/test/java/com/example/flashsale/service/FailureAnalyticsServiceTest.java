@@ -0,0 +1,90 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.document.FailureLog;
+import com.example.flashsale.document.FailureRollup;
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FailureAnalyticsServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    @InjectMocks
+    private FailureAnalyticsService failureAnalyticsService;
+
+    @Test
+    @DisplayName("測試同一分鐘、同原因、同商品的日誌先在記憶體合併，一組只送一個 $inc Upsert")
+    void testRecord_CoalescesPerMinuteReasonAndProduct() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FailureRollup.class)).thenReturn(bulkOperations);
+        LocalDateTime minute = LocalDateTime.of(2026, 10, 18, 12, 30);
+
+        failureAnalyticsService.record(List.of(
+                failure("OUT_OF_STOCK", 1L, minute.plusSeconds(1)),
+                failure("OUT_OF_STOCK", 1L, minute.plusSeconds(59)),
+                failure("OUT_OF_STOCK", 1L, minute.plusSeconds(30)),
+                failure("BLACKLIST_HIT", 1L, minute.plusSeconds(5)),
+                // 下一分鐘
+                failure("OUT_OF_STOCK", 1L, minute.plusMinutes(1))));
+
+        verify(bulkOperations, times(3)).upsert(any(Query.class), any(Update.class));
+        // 12:30 的三筆 OUT_OF_STOCK 合併成一個 $inc 3
+        Query firstMinute = Query.query(Criteria.where("_id").is("202610181230:OUT_OF_STOCK:1"));
+        verify(bulkOperations).upsert(eq(firstMinute), argThat((Update update) ->
+                update.getUpdateObject().get("$inc", Document.class).get("count").equals(3L)));
+        verify(bulkOperations).execute();
+    }
+
+    @Test
+    @DisplayName("測試統計只讀 Rollup，依原因 / 商品 / 分鐘加總")
+    void testSummarize_SumsRollups() {
+        LocalDateTime minute = LocalDateTime.of(2026, 10, 18, 12, 30);
+        when(mongoTemplate.find(any(Query.class), eq(FailureRollup.class))).thenReturn(List.of(
+                rollup("OUT_OF_STOCK", 1L, minute, 120),
+                rollup("OUT_OF_STOCK", 2L, minute, 30),
+                rollup("BLACKLIST_HIT", 1L, minute.plusMinutes(1), 2)));
+
+        FailureAnalyticsService.FailureSummary summary = failureAnalyticsService.summarize(minute, null, null);
+
+        assertEquals(152, summary.total());
+        assertEquals(150L, summary.byReason().get("OUT_OF_STOCK"));
+        assertEquals(122L, summary.byProduct().get(1L));
+        assertEquals(150L, summary.byMinute().get(minute));
+        verify(mongoTemplate, never()).aggregate(any(), any(String.class), any());
+    }
+
+    private static FailureLog failure(String reason, Long productId, LocalDateTime at) {
+        return FailureLog.builder().userId(1L).productId(productId).reason(reason).failedAt(at).build();
+    }
+
+    private static FailureRollup rollup(String reason, Long productId, LocalDateTime bucket, long count) {
+        FailureRollup rollup = new FailureRollup();
+        rollup.setReason(reason);
+        rollup.setProductId(productId);
+        rollup.setBucket(bucket);
+        rollup.setCount(count);
+        return rollup;
+    }
+}
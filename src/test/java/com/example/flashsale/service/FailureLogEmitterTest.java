@@ -0,0 +1,113 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.DTO.FailureLogEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FailureLogEmitterTest {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @Mock
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @Test
+    @DisplayName("測試佇列滿了時同商品同原因合併成一筆帶 count 的事件，總數不會少")
+    void testEmit_CoalescesWhenFull() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // 不呼叫 start()：由測試自己 drainOnce
+        FailureLogEmitter emitter = new FailureLogEmitter(kafkaTemplate, objectMapper, meterRegistry,
+                2, FailureLogEmitter.OverflowPolicy.COALESCE, 16, 100, 1);
+
+        for (long userId = 1; userId <= 5; userId++) {
+            emitter.emit(userId, 7L, "OUT_OF_STOCK");
+        }
+        assertEquals(3, meterRegistry.counter("flashsale.failurelog.emitter.coalesced").count());
+
+        assertEquals(3, emitter.drainOnce());
+
+        ArgumentCaptor<String> messages = ArgumentCaptor.forClass(String.class);
+        verify(kafkaTemplate, times(3)).send(eq(FailureLogEmitter.TOPIC_FAILURE), messages.capture());
+        List<FailureLogEvent> events = new ArrayList<>();
+        for (String message : messages.getAllValues()) {
+            events.add(objectMapper.readValue(message, FailureLogEvent.class));
+        }
+        // 前兩筆是明細，第三筆是合併的 3 筆
+        assertEquals(1L, events.get(0).getUserId());
+        assertEquals(2L, events.get(1).getUserId());
+        FailureLogEvent coalesced = events.get(2);
+        assertNull(coalesced.getUserId());
+        assertEquals(7L, coalesced.getProductId());
+        assertEquals("OUT_OF_STOCK", coalesced.getReason());
+        assertEquals(3, coalesced.getCount());
+        assertEquals(5, events.stream().mapToInt(FailureLogEvent::getCount).sum());
+    }
+
+    @Test
+    @DisplayName("測試 DROP 模式佇列滿了直接丟掉，只記數")
+    void testEmit_DropsWhenFull() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        FailureLogEmitter emitter = new FailureLogEmitter(kafkaTemplate, objectMapper, meterRegistry,
+                2, FailureLogEmitter.OverflowPolicy.DROP, 16, 100, 1);
+
+        for (long userId = 1; userId <= 5; userId++) {
+            emitter.emit(userId, null, "RATE_LIMITED");
+        }
+
+        assertEquals(3, meterRegistry.counter("flashsale.failurelog.emitter.dropped").count());
+        assertEquals(2, emitter.drainOnce());
+    }
+
+    @Test
+    @DisplayName("測試合併表每次送出後換一張空表，表滿過之後新的商品還是能合併")
+    void testEmit_CoalesceTableReusedAfterFlush() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // 佇列 2 格、合併表 2 格
+        FailureLogEmitter emitter = new FailureLogEmitter(kafkaTemplate, objectMapper, meterRegistry,
+                2, FailureLogEmitter.OverflowPolicy.COALESCE, 2, 100, 1);
+
+        emitter.emit(1L, 1L, "OUT_OF_STOCK");
+        emitter.emit(2L, 1L, "OUT_OF_STOCK");
+        emitter.emit(3L, 1L, "OUT_OF_STOCK");
+        emitter.emit(4L, 2L, "OUT_OF_STOCK");
+        // 表滿了：商品 3 這一輪只能丟掉
+        emitter.emit(5L, 3L, "OUT_OF_STOCK");
+        assertEquals(1, meterRegistry.counter("flashsale.failurelog.emitter.dropped").count());
+        assertEquals(4, emitter.drainOnce());
+
+        // 換過表之後：商品 3、4 都合併得進去
+        for (long round = 0; round < 3; round++) {
+            emitter.emit(10L, 1L, "OUT_OF_STOCK");
+            emitter.emit(11L, 1L, "OUT_OF_STOCK");
+            emitter.emit(12L, 3L, "OUT_OF_STOCK");
+            emitter.emit(13L, 4L, "RATE_LIMITED");
+            assertEquals(4, emitter.drainOnce());
+        }
+        assertEquals(1, meterRegistry.counter("flashsale.failurelog.emitter.dropped").count());
+        assertEquals(8, meterRegistry.counter("flashsale.failurelog.emitter.coalesced").count());
+
+        ArgumentCaptor<String> messages = ArgumentCaptor.forClass(String.class);
+        verify(kafkaTemplate, times(16)).send(eq(FailureLogEmitter.TOPIC_FAILURE), messages.capture());
+        int total = 0;
+        for (String message : messages.getAllValues()) {
+            total += objectMapper.readValue(message, FailureLogEvent.class).getCount();
+        }
+        assertEquals(16, total);
+    }
+}
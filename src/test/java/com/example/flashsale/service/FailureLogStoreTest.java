@@ -0,0 +1,101 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.document.FailureLog;
+import com.example.flashsale.document.FailureLogBucket;
+import com.example.flashsale.document.FailureReason;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FailureLogStoreTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations bulkOperations;
+
+    @Test
+    @DisplayName("測試 Bucket 格式：同商品同分鐘合成一個 $push Upsert，超過 bucket-size 切成兩段")
+    void testWrite_BucketsPerProductAndMinute() {
+        FailureLogStore store = new FailureLogStore(mongoTemplate, new SimpleMeterRegistry(),
+                FailureLogStore.Storage.BUCKET, 2, 168);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FailureLogBucket.class)).thenReturn(bulkOperations);
+        LocalDateTime minute = LocalDateTime.of(2026, 10, 18, 12, 30);
+
+        store.write(List.of(
+                failure(1L, "OUT_OF_STOCK", minute.plusSeconds(1)),
+                failure(1L, "OUT_OF_STOCK", minute.plusSeconds(2)),
+                failure(1L, "BLACKLIST_HIT", minute.plusSeconds(3)),
+                failure(2L, "OUT_OF_STOCK", minute.plusSeconds(4))));
+
+        // 商品 1：3 筆切成 2 + 1；商品 2：1 筆
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations, times(3)).upsert(any(Query.class), updates.capture());
+        verify(bulkOperations).execute();
+        Document first = updates.getAllValues().get(0).getUpdateObject();
+        assertEquals(2, first.get("$inc", Document.class).get("n"));
+        assertEquals(List.of(FailureReason.OUT_OF_STOCK.code(), FailureReason.OUT_OF_STOCK.code()), pushed(first, "r"));
+        // 只存分鐘內的毫秒數
+        assertEquals(List.of(1000, 2000), pushed(first, "o"));
+        assertEquals(2L, first.get("$inc", Document.class).get("t"));
+    }
+
+    @Test
+    @DisplayName("測試合併事件的 count 也存進 Bucket，事件總數不會少算")
+    void testWrite_BucketKeepsCoalescedCount() {
+        FailureLogStore store = new FailureLogStore(mongoTemplate, new SimpleMeterRegistry(),
+                FailureLogStore.Storage.BUCKET, 10, 168);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FailureLogBucket.class)).thenReturn(bulkOperations);
+        LocalDateTime minute = LocalDateTime.of(2026, 10, 18, 12, 30);
+        FailureLog coalesced = FailureLog.builder().productId(1L).reason("OUT_OF_STOCK")
+                .failedAt(minute.plusSeconds(2)).count(250).build();
+
+        store.write(List.of(failure(1L, "OUT_OF_STOCK", minute.plusSeconds(1)), coalesced));
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations).upsert(any(Query.class), update.capture());
+        Document document = update.getValue().getUpdateObject();
+        // n 是陣列長度，t 是事件數
+        assertEquals(2, document.get("$inc", Document.class).get("n"));
+        assertEquals(251L, document.get("$inc", Document.class).get("t"));
+        assertEquals(List.of(1, 250), pushed(document, "c"));
+    }
+
+    @Test
+    @DisplayName("測試 IP 編碼成 int，格式錯誤的存 0；原因代碼可以轉回來")
+    void testEncoding() {
+        assertEquals(0xC0A80101, FailureLogStore.encodeIp("192.168.1.1"));
+        assertEquals(0, FailureLogStore.encodeIp("not-an-ip"));
+        assertEquals(0, FailureLogStore.encodeIp("1.2.3.256"));
+        assertEquals(FailureReason.RATE_LIMITED, FailureReason.of(FailureReason.RATE_LIMITED.code()));
+        assertEquals(FailureReason.UNKNOWN, FailureReason.of("SOMETHING_NEW"));
+    }
+
+    private static List<Object> pushed(Document update, String field) {
+        Update.Modifiers modifiers = (Update.Modifiers) update.get("$push", Document.class).get(field);
+        return Arrays.asList((Object[]) modifiers.getModifiers().iterator().next().getValue());
+    }
+
+    private static FailureLog failure(Long productId, String reason, LocalDateTime at) {
+        return FailureLog.builder().userId(1L).productId(productId).reason(reason)
+                .ipAddress("192.168.1.1").failedAt(at).build();
+    }
+}
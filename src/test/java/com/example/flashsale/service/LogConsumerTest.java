@@ -0,0 +1,87 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.DTO.FailureLogEvent;
+import com.example.flashsale.document.FailureLog;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LogConsumerTest {
+
+    // 跟 Spring Boot 自動建立的 ObjectMapper 一樣的模組 (FailureLogEvent 沒有無參數建構子)
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @Mock
+    private FailureLogStore failureLogStore;
+
+    @Mock
+    private FailureAnalyticsService failureAnalyticsService;
+
+    @Mock
+    private Acknowledgment ack;
+
+    @Test
+    @DisplayName("測試整批失敗日誌一次寫入，格式錯誤的略過，整批簽收")
+    @SuppressWarnings("unchecked")
+    void testConsume_BulkInsertsWholePoll() throws Exception {
+        LogConsumer logConsumer = new LogConsumer(failureLogStore, objectMapper, failureAnalyticsService, new SimpleMeterRegistry(),
+                LogConsumer.SheddingMode.NONE, 5000, 0.1);
+        long now = System.currentTimeMillis();
+
+        logConsumer.consumeFailureLogs(List.of(
+                record(0, now, new FailureLogEvent(1L, 1L, "OUT_OF_STOCK", "192.168.1.1")),
+                new ConsumerRecord<>("flash-sale-failure", 0, 1, "k", "not-json"),
+                record(2, now, new FailureLogEvent(2L, 1L, "BLACKLIST_HIT", "192.168.1.2"))), ack);
+
+        ArgumentCaptor<List<FailureLog>> docs = ArgumentCaptor.forClass(List.class);
+        verify(failureLogStore).write(docs.capture());
+        assertEquals(2, docs.getValue().size());
+        verify(ack).acknowledge();
+    }
+
+    @Test
+    @DisplayName("測試落後時丟棄低價值事件 (售完)，黑名單事件照樣寫入")
+    @SuppressWarnings("unchecked")
+    void testConsume_DropsLowValueEventsWhenLagging() throws Exception {
+        LogConsumer logConsumer = new LogConsumer(failureLogStore, objectMapper, failureAnalyticsService, new SimpleMeterRegistry(),
+                LogConsumer.SheddingMode.DROP, 5000, 0.1);
+        // 10 秒前產生的訊息 (超過 5 秒就算落後)
+        long old = System.currentTimeMillis() - 10_000;
+
+        logConsumer.consumeFailureLogs(List.of(
+                record(0, old, new FailureLogEvent(1L, 1L, "OUT_OF_STOCK", "192.168.1.1")),
+                record(1, old, new FailureLogEvent(2L, 1L, "BLACKLIST_HIT", "192.168.1.2"))), ack);
+
+        ArgumentCaptor<List<FailureLog>> docs = ArgumentCaptor.forClass(List.class);
+        verify(failureLogStore).write(docs.capture());
+        assertEquals(1, docs.getValue().size());
+        assertEquals("BLACKLIST_HIT", docs.getValue().get(0).getReason());
+        // 統計還是兩筆都算
+        verify(failureAnalyticsService).record(argThat(all -> all.size() == 2));
+        verify(ack).acknowledge();
+    }
+
+    private ConsumerRecord<String, String> record(long offset, long timestamp, FailureLogEvent event) throws Exception {
+        return new ConsumerRecord<>("flash-sale-failure", 0, offset, timestamp, TimestampType.CREATE_TIME,
+                0, 0, null, objectMapper.writeValueAsString(event), new RecordHeaders(),
+                Optional.empty());
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.DTO.CartItem;
+import com.example.flashsale.DTO.OrderMessage;
+import com.example.flashsale.model.Order;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OrderBatchConsumerTest {
+
+    @Mock
+    private OrderBatchWriter orderBatchWriter;
+
+    @Mock
+    private StockReservationService stockReservationService;
+
+    @Mock
+    private OrderPartitionMetrics orderPartitionMetrics;
+
+    @Mock
+    private Acknowledgment ack;
+
+    private OrderBatchConsumer consumer;
+
+    @BeforeEach
+    void setUp() {
+        consumer = new OrderBatchConsumer(orderBatchWriter, stockReservationService, orderPartitionMetrics, 500);
+    }
+
+    @Test
+    @DisplayName("測試整批寫入成功才簽收，購物車訂單拆成每個品項一筆且不走預留")
+    @SuppressWarnings("unchecked")
+    void testHandleOrders_PersistsAndAcknowledges() {
+        UUID single = UUID.randomUUID();
+        UUID cart = UUID.randomUUID();
+        when(stockReservationService.holdAll(anyList())).thenReturn(List.of());
+        when(orderBatchWriter.persist(anyList())).thenReturn(3);
+
+        consumer.handleOrders(List.of(
+                record(0, 10, new OrderMessage(1001L, 1L, single, 0L)),
+                record(0, 11, null),
+                record(1, 20, new OrderMessage(1002L, cart, List.of(new CartItem(1L, 2), new CartItem(2L, 1)), 0L))
+        ), ack);
+
+        ArgumentCaptor<List<Order>> persisted = ArgumentCaptor.forClass(List.class);
+        verify(orderBatchWriter).persist(persisted.capture());
+        assertEquals(List.of(single.toString(), cart + "-1", cart + "-2"),
+                persisted.getValue().stream().map(Order::getOrderNo).toList());
+        assertEquals(2, persisted.getValue().get(1).getQuantity());
+
+        ArgumentCaptor<List<Order>> confirmed = ArgumentCaptor.forClass(List.class);
+        verify(stockReservationService).confirmOrders(confirmed.capture());
+        assertEquals(List.of(single.toString()), confirmed.getValue().stream().map(Order::getOrderNo).toList());
+        verify(ack).acknowledge();
+        verify(ack, never()).nack(anyInt(), any(Duration.class));
+        verify(orderPartitionMetrics).recordCommit(eq(0), anyLong());
+        verify(orderPartitionMetrics).recordCommit(eq(1), anyLong());
+    }
+
+    @Test
+    @DisplayName("測試預留已逾時的訂單不寫入")
+    @SuppressWarnings("unchecked")
+    void testHandleOrders_SkipsExpiredReservations() {
+        OrderMessage expired = new OrderMessage(1001L, 1L, UUID.randomUUID(), 0L);
+        OrderMessage alive = new OrderMessage(1002L, 1L, UUID.randomUUID(), 0L);
+        when(stockReservationService.holdAll(anyList())).thenAnswer(invocation -> {
+            List<Order> orders = invocation.getArgument(0);
+            return List.of(orders.get(0));
+        });
+        when(orderBatchWriter.persist(anyList())).thenReturn(1);
+
+        consumer.handleOrders(List.of(record(0, 1, expired), record(0, 2, alive)), ack);
+
+        ArgumentCaptor<List<Order>> persisted = ArgumentCaptor.forClass(List.class);
+        verify(orderBatchWriter).persist(persisted.capture());
+        assertEquals(List.of(alive.getOrderNo()), persisted.getValue().stream().map(Order::getOrderNo).toList());
+        verify(ack).acknowledge();
+    }
+
+    @Test
+    @DisplayName("測試寫入失敗時 nack 整批 (不簽收、不提交到這批後面)，等下一輪重新 poll")
+    void testHandleOrders_NacksWholeBatchOnFailure() {
+        when(stockReservationService.holdAll(anyList())).thenReturn(List.of());
+        when(orderBatchWriter.persist(anyList())).thenThrow(new CannotAcquireLockException("deadlock"));
+
+        consumer.handleOrders(List.of(
+                record(0, 1, new OrderMessage(1001L, 1L, UUID.randomUUID(), 0L)),
+                record(2, 7, new OrderMessage(1002L, 2L, UUID.randomUUID(), 0L))
+        ), ack);
+
+        verify(ack).nack(0, Duration.ofMillis(500));
+        verify(ack, never()).acknowledge();
+        verify(stockReservationService, never()).confirmOrders(anyList());
+        verify(orderPartitionMetrics, never()).recordCommit(anyInt(), anyLong());
+    }
+
+    private static ConsumerRecord<String, OrderMessage> record(int partition, long offset, OrderMessage message) {
+        return new ConsumerRecord<>(OrderLagProbe.ORDER_TOPIC, partition, offset, null, message);
+    }
+}
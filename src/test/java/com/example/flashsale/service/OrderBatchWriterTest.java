@@ -0,0 +1,131 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.model.Order;
+import com.example.flashsale.repository.OrderRepository;
+import com.example.flashsale.repository.ProductRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OrderBatchWriterTest {
+
+    private static final LocalDateTime CREATED = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    @Mock
+    private OrderRepository orderRepository;
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @InjectMocks
+    private OrderBatchWriter orderBatchWriter;
+
+    @Test
+    @DisplayName("測試同商品的扣庫存合併成一條 UPDATE，訂單用一次 JDBC Batch Insert 寫入")
+    @SuppressWarnings("unchecked")
+    void testPersist_MergesStockAndBatchInserts() throws Exception {
+        when(orderRepository.findExistingOrderNos(anyCollection())).thenReturn(List.of());
+        when(productRepository.decreaseStockBy(anyLong(), anyInt())).thenReturn(1);
+
+        int saved = orderBatchWriter.persist(List.of(
+                order("a", 1L, 1), order("b", 2L, 1), order("c", 1L, 2), order("d", 1L, 1)));
+
+        assertEquals(4, saved);
+        verify(productRepository).decreaseStockBy(1L, 4);
+        verify(productRepository).decreaseStockBy(2L, 1);
+        verifyNoMoreInteractions(productRepository);
+
+        ArgumentCaptor<Collection<Order>> inserted = ArgumentCaptor.forClass(Collection.class);
+        ArgumentCaptor<ParameterizedPreparedStatementSetter<Order>> setter =
+                ArgumentCaptor.forClass(ParameterizedPreparedStatementSetter.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("INSERT INTO orders"), inserted.capture(), eq(4), setter.capture());
+        // 依商品分組後的順序
+        assertEquals(List.of("a", "c", "d", "b"), inserted.getValue().stream().map(Order::getOrderNo).toList());
+
+        PreparedStatement ps = mock(PreparedStatement.class);
+        setter.getValue().setValues(ps, order("c", 1L, 2));
+        verify(ps).setLong(1, 1L);
+        verify(ps).setLong(2, 1001L);
+        verify(ps).setString(3, "c");
+        verify(ps).setInt(4, 2);
+        verify(ps).setTimestamp(5, Timestamp.valueOf(CREATED));
+    }
+
+    @Test
+    @DisplayName("測試批次內重複和 DB 已存在的 order_no 都會被剔除 (冪等性)")
+    void testPersist_SkipsDuplicates() {
+        List<String> queried = new ArrayList<>();
+        when(orderRepository.findExistingOrderNos(anyCollection())).thenAnswer(invocation -> {
+            queried.addAll(invocation.<Collection<String>>getArgument(0));
+            return List.of("a");
+        });
+        when(productRepository.decreaseStockBy(anyLong(), anyInt())).thenReturn(1);
+
+        int saved = orderBatchWriter.persist(List.of(order("a", 1L, 1), order("b", 1L, 1), order("b", 1L, 1)));
+
+        assertEquals(1, saved);
+        // 批次內先去重，一次 IN 查詢
+        assertEquals(List.of("a", "b"), queried);
+        verify(orderRepository, times(1)).findExistingOrderNos(anyCollection());
+        verify(productRepository).decreaseStockBy(1L, 1);
+        verify(jdbcTemplate).batchUpdate(anyString(), argThat((Collection<Order> orders) ->
+                orders.size() == 1 && orders.iterator().next().getOrderNo().equals("b")), eq(1), any());
+    }
+
+    @Test
+    @DisplayName("測試全部重複時不扣庫存也不寫入")
+    void testPersist_AllDuplicates() {
+        when(orderRepository.findExistingOrderNos(anyCollection())).thenReturn(List.of("a"));
+
+        assertEquals(0, orderBatchWriter.persist(List.of(order("a", 1L, 1))));
+
+        verifyNoInteractions(productRepository, jdbcTemplate);
+    }
+
+    @Test
+    @DisplayName("測試 MySQL 庫存不夠整批扣時，只建立放得下的訂單")
+    void testPersist_PartialStock() {
+        when(orderRepository.findExistingOrderNos(anyCollection())).thenReturn(List.of());
+        when(productRepository.decreaseStockBy(1L, 5)).thenReturn(0);
+        when(productRepository.findStockById(1L)).thenReturn(3);
+        when(productRepository.decreaseStockBy(1L, 3)).thenReturn(1);
+
+        int saved = orderBatchWriter.persist(List.of(order("a", 1L, 2), order("b", 1L, 2), order("c", 1L, 1)));
+
+        // a (2) + c (1) 剛好 3 件，b 放不下
+        assertEquals(2, saved);
+        verify(jdbcTemplate).batchUpdate(anyString(), argThat((Collection<Order> orders) ->
+                orders.stream().map(Order::getOrderNo).toList().equals(List.of("a", "c"))), eq(2), any());
+    }
+
+    private static Order order(String orderNo, Long productId, int quantity) {
+        Order order = new Order();
+        order.setOrderNo(orderNo);
+        order.setProductId(productId);
+        order.setUserId(1001L);
+        order.setQuantity(quantity);
+        order.setCreateTime(CREATED);
+        return order;
+    }
+}
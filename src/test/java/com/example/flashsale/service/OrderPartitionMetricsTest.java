@@ -0,0 +1,81 @@
+package com.example.flashsale.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OrderPartitionMetricsTest {
+
+    @Mock
+    private OrderLagProbe orderLagProbe;
+
+    @Mock
+    private Acknowledgment ack;
+
+    @Test
+    @DisplayName("測試處理筆數、提交時間、Lag 都依 Partition 分開記錄")
+    void testMetricsPerPartition() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        OrderPartitionMetrics metrics = new OrderPartitionMetrics(meterRegistry, orderLagProbe);
+
+        metrics.recordConsume(0, 1_000_000);
+        metrics.recordConsume(0, 2_000_000);
+        metrics.recordConsume(3, 1_000_000);
+        metrics.acknowledge(3, ack);
+
+        verify(ack).acknowledge();
+        assertEquals(2, meterRegistry.get("flashsale.order.consume").tag("partition", "0").timer().count());
+        assertEquals(1, meterRegistry.get("flashsale.order.consume").tag("partition", "3").timer().count());
+        assertEquals(1, meterRegistry.get("flashsale.order.commit").tag("partition", "3").timer().count());
+
+        when(orderLagProbe.lagByPartition()).thenReturn(Map.of(
+                new TopicPartition(OrderLagProbe.ORDER_TOPIC, 0), 120L,
+                new TopicPartition(OrderLagProbe.ORDER_TOPIC, 3), 0L));
+        metrics.updateLag();
+        assertEquals(120, meterRegistry.get("flashsale.order.lag").tag("partition", "0").gauge().value());
+
+        // 再查一次：同一個 Gauge 更新數值，不會重複註冊
+        when(orderLagProbe.lagByPartition()).thenReturn(Map.of(new TopicPartition(OrderLagProbe.ORDER_TOPIC, 0), 5L));
+        metrics.updateLag();
+        assertEquals(5, meterRegistry.get("flashsale.order.lag").tag("partition", "0").gauge().value());
+        assertEquals(2, meterRegistry.find("flashsale.order.lag").gauges().size());
+    }
+
+    @Test
+    @DisplayName("測試查 Lag 卡住時排程馬上返回，上一次還沒查完就跳過這一次")
+    void testRefreshLag_RunsOffSchedulerThread() throws Exception {
+        OrderPartitionMetrics metrics = new OrderPartitionMetrics(new SimpleMeterRegistry(), orderLagProbe);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch kafkaDown = new CountDownLatch(1);
+        when(orderLagProbe.lagByPartition()).thenAnswer(invocation -> {
+            started.countDown();
+            kafkaDown.await();
+            return Map.of();
+        });
+
+        try {
+            metrics.refreshLag();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            // 第一次還卡著：這次直接丟掉，排程執行緒不用等
+            metrics.refreshLag();
+            verify(orderLagProbe, times(1)).lagByPartition();
+        } finally {
+            kafkaDown.countDown();
+            metrics.shutdown();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.model.Product;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ProductCacheTest {
+
+    @Mock
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Mock
+    private ValueOperations<String, Object> valueOperations;
+
+    @Mock
+    private HazelcastService hazelcastService;
+
+    private ProductCache productCache;
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        productCache = new ProductCache(redisTemplate, hazelcastService, new SimpleMeterRegistry(),
+                10000, 5000, 600000, 0.1, 60000, 1.0);
+    }
+
+    @Test
+    @DisplayName("測試快取過期時，同時湧入的請求只有一個去查 MySQL")
+    void testGet_SingleFlight() throws Exception {
+        Product product = new Product();
+        product.setId(1L);
+
+        AtomicInteger dbCalls = new AtomicInteger();
+        CountDownLatch loaderStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoader = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Product>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> productCache.get(1L, id -> {
+                    dbCalls.incrementAndGet();
+                    loaderStarted.countDown();
+                    await(releaseLoader);
+                    return product;
+                })));
+            }
+
+            // 等第一個請求進入 MySQL 查詢，再讓其他請求有時間排到它後面
+            loaderStarted.await(5, TimeUnit.SECONDS);
+            Thread.sleep(200);
+            releaseLoader.countDown();
+
+            for (Future<Product> result : results) {
+                assertEquals(product, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, dbCalls.get());
+    }
+
+    @Test
+    @DisplayName("測試不存在的商品 ID 會被負快取，不會重複查 MySQL")
+    void testGet_NegativeCaching() {
+        AtomicInteger dbCalls = new AtomicInteger();
+
+        assertNull(productCache.get(999L, id -> {
+            dbCalls.incrementAndGet();
+            return null;
+        }));
+        assertNull(productCache.get(999L, id -> {
+            dbCalls.incrementAndGet();
+            return null;
+        }));
+
+        assertEquals(1, dbCalls.get());
+        // 負快取也會寫進 Redis (短 TTL)，其他節點同樣受保護
+        verify(valueOperations).set(eq("product:999"), any(), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.repository.ProductRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProductIdFilterTest {
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private HazelcastService hazelcastService;
+
+    @Test
+    @DisplayName("測試重建途中新增的商品 ID 切換之後還在")
+    void testRebuild_KeepsIdsAddedDuringScan() {
+        ProductIdFilter productIdFilter = new ProductIdFilter(productRepository, hazelcastService,
+                new SimpleMeterRegistry(), 1000, 0.001);
+        when(productRepository.count()).thenReturn(2L);
+        // 撈 MySQL 的時候另一個請求 Commit 了商品 99 (掃描已經過了它的位置)
+        when(productRepository.findIdsAfter(eq(0L), any(Pageable.class))).thenAnswer(invocation -> {
+            productIdFilter.add(99L);
+            return List.of(1L, 2L);
+        });
+
+        productIdFilter.rebuild();
+
+        assertTrue(productIdFilter.mightContain(1L));
+        assertTrue(productIdFilter.mightContain(2L));
+        assertTrue(productIdFilter.mightContain(99L));
+        assertFalse(productIdFilter.mightContain(12345L));
+    }
+}
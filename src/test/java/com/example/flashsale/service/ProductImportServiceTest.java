@@ -0,0 +1,100 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.repository.ProductRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ProductImportServiceTest {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private StockWarmer stockWarmer;
+
+    @Mock
+    private HazelcastService hazelcastService;
+
+    private ProductImportService productImportService;
+
+    @BeforeEach
+    void setUp() {
+        // 每 2 筆一個 chunk
+        productImportService = new ProductImportService(productRepository, jdbcTemplate, stockWarmer,
+                hazelcastService, objectMapper, 2);
+    }
+
+    @Test
+    @DisplayName("測試 CSV 解析：商品名稱可以含逗號，數字欄位錯誤的行不匯入")
+    void testParseCsvLine() {
+        assertEquals("iPhone 15, 256GB", ProductImportService.parseCsvLine("\"iPhone 15, 256GB\",32900,100").getName());
+        assertEquals(100, ProductImportService.parseCsvLine("AirPods,5990,100").getStock());
+        assertNull(ProductImportService.parseCsvLine("name,price,stock"));
+        assertNull(ProductImportService.parseCsvLine("AirPods,5990,-1"));
+    }
+
+    @Test
+    @DisplayName("測試 JSON 分批寫入：欄位型別錯誤的物件算略過，寫完只預熱匯入前最大 ID 之後的商品")
+    void testImportJson_RejectsBadObjectAndWarmsUpAfterId() throws Exception {
+        String json = """
+                [{"name": "A", "price": 1, "stock": 1},
+                 {"name": "B", "price": 1, "stock": "many"},
+                 {"name": "C", "price": 1, "stock": 3},
+                 {"name": "D", "price": 1, "stock": 4},
+                 {"name": "E", "price": 1, "stock": -1}]
+                """;
+        when(productRepository.findMaxId()).thenReturn(10L);
+
+        ProductImportService.ImportReport report = productImportService.importProducts(stream(json), "products.json");
+
+        assertEquals(3, report.inserted());
+        assertEquals(2, report.rejected());
+        // 2 + 1：滿一個 chunk 寫一次，最後再寫剩下的
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), anyCollection(), anyInt(), any());
+        verify(stockWarmer).warmUp(10L);
+        verify(hazelcastService).publishProductChanged(HazelcastService.ALL_PRODUCTS);
+    }
+
+    @Test
+    @DisplayName("測試 JSON 讀到一半壞掉：已經寫入的 chunk 照樣預熱並通知其他節點")
+    void testImportJson_WarmsUpCommittedChunksOnFailure() {
+        String json = """
+                [{"name": "A", "price": 1, "stock": 1},
+                 {"name": "B", "price": 1, "stock": 2},
+                 {"name": "C", "price": 1, "stock":
+                """;
+        when(productRepository.findMaxId()).thenReturn(10L);
+
+        assertThrows(IOException.class, () -> productImportService.importProducts(stream(json), "products.json"));
+
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), anyCollection(), anyInt(), any());
+        verify(stockWarmer).warmUp(10L);
+        verify(hazelcastService).publishProductChanged(HazelcastService.ALL_PRODUCTS);
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
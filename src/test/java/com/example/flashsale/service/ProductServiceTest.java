@@ -1,15 +1,46 @@
 package com.example.flashsale.service;
 
+import com.example.flashsale.model.Product;
+import com.example.flashsale.repository.ProductRepository;
+import com.example.flashsale.service.admission.AdmissionPipeline;
+import com.example.flashsale.service.admission.BlacklistStage;
+import com.example.flashsale.service.admission.ProductIdStage;
+import com.example.flashsale.service.admission.StockStage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.MockedConstruction;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -17,35 +48,84 @@ import static org.mockito.Mockito.*;
 class ProductServiceTest {
 
     @Mock
-    private RedisTemplate<String, Object> redisTemplate;
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
 
     @Mock
     private KafkaService kafkaService;
 
-    // 由於 ProductService 現在有 @RequiredArgsConstructor (建構子)，
-    // @InjectMocks 會自動把這個 stockScript 注入進去。
     @Mock
     private RedisScript<Long> stockScript;
 
+    @Mock
+    private RedisScript<Long> stockRefundScript;
+
+    @Mock
+    private HazelcastService hazelcastService;
+
+    // 預設 isEnabled() 回傳 false，走 direct 模式 (每單一次 Lua)
+    @Mock
+    private StockLeaseManager stockLeaseManager;
+
+    @Mock
+    private ProductIdFilter productIdFilter;
+
+    // 預設 isEnabled() 回傳 false，扣到的庫存直接算賣出
+    @Mock
+    private StockReservationService stockReservationService;
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private ProductCache productCache;
+
+    @Mock
+    private StockShardManager stockShardManager;
+
+    // 售罄旗標是純本機記憶體，直接用真的物件
+    @Spy
+    private SoldOutCache soldOutCache = new SoldOutCache();
+
+    private final StockKeys stockKeys = new StockKeys("", 1);
+
     @InjectMocks
     private ProductService productService;
 
+    @BeforeEach
+    void setUp() {
+        // 准入流程用真的關卡，底下的 Redis / Hazelcast 才是 Mock
+        AdmissionPipeline admissionPipeline = new AdmissionPipeline(List.of(
+                new ProductIdStage(productIdFilter),
+                new BlacklistStage(hazelcastService),
+                new StockStage(stringRedisTemplate, reactiveStringRedisTemplate, stockScript, stockRefundScript,
+                        soldOutCache, stockLeaseManager, hazelcastService, stockKeys, stockReservationService, Runnable::run, true)
+        ), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(productService, "admissionPipeline", admissionPipeline);
+        ReflectionTestUtils.setField(productService, "kafkaSendExecutor", (TaskExecutor) Runnable::run);
+
+        lenient().when(productIdFilter.mightContain(anyLong())).thenReturn(true);
+    }
 
     @Test
     @DisplayName("測試搶購成功")
     void testOrderProduct_Success() {
         Long productId = 1L;
 
-        when(redisTemplate.execute(
+        when(stringRedisTemplate.execute(
                 eq(stockScript),      // 👈 指定必須是這個腳本
                 anyList(),            // Keys
                 any(Object[].class)   // Args (Varargs)
         )).thenReturn(1L);
+        when(kafkaService.sendOrderMessage(eq(productId), anyLong(), any(UUID.class)))
+                .thenReturn(new CompletableFuture<>());
 
         String result = productService.orderProduct(productId);
 
         assertEquals("搶購成功，訂單處理中...", result);
-        verify(kafkaService, times(1)).sendOrderMessage(eq(productId), anyLong(), anyString());
+        verify(kafkaService, times(1)).sendOrderMessage(eq(productId), anyLong(), any(UUID.class));
     }
 
     @Test
@@ -54,7 +134,7 @@ class ProductServiceTest {
         Long productId = 1L;
 
         // 模擬回傳 0 (搶失敗)
-        when(redisTemplate.execute(
+        when(stringRedisTemplate.execute(
                 eq(stockScript),      // 👈 指定必須是這個腳本
                 anyList(),
                 any(Object[].class)
@@ -63,6 +143,260 @@ class ProductServiceTest {
         String result = productService.orderProduct(productId);
 
         assertEquals("搶購失敗，庫存不足", result);
-        verify(kafkaService, never()).sendOrderMessage(anyLong(), anyLong(), anyString());
+        verify(kafkaService, never()).sendOrderMessage(anyLong(), anyLong(), any(UUID.class));
+    }
+
+    @Test
+    @DisplayName("測試售罄後直接在本機擋下，不再打 Redis")
+    void testOrderProduct_SoldOutShortCircuit() {
+        Long productId = 1L;
+
+        when(stringRedisTemplate.execute(
+                eq(stockScript),
+                anyList(),
+                any(Object[].class)
+        )).thenReturn(0L);
+
+        productService.orderProduct(productId);
+        String result = productService.orderProduct(productId);
+
+        assertEquals("搶購失敗，庫存不足", result);
+        // 第二次請求命中售罄旗標，Lua 腳本只被呼叫一次
+        verify(stringRedisTemplate, times(1)).execute(eq(stockScript), anyList(), any(Object[].class));
+    }
+
+    @Test
+    @DisplayName("測試黑名單用戶在扣庫存之前就被擋下")
+    void testOrderProduct_BlacklistedBeforeStock() {
+        Long productId = 1L;
+        when(hazelcastService.isBlacklisted(anyLong())).thenReturn(true);
+
+        String result = productService.orderProduct(productId);
+
+        assertEquals("您的帳號異常，無法參與活動", result);
+        verify(kafkaService).sendFailureLog(anyLong(), eq(productId), eq("BLACKLIST_HIT"));
+        // 沒有吃掉任何庫存
+        verify(stringRedisTemplate, never()).execute(eq(stockScript), anyList(), any(Object[].class));
+    }
+
+    @Test
+    @DisplayName("測試不存在的商品 ID 在第一關就被擋下")
+    void testOrderProduct_UnknownProduct() {
+        Long productId = 999L;
+        when(productIdFilter.mightContain(productId)).thenReturn(false);
+
+        String result = productService.orderProduct(productId);
+
+        assertEquals("搶購失敗，商品不存在", result);
+        verifyNoInteractions(hazelcastService, stringRedisTemplate, kafkaService);
+    }
+
+    @Test
+    @DisplayName("測試 Kafka 送單失敗時把庫存和限購名額還回 Redis")
+    void testOrderProduct_KafkaFailureRefundsStock() {
+        Long productId = 1L;
+
+        when(stringRedisTemplate.execute(eq(stockScript), anyList(), any(Object[].class))).thenReturn(1L);
+        when(kafkaService.sendOrderMessage(eq(productId), anyLong(), any(UUID.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+        when(reactiveStringRedisTemplate.execute(eq(stockRefundScript), anyList(), anyList())).thenReturn(Flux.just(1L));
+
+        productService.orderProduct(productId, 1001L);
+
+        verify(reactiveStringRedisTemplate).execute(stockRefundScript,
+                List.of(stockKeys.stock(productId), stockKeys.buyers(productId)), List.of("1001", "1"));
+        verify(hazelcastService).broadcastStockReturned(productId);
+    }
+
+    @Test
+    @DisplayName("測試每人限購一件：同一個 Lua 腳本回傳 2 代表已經買過")
+    void testOrderProduct_AlreadyBought() {
+        Long productId = 1L;
+        // 庫存和購買名單在同一個腳本裡檢查，一單只打一次 Redis
+        when(stringRedisTemplate.execute(stockScript,
+                List.of(stockKeys.stock(productId), stockKeys.buyers(productId)), "1001")).thenReturn(2L);
+
+        String result = productService.orderProduct(productId, 1001L);
+
+        assertEquals("搶購失敗，每人限購一件", result);
+        verify(kafkaService).sendFailureLog(1001L, productId, "ALREADY_PURCHASED");
+        verify(kafkaService, never()).sendOrderMessage(anyLong(), anyLong(), any(UUID.class));
+        // 還有庫存，不能立售罄旗標
+        assertFalse(soldOutCache.isSoldOut(productId));
+    }
+
+    @Test
+    @DisplayName("測試庫存分片：主分片賣完時改扣其他分片")
+    void testOrderProduct_ShardFallback() {
+        Long productId = 1L;
+        Long userId = 1001L;
+        StockKeys shardedKeys = new StockKeys("", 4);
+        ReflectionTestUtils.setField(productService, "admissionPipeline", new AdmissionPipeline(List.of(
+                new ProductIdStage(productIdFilter),
+                new StockStage(stringRedisTemplate, reactiveStringRedisTemplate, stockScript, stockRefundScript,
+                        soldOutCache, stockLeaseManager, hazelcastService, shardedKeys, stockReservationService, Runnable::run, true)
+        ), new SimpleMeterRegistry()));
+        int home = shardedKeys.homeShard(userId);
+        int next = (home + 1) % 4;
+
+        SetOperations<String, String> setOperations = mock(SetOperations.class);
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        when(setOperations.add(shardedKeys.buyers(productId, home), "1001")).thenReturn(1L);
+        // 主分片 (含限購名單) 沒貨，下一個分片還有
+        when(stringRedisTemplate.execute(stockScript,
+                List.of(shardedKeys.stock(productId, home), shardedKeys.buyers(productId, home)), "1001")).thenReturn(0L);
+        when(stringRedisTemplate.execute(stockScript, List.of(shardedKeys.stock(productId, next)), "1001")).thenReturn(1L);
+        when(kafkaService.sendOrderMessage(eq(productId), eq(userId), any(UUID.class)))
+                .thenReturn(new CompletableFuture<>());
+
+        String result = productService.orderProduct(productId, userId);
+
+        assertEquals("搶購成功，訂單處理中...", result);
+        // 限購名額已經佔在主分片，成功時不能還回去
+        verify(setOperations, never()).remove(anyString(), any());
+        assertFalse(soldOutCache.isSoldOut(productId));
+    }
+
+    @Test
+    @DisplayName("測試開啟預留：扣庫存的同一個腳本記錄預留，Kafka 送失敗時歸還預留")
+    void testOrderProduct_ReservationRecordedAndReleased() {
+        Long productId = 1L;
+        when(stockReservationService.isEnabled()).thenReturn(true);
+        when(stockReservationService.deadline()).thenReturn(123L);
+        when(stringRedisTemplate.execute(eq(stockScript), anyList(), any(Object[].class))).thenReturn(1L);
+        when(kafkaService.sendOrderMessage(eq(productId), eq(1001L), any(UUID.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+        when(stockReservationService.release(eq(productId), eq(1001L), anyString())).thenReturn(Mono.just(true));
+
+        productService.orderProduct(productId, 1001L);
+
+        // 庫存 / 購買名單 / 預留三個 Key 在同一個 slot，一次腳本寫完
+        ArgumentCaptor<UUID> orderId = ArgumentCaptor.forClass(UUID.class);
+        verify(kafkaService).sendOrderMessage(eq(productId), eq(1001L), orderId.capture());
+        verify(stringRedisTemplate).execute(stockScript,
+                List.of(stockKeys.stock(productId), stockKeys.buyers(productId), stockKeys.reservations(productId, 0)),
+                "1001", orderId.getValue() + ":1001", "123");
+        // 補償走預留歸還 (已被 Reaper 收走就不會重複歸還)，不再直接補庫存
+        verify(stockReservationService).release(productId, 1001L, orderId.getValue().toString());
+        verify(reactiveStringRedisTemplate, never()).execute(eq(stockRefundScript), anyList(), anyList());
+        verify(hazelcastService).broadcastStockReturned(productId);
+    }
+
+    @Test
+    @DisplayName("測試非同步版主分片賣完時輪詢其他分片交給專用執行緒池，池子滿了回系統忙碌、不立售罄旗標")
+    void testOrderProductAsync_ShardFallbackRejectedWhenPoolFull() throws Exception {
+        Long productId = 1L;
+        StockKeys shardedKeys = new StockKeys("", 4);
+        Executor fullPool = task -> {
+            throw new RejectedExecutionException("pool full");
+        };
+        ReflectionTestUtils.setField(productService, "admissionPipeline", new AdmissionPipeline(List.of(
+                new ProductIdStage(productIdFilter),
+                new StockStage(stringRedisTemplate, reactiveStringRedisTemplate, stockScript, stockRefundScript,
+                        soldOutCache, stockLeaseManager, hazelcastService, shardedKeys, stockReservationService, fullPool, true)
+        ), new SimpleMeterRegistry()));
+        // 主分片沒貨
+        when(reactiveStringRedisTemplate.execute(eq(stockScript), anyList(), anyList())).thenReturn(Flux.just(0L));
+
+        String result = productService.orderProductAsync(productId, 1001L).get();
+
+        assertEquals("搶購失敗，系統忙碌中", result);
+        // 其他分片還沒試過，不能當成賣完
+        assertFalse(soldOutCache.isSoldOut(productId));
+        verify(stringRedisTemplate, never()).execute(eq(stockScript), anyList(), any(Object[].class));
+        verify(kafkaService, never()).sendFailureLog(anyLong(), anyLong(), anyString());
+    }
+
+    @Test
+    @DisplayName("測試非同步版 Kafka send() 直接丟例外時一樣補回庫存，不會卡在 I/O 執行緒上")
+    void testOrderProductAsync_SyncSendFailureRefundsStock() throws Exception {
+        Long productId = 1L;
+
+        when(reactiveStringRedisTemplate.execute(eq(stockScript), anyList(), anyList())).thenReturn(Flux.just(1L));
+        when(kafkaService.sendOrderMessage(eq(productId), anyLong(), any(UUID.class)))
+                .thenThrow(new IllegalStateException("buffer exhausted"));
+        when(reactiveStringRedisTemplate.execute(eq(stockRefundScript), anyList(), anyList())).thenReturn(Flux.just(1L));
+
+        String result = productService.orderProductAsync(productId, 1001L).get();
+
+        assertEquals("搶購失敗，系統忙碌中", result);
+        verify(reactiveStringRedisTemplate).execute(stockRefundScript,
+                List.of(stockKeys.stock(productId), stockKeys.buyers(productId)), List.of("1001", "1"));
+    }
+
+    @Test
+    @DisplayName("測試非同步版送 Kafka 的執行緒池滿了：不送出，補回庫存")
+    void testOrderProductAsync_SendPoolFullRefundsStock() throws Exception {
+        Long productId = 1L;
+        ReflectionTestUtils.setField(productService, "kafkaSendExecutor", (TaskExecutor) task -> {
+            throw new RejectedExecutionException("pool full");
+        });
+
+        when(reactiveStringRedisTemplate.execute(eq(stockScript), anyList(), anyList())).thenReturn(Flux.just(1L));
+        when(reactiveStringRedisTemplate.execute(eq(stockRefundScript), anyList(), anyList())).thenReturn(Flux.just(1L));
+
+        String result = productService.orderProductAsync(productId, 1001L).get();
+
+        assertEquals("搶購失敗，系統忙碌中", result);
+        verify(kafkaService, never()).sendOrderMessage(anyLong(), anyLong(), any(UUID.class));
+        verify(reactiveStringRedisTemplate).execute(stockRefundScript,
+                List.of(stockKeys.stock(productId), stockKeys.buyers(productId)), List.of("1001", "1"));
+    }
+
+    @Test
+    @DisplayName("測試建立商品時等 Transaction Commit 之後才清快取、加進 Bloom Filter")
+    void testCreateProduct_EvictsCacheAfterCommit() {
+        Product product = new Product();
+        product.setId(9L);
+        product.setStock(100);
+        when(productRepository.save(product)).thenReturn(product);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            productService.createProduct(product);
+            // 還沒 Commit：別的請求回源會查不到，這時清快取只會被寫回「不存在」
+            verify(productCache, never()).evict(anyLong());
+            verify(productIdFilter, never()).add(anyLong());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            verify(productCache).evict(9L);
+            verify(productIdFilter).add(9L);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @DisplayName("測試 ZK 鎖模式也檢查每人限購一件：鎖內先 SADD 佔名額，已經買過的不扣庫存")
+    @SuppressWarnings("unchecked")
+    void testOrderProductByZk_OnePerUser() throws Exception {
+        Long productId = 1L;
+        RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+        ValueOperations<String, Object> stockReads = mock(ValueOperations.class);
+        ValueOperations<String, String> stockWrites = mock(ValueOperations.class);
+        SetOperations<String, String> buyers = mock(SetOperations.class);
+        ReflectionTestUtils.setField(productService, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(productService, "curatorFramework", mock(CuratorFramework.class));
+        ReflectionTestUtils.setField(productService, "zkLockMetrics", new ZkLockMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(productService, "zkOrderCoalescer", mock(ZkOrderCoalescer.class));
+        ReflectionTestUtils.setField(productService, "stockKeys", stockKeys);
+        ReflectionTestUtils.setField(productService, "onePerUser", true);
+        when(redisTemplate.opsForValue()).thenReturn(stockReads);
+        when(stockReads.get(stockKeys.stock(productId))).thenReturn("3");
+        when(stringRedisTemplate.opsForValue()).thenReturn(stockWrites);
+        when(stringRedisTemplate.opsForSet()).thenReturn(buyers);
+        when(buyers.add(stockKeys.buyers(productId), "1001")).thenReturn(1L, 0L);
+        when(kafkaService.sendOrderMessage(eq(productId), eq(1001L), any(UUID.class))).thenReturn(new CompletableFuture<>());
+
+        try (MockedConstruction<InterProcessMutex> ignored = mockConstruction(InterProcessMutex.class,
+                (lock, context) -> when(lock.acquire(anyLong(), any(TimeUnit.class))).thenReturn(true))) {
+            assertEquals("搶購成功 (ZK Lock)", productService.orderProductByZk(productId, 1001L));
+            assertEquals("搶購失敗，每人限購一件", productService.orderProductByZk(productId, 1001L));
+        }
+
+        // 第二次不扣庫存、不送單
+        verify(stockWrites, times(1)).set(stockKeys.stock(productId), "2");
+        verify(kafkaService, times(1)).sendOrderMessage(eq(productId), eq(1001L), any(UUID.class));
+        verify(kafkaService).sendFailureLog(1001L, productId, "ALREADY_PURCHASED");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+package com.example.flashsale.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StockLeaseManagerTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private RedisScript<Long> stockLeaseScript;
+
+    @Mock
+    private HazelcastService hazelcastService;
+
+    private StockLeaseManager stockLeaseManager;
+
+    @BeforeEach
+    void setUp() {
+        stockLeaseManager = new StockLeaseManager(stringRedisTemplate, stockLeaseScript, hazelcastService,
+                new StockKeys("", 1), "lease", 50, 30000);
+    }
+
+    @Test
+    @DisplayName("測試租約只發放 Redis 實際給的數量 (不超賣)")
+    void testTryAcquire_NeverExceedsGrantedLease() {
+        Long productId = 1L;
+
+        // Redis 只剩 3 個：第一次租到 3，之後租不到
+        when(stringRedisTemplate.execute(eq(stockLeaseScript), anyList(), any(Object[].class)))
+                .thenReturn(3L, 0L);
+
+        assertTrue(stockLeaseManager.tryAcquire(productId));
+        assertTrue(stockLeaseManager.tryAcquire(productId));
+        assertTrue(stockLeaseManager.tryAcquire(productId));
+        assertFalse(stockLeaseManager.tryAcquire(productId));
+
+        // 3 張單只打了 1 次 Redis 租借，第 4 張才再租一次
+        verify(stringRedisTemplate, times(2)).execute(eq(stockLeaseScript), anyList(), any(Object[].class));
+    }
+
+    @Test
+    @DisplayName("測試 discard 之後舊租約作廢，手上的剩餘量不能再發")
+    void testDiscard_InvalidatesHeldBucket() {
+        Long productId = 1L;
+
+        // 先租到 10 個，discard 後 Redis 已經被覆寫成沒貨
+        when(stringRedisTemplate.execute(eq(stockLeaseScript), anyList(), any(Object[].class)))
+                .thenReturn(10L, 0L);
+        StockLeaseManager.LeaseBucket held = stockLeaseManager.acquire(productId);
+        assertNotNull(held);
+        stockLeaseManager.discard(productId);
+
+        // 還拿著舊區塊的執行緒也拿不到
+        assertFalse(held.tryTake());
+        assertFalse(stockLeaseManager.tryAcquire(productId));
+        verify(stringRedisTemplate, times(2)).execute(eq(stockLeaseScript), anyList(), any(Object[].class));
+
+        // 關機歸還時也不會把作廢的 9 個還回 Redis
+        stockLeaseManager.returnAllLeases();
+        verify(stringRedisTemplate, never()).opsForValue();
+    }
+
+    @Test
+    @DisplayName("測試 discard 之後才歸還的庫存直接丟掉，不會還到新的租約 (補貨後不超賣)")
+    void testRelease_AfterDiscardIsDropped() {
+        Long productId = 1L;
+
+        // 舊租約 1 個；補貨後新租約 2 個，之後 Redis 沒貨
+        when(stringRedisTemplate.execute(eq(stockLeaseScript), anyList(), any(Object[].class)))
+                .thenReturn(1L, 2L, 0L);
+        StockLeaseManager.LeaseBucket old = stockLeaseManager.acquire(productId);
+        assertNotNull(old);
+
+        // 還在 rollback 途中時補貨
+        stockLeaseManager.discard(productId);
+        stockLeaseManager.release(old);
+
+        // 新租約只發得出 Redis 給的 2 個
+        assertTrue(stockLeaseManager.tryAcquire(productId));
+        assertTrue(stockLeaseManager.tryAcquire(productId));
+        assertFalse(stockLeaseManager.tryAcquire(productId));
+    }
+
+    @Test
+    @DisplayName("測試沒被 discard 的租約歸還後可以再發")
+    void testRelease_ReturnsToSameBucket() {
+        Long productId = 1L;
+
+        when(stringRedisTemplate.execute(eq(stockLeaseScript), anyList(), any(Object[].class)))
+                .thenReturn(1L, 0L);
+        StockLeaseManager.LeaseBucket lease = stockLeaseManager.acquire(productId);
+        stockLeaseManager.release(lease);
+
+        assertSame(lease, stockLeaseManager.acquire(productId));
+        assertNull(stockLeaseManager.acquire(productId));
+    }
+}
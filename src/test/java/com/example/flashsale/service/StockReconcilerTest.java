@@ -0,0 +1,164 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.repository.ProductRepository;
+import com.example.flashsale.repository.ProductRepository.StockView;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StockReconcilerTest {
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private RedisScript<Long> stockLeaseScript;
+
+    @Mock
+    private StockShardManager stockShardManager;
+
+    // 預設 isEnabled() 回傳 false：沒開預留，靠 Kafka Lag 判斷
+    @Mock
+    private StockReservationService stockReservationService;
+
+    @Mock
+    private StockLeaseManager stockLeaseManager;
+
+    @Mock
+    private OrderLagProbe orderLagProbe;
+
+    @Mock
+    private HazelcastService hazelcastService;
+
+    private StockReconciler stockReconciler;
+
+    @BeforeEach
+    void setUp() {
+        stockReconciler = new StockReconciler(productRepository, stringRedisTemplate, stockLeaseScript,
+                new StockKeys("", 1), stockShardManager, stockReservationService, stockLeaseManager,
+                orderLagProbe, hazelcastService, new SimpleMeterRegistry(), true, 1000, 300000, 60000);
+    }
+
+    @Test
+    @DisplayName("測試 Kafka 還有訂單排隊時不對帳 (不確定就不動)")
+    void testReconcile_SkipsWhileOrdersInFlight() {
+        when(orderLagProbe.totalLag()).thenReturn(42L);
+
+        StockReconciler.ReconcileReport report = stockReconciler.reconcile();
+
+        assertNotNull(report.skipReason());
+        verifyNoInteractions(productRepository, stringRedisTemplate);
+    }
+
+    @Test
+    @DisplayName("測試偏差連續兩輪一樣才修正，用租借腳本扣掉多出來的庫存")
+    @SuppressWarnings("unchecked")
+    void testReconcile_CorrectsStableDriftOnly() {
+        when(orderLagProbe.totalLag()).thenReturn(0L);
+        lockAcquired();
+        // 一頁只有一個商品：MySQL 剩 10 個
+        when(productRepository.findStockAfter(anyLong(), any(Pageable.class)))
+                .thenReturn(List.of(stock(1L, 10)), List.of(), List.of(stock(1L, 10)), List.of());
+        // Redis 兩輪都是 12 (多了 2 個，會超賣)
+        // 第一輪：讀 (庫存, 上一輪偏差) -> 記下偏差；第二輪：讀到上一輪的 2 -> 腳本扣到 2 個 -> 清掉記錄
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class)))
+                .thenReturn(Arrays.asList("12", null), List.of(), List.of("12", "2"), List.of(2L), List.of());
+        when(stockLeaseScript.getScriptAsString()).thenReturn("-- stock_lease.lua");
+
+        StockReconciler.ReconcileReport first = stockReconciler.reconcile();
+        assertEquals(1, first.drifted());
+        assertEquals(0, first.corrected());
+
+        StockReconciler.ReconcileReport second = stockReconciler.reconcile();
+        assertEquals(1, second.corrected());
+        assertEquals(2, second.unitsCorrected());
+        verify(stringRedisTemplate, times(5)).executePipelined(any(RedisCallback.class));
+        // 扣庫存不用通知其他節點
+        verifyNoInteractions(hazelcastService);
+    }
+
+    @Test
+    @DisplayName("測試上一輪的偏差存在 Redis：換一個節點跑第二輪也能確認並修正")
+    @SuppressWarnings("unchecked")
+    void testReconcile_UsesDriftRecordedByOtherNode() {
+        when(orderLagProbe.totalLag()).thenReturn(0L);
+        lockAcquired();
+        when(productRepository.findStockAfter(anyLong(), any(Pageable.class)))
+                .thenReturn(List.of(stock(1L, 10)), List.of());
+        // Redis 只剩 7 個，上一輪 (別的節點) 記下的偏差也是 -3：補回 3 個
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class)))
+                .thenReturn(List.of("7", "-3"), List.of(10L), List.of());
+        when(stockLeaseScript.getScriptAsString()).thenReturn("-- stock_lease.lua");
+
+        StockReconciler.ReconcileReport report = stockReconciler.reconcile();
+
+        assertEquals(1, report.corrected());
+        assertEquals(3, report.unitsCorrected());
+        verify(hazelcastService).broadcastStockReturned(1L);
+    }
+
+    @Test
+    @DisplayName("測試開預留時 Kafka 還有訂單排隊，Redis 偏少不補 (可能是沒有預留的購物車訂單)")
+    @SuppressWarnings("unchecked")
+    void testReconcile_NoRefillWhileCartOrdersMayBeQueued() {
+        when(stockReservationService.isEnabled()).thenReturn(true);
+        when(orderLagProbe.totalLag()).thenReturn(5L);
+        lockAcquired();
+        when(productRepository.findStockAfter(anyLong(), any(Pageable.class)))
+                .thenReturn(List.of(stock(1L, 10)), List.of());
+        // Redis 7 個、預留 0 筆、上一輪也是 -3
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class)))
+                .thenReturn(List.of("7", 0L, "-3"));
+
+        StockReconciler.ReconcileReport report = stockReconciler.reconcile();
+
+        assertEquals(1, report.drifted());
+        assertEquals(0, report.corrected());
+        verify(stringRedisTemplate, times(1)).executePipelined(any(RedisCallback.class));
+        verifyNoInteractions(hazelcastService);
+    }
+
+    private void lockAcquired() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+    }
+
+    private static StockView stock(Long id, Integer stock) {
+        return new StockView() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public Integer getStock() {
+                return stock;
+            }
+        };
+    }
+}
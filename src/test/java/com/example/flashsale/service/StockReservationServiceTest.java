@@ -0,0 +1,145 @@
+package com.example.flashsale.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StockReservationServiceTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
+    @Mock
+    private RedisScript<Long> reservationReleaseScript;
+
+    @Mock
+    private RedisScript<Long> reservationReapScript;
+
+    @Mock
+    private HazelcastService hazelcastService;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private ZSetOperations<String, String> zSetOperations;
+
+    private final StockKeys stockKeys = new StockKeys("", 1);
+
+    private StockReservationService stockReservationService;
+
+    @BeforeEach
+    void setUp() {
+        stockReservationService = new StockReservationService(stringRedisTemplate, reactiveStringRedisTemplate,
+                reservationReleaseScript, reservationReapScript, stockKeys, hazelcastService, new SimpleMeterRegistry(),
+                true, 60000, 300000, 500, 30000, true);
+    }
+
+    @Test
+    @DisplayName("測試 Reaper 只處理排定時間已到的 Key，一批收滿就繼續收，收完依最早到期的預留排下次檢查")
+    void testReap_DrainsExpiredInBatches() {
+        Long productId = 1L;
+        lockAcquired();
+        when(zSetOperations.rangeByScore(eq(StockReservationService.DUE_KEY), eq(Double.NEGATIVE_INFINITY), anyDouble()))
+                .thenReturn(Set.of("1:0"));
+        List<String> keys = List.of(stockKeys.reservations(productId, 0), stockKeys.stock(productId), stockKeys.buyers(productId));
+        // 第一批收滿 500 筆，第二批只剩 120 筆
+        when(stringRedisTemplate.execute(eq(reservationReapScript), eq(keys), anyString(), eq("500")))
+                .thenReturn(500L, 120L);
+        // 剩下最早的預留還有 5 秒才到期
+        long soon = System.currentTimeMillis() + 5000;
+        when(zSetOperations.rangeWithScores(stockKeys.reservations(productId, 0), 0, 0))
+                .thenReturn(Set.of(new DefaultTypedTuple<>("o:1001", (double) soon)));
+
+        stockReservationService.reap();
+
+        verify(stringRedisTemplate, times(2)).execute(eq(reservationReapScript), eq(keys), anyString(), eq("500"));
+        // 庫存回來了，通知各節點清除售罄旗標
+        verify(hazelcastService).broadcastStockReturned(productId);
+        verify(zSetOperations).add(StockReservationService.DUE_KEY, "1:0", (double) soon);
+        verify(stringRedisTemplate).delete("product:reservations:reap:lock");
+    }
+
+    @Test
+    @DisplayName("測試沒有預留的 Key 排到 ttl 之後才再檢查，不通知其他節點")
+    void testReap_NothingExpired() {
+        lockAcquired();
+        when(zSetOperations.rangeByScore(eq(StockReservationService.DUE_KEY), eq(Double.NEGATIVE_INFINITY), anyDouble()))
+                .thenReturn(Set.of("1:0", "2:0"));
+        when(stringRedisTemplate.execute(eq(reservationReapScript), anyList(), anyString(), anyString())).thenReturn(0L);
+        when(zSetOperations.rangeWithScores(anyString(), eq(0L), eq(0L))).thenReturn(Set.of());
+        long before = System.currentTimeMillis();
+
+        stockReservationService.reap();
+
+        verify(stringRedisTemplate, times(2)).execute(eq(reservationReapScript), anyList(), anyString(), anyString());
+        verify(zSetOperations).add(eq(StockReservationService.DUE_KEY), eq("1:0"), doubleThat(next -> next >= before + 60000));
+        verifyNoInteractions(hazelcastService);
+    }
+
+    @Test
+    @DisplayName("測試別的節點正在收時這一輪什麼都不做")
+    void testReap_SkipsWhenLockHeld() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+
+        stockReservationService.reap();
+
+        verify(stringRedisTemplate, never()).opsForZSet();
+        verify(stringRedisTemplate, never()).execute(eq(reservationReapScript), anyList(), anyString(), anyString());
+    }
+
+    @Test
+    @DisplayName("測試每個節點每個 Key 只登記一次 (ZADD NX)")
+    void testRegister_OncePerKey() {
+        when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOperations);
+
+        stockReservationService.register(1L, 1001L);
+        stockReservationService.register(1L, 1002L);
+
+        verify(zSetOperations, times(1)).addIfAbsent(eq(StockReservationService.DUE_KEY), eq("1:0"), anyDouble());
+    }
+
+    private void lockAcquired() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        when(valueOperations.get(anyString())).thenAnswer(invocation -> lockOwner());
+        when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOperations);
+    }
+
+    // 鎖的值是 reap() 裡隨機產生的，直接回傳剛剛 setIfAbsent 的值
+    private String lockOwner() {
+        return mockingDetails(valueOperations).getInvocations().stream()
+                .filter(invocation -> invocation.getMethod().getName().equals("setIfAbsent"))
+                .map(invocation -> (String) invocation.getArgument(1))
+                .findFirst().orElse(null);
+    }
+
+    @Test
+    @DisplayName("測試預留成員格式：訂單編號:userId")
+    void testMember() {
+        assertEquals("abc:1001", StockReservationService.member("abc", 1001L));
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.flashsale.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StockShardManagerTest {
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private RedisScript<Long> stockLeaseScript;
+
+    @Mock
+    private HazelcastService hazelcastService;
+
+    private final StockKeys stockKeys = new StockKeys("", 3);
+
+    private StockShardManager stockShardManager;
+
+    @BeforeEach
+    void setUp() {
+        stockShardManager = new StockShardManager(stringRedisTemplate, stockLeaseScript, hazelcastService, stockKeys);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+    }
+
+    @Test
+    @DisplayName("測試剩餘庫存一次 MGET 讀回所有分片加總")
+    void testRemaining_SumsAllShardsInOneCall() {
+        Long productId = 1L;
+        List<String> keys = List.of(stockKeys.stock(productId, 0), stockKeys.stock(productId, 1), stockKeys.stock(productId, 2));
+        when(valueOperations.multiGet(keys)).thenReturn(Arrays.asList("4", null, "7"));
+
+        assertEquals(11L, stockShardManager.remaining(productId));
+        verify(valueOperations, times(1)).multiGet(anyList());
+    }
+
+    @Test
+    @DisplayName("測試重新分配：多的分片扣出來補給不夠的分片，總數不變")
+    void testRebalance_MovesSurplusToDeficitShards() {
+        Long productId = 1L;
+        // 總共 9 個，目標每個分片 3 個
+        when(valueOperations.multiGet(anyList())).thenReturn(List.of("9", "0", "0"), List.of("3", "3", "3"));
+        when(stringRedisTemplate.execute(stockLeaseScript, List.of(stockKeys.stock(productId, 0)), "6")).thenReturn(6L);
+
+        StockShardManager.RebalanceResult result = stockShardManager.rebalance(productId);
+
+        verify(valueOperations).increment(stockKeys.stock(productId, 1), 3L);
+        verify(valueOperations).increment(stockKeys.stock(productId, 2), 3L);
+        verify(hazelcastService).broadcastStockReturned(productId);
+        assertEquals(6L, result.moved());
+        assertEquals(List.of(3L, 3L, 3L), result.after());
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.flashsale.service;
+
+import com.example.flashsale.repository.ProductRepository;
+import com.example.flashsale.repository.ProductRepository.StockView;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StockWarmerTest {
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private StockShardManager stockShardManager;
+
+    @Test
+    @DisplayName("測試依 ID 分頁預熱，最後一頁不滿就停，已存在的 Key 不算新寫入")
+    void testWarmUp_PagesUntilShortPage() {
+        StockWarmer stockWarmer = new StockWarmer(productRepository, stockShardManager,
+                new SimpleMeterRegistry(), false, 2, 1);
+        when(productRepository.findStockAfter(eq(0L), any(Pageable.class)))
+                .thenReturn(List.of(stock(1L, 10), stock(2L, 20)));
+        when(productRepository.findStockAfter(eq(2L), any(Pageable.class)))
+                .thenReturn(List.of(stock(3L, 30)));
+        // 第一頁兩個都是新的；第二頁那個已經在 Redis 裡了 (SET NX 沒寫)
+        when(stockShardManager.warm(anyList())).thenReturn(2L, 0L);
+
+        StockWarmer.WarmUpReport report = stockWarmer.warmUp(0L);
+
+        assertNull(report.error());
+        assertEquals(3, report.products());
+        assertEquals(2, report.written());
+        verify(productRepository, times(2)).findStockAfter(anyLong(), any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("測試啟動時預熱失敗會讓啟動失敗，readiness 不會變成 UP")
+    void testRun_FailsStartupWhenWarmUpFails() {
+        StockWarmer stockWarmer = new StockWarmer(productRepository, stockShardManager,
+                new SimpleMeterRegistry(), true, 2, 1);
+        when(productRepository.findStockAfter(eq(0L), any(Pageable.class)))
+                .thenReturn(List.of(stock(1L, 10)));
+        when(stockShardManager.warm(anyList())).thenThrow(new IllegalStateException("redis down"));
+
+        assertThrows(IllegalStateException.class, () -> stockWarmer.run(new DefaultApplicationArguments()));
+    }
+
+    private static StockView stock(Long id, Integer stock) {
+        return new StockView() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public Integer getStock() {
+                return stock;
+            }
+        };
+    }
+}
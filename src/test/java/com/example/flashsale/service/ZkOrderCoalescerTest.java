@@ -0,0 +1,201 @@
+package com.example.flashsale.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.MockedConstruction;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ZkOrderCoalescerTest {
+
+    private static final Long PRODUCT_ID = 1L;
+
+    @Mock
+    private CuratorFramework curatorFramework;
+
+    @Mock
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    @Mock
+    private KafkaService kafkaService;
+
+    @Mock
+    private StockReservationService stockReservationService;
+
+    private final SoldOutCache soldOutCache = new SoldOutCache();
+    private final StockKeys stockKeys = new StockKeys("", 1);
+    private final String stockKey = stockKeys.stock(PRODUCT_ID);
+    private SimpleMeterRegistry meterRegistry;
+    private ZkOrderCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        coalescer = coalescer(false);
+    }
+
+    private ZkOrderCoalescer coalescer(boolean onePerUser) {
+        return new ZkOrderCoalescer(curatorFramework, stringRedisTemplate, kafkaService, soldOutCache,
+                new ZkLockMetrics(meterRegistry), stockKeys, stockReservationService, true, 200, onePerUser);
+    }
+
+    @Test
+    @DisplayName("測試一次鎖處理整批：前 min(庫存, 批次數量) 筆成功，其餘失敗並立售罄旗標")
+    void testOrder_GrantsMinOfStockAndBatch() throws Exception {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(stockKey)).thenReturn("3");
+        when(kafkaService.sendOrderMessage(eq(PRODUCT_ID), anyLong(), any(UUID.class)))
+                .thenReturn(new CompletableFuture<>());
+        // 前面已經有 4 筆在排隊，這次呼叫的人排第 5
+        List<ZkOrderCoalescer.PendingOrder> queued = enqueue(4);
+
+        try (MockedConstruction<InterProcessMutex> locks = mockLocks(true)) {
+            assertEquals("搶購失敗，庫存不足", coalescer.order(PRODUCT_ID, 100L));
+
+            // 5 筆只搶一次鎖
+            InterProcessMutex lock = locks.constructed().get(0);
+            verify(lock, times(1)).acquire(anyLong(), any(TimeUnit.class));
+            verify(lock, times(1)).release();
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("搶購成功 (ZK Lock)", queued.get(i).result.getNow(null));
+        }
+        assertEquals("搶購失敗，庫存不足", queued.get(3).result.getNow(null));
+        verify(valueOperations).set(stockKey, "0");
+        verify(kafkaService, times(3)).sendOrderMessage(eq(PRODUCT_ID), anyLong(), any(UUID.class));
+        assertTrue(soldOutCache.isSoldOut(PRODUCT_ID));
+        assertEquals(5, meterRegistry.get("flashsale.zk.coalesce.batch").summary().totalAmount());
+    }
+
+    @Test
+    @DisplayName("測試庫存已經是 0：不寫回庫存、不送 Kafka")
+    void testOrder_SoldOut() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(stockKey)).thenReturn("0");
+
+        try (MockedConstruction<InterProcessMutex> ignored = mockLocks(true)) {
+            assertEquals("搶購失敗，庫存不足", coalescer.order(PRODUCT_ID, 100L));
+        }
+
+        verify(valueOperations, never()).set(anyString(), anyString());
+        verifyNoInteractions(kafkaService);
+        assertTrue(soldOutCache.isSoldOut(PRODUCT_ID));
+    }
+
+    @Test
+    @DisplayName("測試搶 ZK 鎖超時：整批回系統忙碌，不碰庫存")
+    void testOrder_LockTimeout() throws Exception {
+        List<ZkOrderCoalescer.PendingOrder> queued = enqueue(2);
+
+        try (MockedConstruction<InterProcessMutex> locks = mockLocks(false)) {
+            assertEquals("搶購失敗，系統忙碌中", coalescer.order(PRODUCT_ID, 100L));
+            verify(locks.constructed().get(0), never()).release();
+        }
+
+        queued.forEach(pending -> assertEquals("搶購失敗，系統忙碌中", pending.result.getNow(null)));
+        verifyNoInteractions(stringRedisTemplate, kafkaService);
+    }
+
+    @Test
+    @DisplayName("測試 Kafka 送到一半丟例外：還沒送出的庫存補回 Redis，已補記的預留先移除")
+    void testOrder_RefundsUnsentWhenSendThrows() {
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(stockKey)).thenReturn("5");
+        when(stockReservationService.isEnabled()).thenReturn(true);
+        when(stockReservationService.forget(eq(PRODUCT_ID), anyLong(), anyString())).thenReturn(Mono.just(true));
+        // 第一筆送出，第二筆 Producer 直接丟例外
+        when(kafkaService.sendOrderMessage(eq(PRODUCT_ID), anyLong(), any(UUID.class)))
+                .thenReturn(new CompletableFuture<>())
+                .thenThrow(new IllegalStateException("buffer exhausted"));
+        List<ZkOrderCoalescer.PendingOrder> queued = enqueue(2);
+
+        try (MockedConstruction<InterProcessMutex> ignored = mockLocks(true)) {
+            assertEquals("系統錯誤", coalescer.order(PRODUCT_ID, 100L));
+        }
+
+        // 扣了 3 個，只送出 1 個：補回 2 個 (送失敗那筆的預留已移除，Reaper 不會再還一次)
+        verify(valueOperations).set(stockKey, "2");
+        verify(valueOperations).increment(stockKey, 2L);
+        verify(stockReservationService).forget(eq(PRODUCT_ID), eq(queued.get(1).userId), anyString());
+        assertEquals("搶購成功 (ZK Lock)", queued.get(0).result.getNow(null));
+        assertEquals("系統錯誤", queued.get(1).result.getNow(null));
+    }
+
+    @Test
+    @DisplayName("測試每人限購一件：同一批裡已經買過的不佔庫存，送失敗時未送出的限購名額一起還回去")
+    @SuppressWarnings("unchecked")
+    void testOrder_OnePerUser() {
+        coalescer = coalescer(true);
+        SetOperations<String, String> buyers = mock(SetOperations.class);
+        String buyersKey = stockKeys.buyers(PRODUCT_ID);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(stringRedisTemplate.opsForSet()).thenReturn(buyers);
+        when(valueOperations.get(stockKey)).thenReturn("5");
+        // 用戶 2 已經買過
+        when(buyers.add(eq(buyersKey), anyString())).thenAnswer(invocation ->
+                "2".equals(invocation.getArgument(1)) ? 0L : 1L);
+        when(kafkaService.sendOrderMessage(eq(PRODUCT_ID), anyLong(), any(UUID.class)))
+                .thenReturn(new CompletableFuture<>())
+                .thenThrow(new IllegalStateException("buffer exhausted"));
+        List<ZkOrderCoalescer.PendingOrder> queued = enqueue(3);
+
+        try (MockedConstruction<InterProcessMutex> ignored = mockLocks(true)) {
+            // 用戶 1 送出，用戶 3 送失敗，用戶 100 (呼叫端) 還沒送
+            assertEquals("系統錯誤", coalescer.order(PRODUCT_ID, 100L));
+        }
+
+        assertEquals("搶購成功 (ZK Lock)", queued.get(0).result.getNow(null));
+        assertEquals("搶購失敗，每人限購一件", queued.get(1).result.getNow(null));
+        // 3 個名額只扣 3 個庫存，補回沒送出的 2 個和它們的限購名額
+        verify(valueOperations).set(stockKey, "2");
+        verify(valueOperations).increment(stockKey, 2L);
+        verify(buyers).remove(buyersKey, "3", "100");
+        verify(kafkaService).sendFailureLog(2L, PRODUCT_ID, "ALREADY_PURCHASED");
+    }
+
+    // 直接放進本機佇列，模擬呼叫 order() 之前已經在排隊的請求
+    @SuppressWarnings("unchecked")
+    private List<ZkOrderCoalescer.PendingOrder> enqueue(int count) {
+        Map<Long, ZkOrderCoalescer.ProductQueue> queues =
+                (Map<Long, ZkOrderCoalescer.ProductQueue>) ReflectionTestUtils.getField(coalescer, "queues");
+        ZkOrderCoalescer.ProductQueue queue = queues.computeIfAbsent(PRODUCT_ID, id -> new ZkOrderCoalescer.ProductQueue());
+        List<ZkOrderCoalescer.PendingOrder> pending = new ArrayList<>();
+        for (long userId = 1; userId <= count; userId++) {
+            ZkOrderCoalescer.PendingOrder order = new ZkOrderCoalescer.PendingOrder(userId);
+            queue.pending.add(order);
+            pending.add(order);
+        }
+        return pending;
+    }
+
+    private static MockedConstruction<InterProcessMutex> mockLocks(boolean acquired) {
+        return mockConstruction(InterProcessMutex.class,
+                (lock, context) -> when(lock.acquire(anyLong(), any(TimeUnit.class))).thenReturn(acquired));
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.flashsale.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongBloomFilterTest {
+
+    @Test
+    @DisplayName("測試加入過的 ID 一定查得到，沒加入的誤判率在設定範圍內")
+    void testNoFalseNegativesAndBoundedFalsePositives() {
+        int n = 100_000;
+        LongBloomFilter filter = new LongBloomFilter(n, 0.01);
+        for (long id = 1; id <= n; id++) {
+            filter.add(id);
+        }
+
+        for (long id = 1; id <= n; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+
+        int falsePositives = 0;
+        for (long id = n + 1; id <= 2L * n; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        // 設定 1%，給一點統計誤差空間
+        assertTrue(falsePositives < n * 0.02, "誤判數過高: " + falsePositives);
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.flashsale.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongOpenHashSetTest {
+
+    @Test
+    @DisplayName("測試新增、刪除與擴容後仍能正確查詢")
+    void testAddRemoveAndResize() {
+        LongOpenHashSet set = new LongOpenHashSet();
+        for (long id = 1; id <= 10_000; id++) {
+            assertTrue(set.add(id));
+        }
+        assertFalse(set.add(5L));
+        assertEquals(10_000, set.size());
+
+        // 刪掉偶數，奇數的探測鏈不能斷
+        for (long id = 2; id <= 10_000; id += 2) {
+            assertTrue(set.remove(id));
+        }
+        for (long id = 1; id <= 10_000; id++) {
+            assertEquals(id % 2 == 1, set.contains(id));
+        }
+        assertEquals(5_000, set.size());
+    }
+
+    @Test
+    @DisplayName("測試內部標記值 (0、Long.MIN_VALUE) 也能當一般值使用")
+    void testSentinelValues() {
+        LongOpenHashSet set = new LongOpenHashSet();
+        assertFalse(set.contains(0L));
+        assertTrue(set.add(0L));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertTrue(set.contains(0L));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertTrue(set.remove(0L));
+        assertFalse(set.contains(0L));
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.flashsale.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpscRingBufferTest {
+
+    @Test
+    @DisplayName("測試滿了 offer 回傳 false，取走之後可以繞圈繼續寫，順序不變")
+    void testOfferDrain_FullAndWrapAround() {
+        MpscRingBuffer ring = new MpscRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i, i * 10, i));
+        }
+        assertFalse(ring.offer(99, 99, 0));
+
+        List<Long> drained = new ArrayList<>();
+        assertEquals(2, ring.drain((a, b, tag) -> drained.add(a), 2));
+        assertTrue(ring.offer(4, 40, 4));
+        assertTrue(ring.offer(5, 50, 5));
+        assertEquals(4, ring.drain((a, b, tag) -> drained.add(a), 10));
+
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L, 5L), drained);
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    @DisplayName("測試多個生產者同時寫，每一筆都完整地被唯一消費者讀到一次")
+    void testConcurrentProducers() throws Exception {
+        MpscRingBuffer ring = new MpscRingBuffer(1024);
+        int producers = 4;
+        int perProducer = 50_000;
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < perProducer; i++) {
+                    // 滿了就重試 (測試用，真正的呼叫端會丟棄或合併)
+                    while (!ring.offer(producer, i, producer)) {
+                        Thread.onSpinWait();
+                    }
+                }
+                return null;
+            });
+        }
+        start.countDown();
+
+        long[] received = new long[producers];
+        long[] nextExpected = new long[producers];
+        boolean[] corrupted = {false};
+        long total = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (total < (long) producers * perProducer && System.nanoTime() < deadline) {
+            total += ring.drain((a, b, tag) -> {
+                int producer = (int) a;
+                // 同一個生產者的資料要照順序、三個欄位要一致
+                if (tag != producer || b != nextExpected[producer]) {
+                    corrupted[0] = true;
+                }
+                nextExpected[producer] = b + 1;
+                received[producer]++;
+            }, 256);
+        }
+        pool.shutdown();
+
+        assertFalse(corrupted[0]);
+        for (long count : received) {
+            assertEquals(perProducer, count);
+        }
+    }
+}